@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk;
+
+import java.util.List;
+
+/**
+ * Runs Eclipse applications like <code>org.eclipse.equinox.p2.director</code> or <code>org.eclipse.ant.core.antRunner</code>.
+ */
+public interface ApplicationRunner {
+
+    /**
+     * Runs an application and waits for its end.
+     *
+     * @param applicationId id of the application extension
+     * @param args the command line arguments of the application, without framework arguments like <code>-nosplash</code>
+     * @return the exit value of the application, 0 if it succeeded
+     */
+    int run(String applicationId, List<String> args) throws Exception;
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk
+
+import de.monkeyworks.buildmonkey.eclipsesdk.daemon.P2DaemonClient
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs Eclipse applications like the p2 director, the p2 publisher or the antRunner of an Eclipse installation.
+ *
+ * By default every run forks a JVM with the Equinox launcher. With the project property
+ * <code>buildmonkey.p2.daemon=true</code>, e.g. in gradle.properties, the applications run in the BuildMonkey p2
+ * daemon instead: one long-lived Equinox process per installation, shared by all tasks and builds, which stops after
+ * <code>buildmonkey.p2.daemon.idleTimeout</code> minutes without use (180 by default). Tasks may also ask for an
+ * {@link EmbeddedEquinox} inside the build process.
+ */
+class EclipseApplication {
+
+    static final String DAEMON_PROPERTY = 'buildmonkey.p2.daemon'
+    static final String DAEMON_IDLE_TIMEOUT_PROPERTY = 'buildmonkey.p2.daemon.idleTimeout'
+    static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 180
+
+    /**
+     * Runs an application and fails if its exit value is not 0.
+     *
+     * @param project project running the application
+     * @param eclipseHome the Eclipse installation
+     * @param applicationId id of the application extension
+     * @param args arguments of the application
+     * @param embedded whether to run the application inside the build process
+     * @param launcherVersion version of the Equinox launcher a forked application is started with, the configured or
+     * newest launcher by default
+     */
+    static void run(Project project, Path eclipseHome, String applicationId, List args, boolean embedded = false,
+                    String launcherVersion = null) {
+        List<String> arguments = args.collect { it.toString() }
+
+        if(embedded) {
+            EmbeddedEquinox.get(project, eclipseHome).run(applicationId, arguments)
+        } else if(isDaemonEnabled(project)) {
+            runInDaemon(project, eclipseHome, applicationId, arguments)
+        } else {
+            fork(project, eclipseHome, applicationId, arguments, launcherVersion)
+        }
+    }
+
+    static boolean isDaemonEnabled(Project project) {
+        return project.hasProperty(DAEMON_PROPERTY) && Boolean.valueOf(project.property(DAEMON_PROPERTY).toString())
+    }
+
+    static File getDaemonDirectory() {
+        return new File(System.getProperty('user.home'), '.buildmonkey/daemon')
+    }
+
+    private static void runInDaemon(Project project, Path eclipseHome, String applicationId, List<String> args) {
+        long idleTimeout = DEFAULT_IDLE_TIMEOUT_MINUTES
+        if(project.hasProperty(DAEMON_IDLE_TIMEOUT_PROPERTY)) {
+            idleTimeout = project.property(DAEMON_IDLE_TIMEOUT_PROPERTY).toString() as long
+        }
+
+        long start = System.currentTimeMillis()
+        def client = P2DaemonClient.connectOrStart(eclipseHome, getDaemonDirectory(), TimeUnit.MINUTES.toMillis(idleTimeout))
+        int exitValue = client.run(applicationId, args, System.out)
+        if(exitValue != 0) {
+            throw new GradleException("Eclipse application ${applicationId} failed with exit value ${exitValue}")
+        }
+        project.logger.info("Eclipse application ${applicationId} finished in p2 daemon in ${System.currentTimeMillis() - start} ms")
+    }
+
+    private static void fork(Project project, Path eclipseHome, String applicationId, List<String> args, String launcherVersion) {
+        Path launcher = getLauncherPath(project, eclipseHome, launcherVersion)
+
+        project.exec {
+            commandLine(['java',
+                         // p2 reads the property from the system properties of the framework
+                         '-Declipse.p2.mirrors=false',
+                         '-cp', launcher.toFile(),
+                         'org.eclipse.core.launcher.Main',
+                         '-application', applicationId,
+                         '-consoleLog',
+                         '-nosplash'] + args)
+        }
+    }
+
+    /**
+     * @return the Equinox launcher of the given version, otherwise the configured launcher for the Eclipse SDK of the
+     * build or the newest launcher of other installations
+     */
+    static Path getLauncherPath(Project project, Path eclipseHome, String launcherVersion = null) {
+        if(launcherVersion) {
+            Path launcher = eclipseHome.resolve("plugins/org.eclipse.equinox.launcher_${launcherVersion}.jar")
+            if(!launcher.toFile().isFile()) {
+                throw new GradleException("Equinox launcher ${launcherVersion} not found in ${eclipseHome}")
+            }
+            return launcher
+        }
+
+        def config = project.extensions.findByName(DownloadHelper.ECLIPSE_CONFIGURATION_EXTENSION_NAME) ?:
+                project.rootProject.extensions.findByName(DownloadHelper.ECLIPSE_CONFIGURATION_EXTENSION_NAME)
+        if(config instanceof EclipseConfiguration
+                && config.eclipseHome.toAbsolutePath().normalize() == eclipseHome.toAbsolutePath().normalize()) {
+            return config.launcherPath
+        }
+
+        def launchers = new FileNameFinder().getFileNames(eclipseHome.resolve('plugins').toString(), 'org.eclipse.equinox.launcher_*.jar')
+        if(launchers.isEmpty()) {
+            throw new GradleException("No Equinox launcher found in ${eclipseHome}")
+        }
+        return Paths.get(launchers.max { String a, String b -> compareVersions(launcherVersion(a), launcherVersion(b)) })
+    }
+
+    private static String launcherVersion(String launcher) {
+        return new File(launcher).name - 'org.eclipse.equinox.launcher_' - ~/\.jar$/
+    }
+
+    /**
+     * compares major, minor and micro numerically, then the qualifier
+     */
+    static int compareVersions(String a, String b) {
+        List<String> first = a.tokenize('.')
+        List<String> second = b.tokenize('.')
+        for(int i = 0; i < 3; i++) {
+            int result = ((first[i] ?: '0') as int) <=> ((second[i] ?: '0') as int)
+            if(result != 0) {
+                return result
+            }
+        }
+        return first.drop(3).join('.') <=> second.drop(3).join('.')
+    }
+}
@@ -58,15 +58,21 @@ class EclipseConfiguration {
         }
     }
 
-    Path getPluginPath() {
+    /**
+     * @return directory holding the plugins and the configuration of the SDK
+     */
+    Path getEclipseHome() {
         def os = org.gradle.internal.os.OperatingSystem.current()
         def eclipsePath = Paths.get(localEclipseDir)
-        def basePath = eclipsePath.resolve("plugins/")
 
         if(os.isMacOsX()) {
-            basePath = eclipsePath.resolve("Contents/Eclipse/plugins/")
+            return eclipsePath.resolve("Contents/Eclipse/")
         }
-        return basePath
+        return eclipsePath
+    }
+
+    Path getPluginPath() {
+        return getEclipseHome().resolve("plugins/")
     }
 
     void findLauncherVersion() {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk
+
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.api.logging.Logger
+
+import java.nio.file.Path
+
+/**
+ * Equinox framework of an Eclipse installation running inside the Gradle process.
+ *
+ * Eclipse applications like the antRunner or the p2 publisher are launched in the running framework instead of
+ * forking a JVM for each of them, so the framework is booted and resolved once per installation and build. All
+ * instances are shut down when the build finishes.
+ */
+class EmbeddedEquinox {
+
+    private static final Map<Path, EmbeddedEquinox> instances = [:]
+
+    final EquinoxFramework framework
+
+    private final Logger logger
+
+    EmbeddedEquinox(Path eclipseHome, File configurationArea, Logger logger) {
+        this.framework = new EquinoxFramework(eclipseHome, configurationArea)
+        this.logger = logger
+    }
+
+    /**
+     * Returns the running framework of the SDK configured for the project, starting it on first use in this build.
+     */
+    static EmbeddedEquinox get(Project project) {
+        EclipseConfiguration config = project.eclipseConfiguration
+        return get(project, config.eclipseHome)
+    }
+
+    /**
+     * Returns the running framework of an Eclipse installation, starting it on first use in this build.
+     */
+    static synchronized EmbeddedEquinox get(Project project, Path eclipseHome) {
+        Path home = eclipseHome.toAbsolutePath().normalize()
+
+        EmbeddedEquinox equinox = instances[home]
+        if(equinox == null) {
+            def configurationArea = new File(project.rootProject.buildDir, "tmp/embeddedEquinox/${instances.size()}")
+            equinox = new EmbeddedEquinox(home, configurationArea, project.logger)
+            equinox.start()
+            instances[home] = equinox
+
+            project.gradle.buildFinished {
+                shutdownAll()
+            }
+        }
+        return equinox
+    }
+
+    static synchronized void shutdownAll() {
+        instances.values().each { it.shutdown() }
+        instances.clear()
+    }
+
+    void start() {
+        long start = System.currentTimeMillis()
+        framework.start()
+        logger.info("Started embedded Equinox of ${framework.eclipseHome} in ${System.currentTimeMillis() - start} ms")
+    }
+
+    /**
+     * Runs an Eclipse application like <code>org.eclipse.ant.core.antRunner</code> and waits for its end.
+     *
+     * @param applicationId id of the application extension
+     * @param args the command line arguments of the application
+     */
+    void run(String applicationId, List args) {
+        long start = System.currentTimeMillis()
+        int exitValue = framework.run(applicationId, args.collect { it.toString() })
+        if(exitValue != 0) {
+            throw new GradleException("Eclipse application ${applicationId} failed with exit value ${exitValue}")
+        }
+        logger.info("Eclipse application ${applicationId} finished in ${System.currentTimeMillis() - start} ms")
+    }
+
+    void shutdown() {
+        framework.shutdown()
+        logger.info("Stopped embedded Equinox of ${framework.eclipseHome}")
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Equinox framework of an Eclipse installation running in the current JVM.
+ *
+ * The framework is loaded by its own class loader from the installation and is only accessed reflectively, nothing
+ * of it is visible to the caller. The configuration of the installation is used as shared, read only configuration,
+ * everything the framework writes goes into a private configuration area. Equinox allows only one framework per
+ * class loader, so there can be several instances for different installations in one JVM.
+ *
+ * Applications are launched through their application descriptors and run one after the other on a dedicated main
+ * thread, which is what applications like the p2 director expect.
+ */
+public class EquinoxFramework implements ApplicationRunner {
+
+    private static final String APPLICATION_DESCRIPTOR = "org.osgi.service.application.ApplicationDescriptor";
+    private static final long APPLICATION_TIMEOUT = 60000;
+    private static final int FAILED = 1;
+
+    private final Path eclipseHome;
+    private final File configurationArea;
+
+    private URLClassLoader frameworkLoader;
+    private Class<?> starter;
+    private Class<?> bundleContextClass;
+    private Class<?> serviceReferenceClass;
+    private volatile Object bundleContext;
+    private Thread mainThread;
+    private volatile Throwable mainThreadFailure;
+
+    public EquinoxFramework(Path eclipseHome, File configurationArea) {
+        this.eclipseHome = eclipseHome.toAbsolutePath().normalize();
+        this.configurationArea = configurationArea;
+    }
+
+    public Path getEclipseHome() {
+        return eclipseHome;
+    }
+
+    public boolean isRunning() {
+        return bundleContext != null;
+    }
+
+    /**
+     * Boots the framework and starts the bundles of the installation.
+     */
+    public synchronized void start() throws Exception {
+        File osgiBundle = findOsgiBundle(eclipseHome.resolve("plugins").toFile());
+        configurationArea.mkdirs();
+        frameworkLoader = new URLClassLoader(new URL[] { osgiBundle.toURI().toURL() }, ClassLoader.getSystemClassLoader().getParent());
+        starter = frameworkLoader.loadClass("org.eclipse.core.runtime.adaptor.EclipseStarter");
+        bundleContextClass = frameworkLoader.loadClass("org.osgi.framework.BundleContext");
+        serviceReferenceClass = frameworkLoader.loadClass("org.osgi.framework.ServiceReference");
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("osgi.install.area", eclipseHome.toUri().toString());
+        properties.put("osgi.configuration.area", configurationArea.toURI().toString());
+        properties.put("osgi.sharedConfiguration.area", eclipseHome.resolve("configuration").toUri().toString());
+        properties.put("osgi.configuration.cascaded", "true");
+        properties.put("osgi.instance.area", new File(configurationArea, "workspace").toURI().toString());
+        properties.put("osgi.framework.useSystemProperties", "false");
+        properties.put("osgi.noShutdown", "true");
+        properties.put("eclipse.consoleLog", "true");
+        // applications are launched through their descriptors, one after the other on the main thread
+        properties.put("eclipse.ignoreApp", "false");
+        properties.put("eclipse.application.launchDefault", "false");
+        properties.put("eclipse.allowAppRelaunch", "true");
+        properties.put("eclipse.p2.mirrors", "false");
+
+        withFrameworkLoader(() -> {
+            starter.getMethod("setInitialProperties", Map.class).invoke(null, properties);
+            bundleContext = starter.getMethod("startup", String[].class, Runnable.class).invoke(null, new String[0], null);
+            return null;
+        });
+
+        // EclipseStarter.run() registers the application launcher and then runs every main thread application
+        // launched afterwards until the framework is shut down
+        Method run = starter.getMethod("run", Object.class);
+        mainThread = new Thread(() -> {
+            try {
+                run.invoke(null, (Object) null);
+            } catch (InvocationTargetException | IllegalAccessException e) {
+                if (isRunning()) {
+                    // no application can run any more, the next and the waiting callers fail with the cause
+                    mainThreadFailure = e instanceof InvocationTargetException ? e.getCause() : e;
+                }
+            }
+        }, "Equinox main " + eclipseHome.getFileName());
+        mainThread.setDaemon(true);
+        mainThread.setContextClassLoader(frameworkLoader);
+        mainThread.start();
+    }
+
+    @Override
+    public synchronized int run(String applicationId, List<String> args) throws Exception {
+        if (bundleContext == null) {
+            throw new IllegalStateException("Equinox of " + eclipseHome + " is not running");
+        }
+
+        checkMainThread();
+
+        Object reference = findApplication(applicationId);
+        Object descriptor = bundleContextClass.getMethod("getService", serviceReferenceClass).invoke(bundleContext, reference);
+        try {
+            Object handle = withFrameworkLoader(() -> invoke(descriptor, "launch", new Class<?>[] { Map.class },
+                    Collections.singletonMap("application.args", args.toArray(new String[args.size()]))));
+            Object exitValue = waitForExitValue(handle);
+            if (exitValue instanceof Integer) {
+                return (Integer) exitValue;
+            }
+            // a failing application leaves no exit value
+            return exitValue == null ? FAILED : 0;
+        } finally {
+            bundleContextClass.getMethod("ungetService", serviceReferenceClass).invoke(bundleContext, reference);
+        }
+    }
+
+    /**
+     * Waits for the application to finish, unless the main thread it runs on fails.
+     */
+    private Object waitForExitValue(Object handle) throws Exception {
+        while (true) {
+            try {
+                return invoke(handle, "getExitValue", new Class<?>[] { long.class }, 1000L);
+            } catch (Exception e) {
+                if (!isExitValueNotAvailable(e)) {
+                    throw e;
+                }
+            }
+            checkMainThread();
+        }
+    }
+
+    private static boolean isExitValueNotAvailable(Exception e) throws Exception {
+        if (!e.getClass().getName().equals("org.osgi.service.application.ApplicationException")) {
+            return false;
+        }
+        Object code = e.getClass().getMethod("getErrorCode").invoke(e);
+        return code.equals(e.getClass().getField("APPLICATION_EXITVALUE_NOT_AVAILABLE").get(null));
+    }
+
+    private void checkMainThread() {
+        Throwable failure = mainThreadFailure;
+        if (failure != null) {
+            throw new IllegalStateException("The Equinox main thread of " + eclipseHome + " has failed", failure);
+        }
+    }
+
+    public synchronized void shutdown() throws Exception {
+        if (bundleContext == null) {
+            return;
+        }
+        bundleContext = null;
+        try {
+            withFrameworkLoader(() -> starter.getMethod("shutdown").invoke(null));
+            mainThread.join(APPLICATION_TIMEOUT);
+        } finally {
+            frameworkLoader.close();
+        }
+    }
+
+    /**
+     * The application descriptors are registered asynchronously once the extension registry is up.
+     */
+    private Object findApplication(String applicationId) throws Exception {
+        Method getServiceReferences = bundleContextClass.getMethod("getServiceReferences", String.class, String.class);
+        long deadline = System.currentTimeMillis() + APPLICATION_TIMEOUT;
+        while (true) {
+            Object[] references = (Object[]) getServiceReferences.invoke(bundleContext, APPLICATION_DESCRIPTOR,
+                    "(service.pid=" + applicationId + ")");
+            if (references != null && references.length > 0) {
+                return references[0];
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalArgumentException("Eclipse application " + applicationId + " not found in " + eclipseHome);
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static Object invoke(Object target, String name, Class<?>[] parameterTypes, Object... args) throws Exception {
+        Method method = target.getClass().getMethod(name, parameterTypes);
+        method.setAccessible(true);
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private <T> T withFrameworkLoader(Callable<T> callable) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(frameworkLoader);
+        try {
+            return callable.call();
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+    private static File findOsgiBundle(File plugins) throws IOException {
+        File[] bundles = plugins.listFiles((dir, name) -> name.startsWith("org.eclipse.osgi_") && name.endsWith(".jar"));
+        if (bundles == null || bundles.length == 0) {
+            throw new IOException("No org.eclipse.osgi bundle found in " + plugins);
+        }
+        // an installation updated in place keeps the older bundles
+        return Arrays.stream(bundles)
+                .max(Comparator.comparing(EquinoxFramework::bundleVersion, EclipseApplication::compareVersions))
+                .get();
+    }
+
+    private static String bundleVersion(File bundle) {
+        String name = bundle.getName();
+        return name.substring("org.eclipse.osgi_".length(), name.length() - ".jar".length());
+    }
+}
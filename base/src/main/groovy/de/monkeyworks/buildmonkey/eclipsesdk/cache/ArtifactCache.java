@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Machine-wide store of p2 artifacts, shared by all builds of a user.
+ *
+ * Every artifact is kept once under <code>artifacts/&lt;classifier&gt;/&lt;id&gt;/&lt;version&gt;/&lt;sha256&gt;/</code>,
+ * mirrors and target platforms only hold hard links to it. The store is safe to use from parallel builds: entries
+ * are written to a temporary file and moved into place, a lost race only means that the same content is moved twice.
+ * The modification time of an entry directory is its last use, {@link #evict()} deletes the least recently used
+ * entries until the store fits into its maximum size.
+ *
+ * Linked files must not be changed in place, this would change the cached copy as well.
+ */
+public class ArtifactCache {
+
+    /** classifier directories of a p2 repository or Eclipse installation holding artifacts */
+    public static final List<String> CLASSIFIERS = Arrays.asList("plugins", "features", "binary");
+
+    private static final String ARTIFACT = "artifact";
+    private static final Pattern FILE_NAME = Pattern.compile("(.+?)_(\\d+\\.\\d+\\.\\d+.*?)(\\.jar)?");
+    private static final int RETRIES = 3;
+    /** entries used more recently are never evicted, a build might just be linking them */
+    private static final long MIN_AGE = TimeUnit.MINUTES.toMillis(1);
+    private static final long STALE_TEMP_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private final Path root;
+    private final long maxSize;
+    private volatile FileStore fileStore;
+
+    /**
+     * @param root directory of the store
+     * @param maxSize size in bytes the store is evicted to
+     */
+    public ArtifactCache(Path root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the cached artifact or <code>null</code> if it is not in the store
+     */
+    public Path find(String classifier, String id, String version, String sha256) {
+        Path entry = entry(classifier, id, version, sha256);
+        Path artifact = entry.resolve(ARTIFACT);
+        if (!Files.isRegularFile(artifact)) {
+            return null;
+        }
+        touch(entry);
+        return artifact;
+    }
+
+    /**
+     * Adds a file to the store, unless it holds the same content already.
+     *
+     * @return the cached artifact
+     */
+    public Path put(String classifier, String id, String version, Path file) throws IOException {
+        String sha256 = sha256(file);
+        for (int attempt = 1; ; attempt++) {
+            Path cached = find(classifier, id, version, sha256);
+            if (cached != null) {
+                return cached;
+            }
+
+            Path entry = entry(classifier, id, version, sha256);
+            Path temp = createTemp();
+            try {
+                linkOrCopy(file, temp);
+                Files.createDirectories(entry);
+                Files.move(temp, entry.resolve(ARTIFACT), StandardCopyOption.ATOMIC_MOVE);
+                return entry.resolve(ARTIFACT);
+            } catch (NoSuchFileException e) {
+                // the entry directory has been evicted in between
+                if (attempt == RETRIES) {
+                    throw e;
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Adds a file to the store and replaces it with a hard link to the cached artifact.
+     *
+     * @return <code>false</code> if the file could not be linked, e.g. because the store is on another file system
+     */
+    public boolean link(String classifier, String id, String version, Path file) throws IOException {
+        // a copy in the store would only double the disk usage
+        if (!Files.getFileStore(file).equals(getFileStore())) {
+            return false;
+        }
+        for (int attempt = 1; ; attempt++) {
+            Path cached = put(classifier, id, version, file);
+            if (Files.isSameFile(cached, file)) {
+                return true;
+            }
+
+            Path temp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                Files.createLink(temp, cached);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (NoSuchFileException e) {
+                if (attempt == RETRIES) {
+                    throw e;
+                }
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                return false;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Links the artifact files of a p2 repository or Eclipse installation into the store. Unpacked bundles and
+     * features are left alone.
+     *
+     * @return number of files which are now hard links to the store
+     */
+    public int linkRepository(Path repository) throws IOException {
+        int linked = 0;
+        for (String classifier : CLASSIFIERS) {
+            Path dir = repository.resolve(classifier);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                    if (Files.isRegularFile(file) && matcher.matches()
+                            && link(classifier, matcher.group(1), matcher.group(2), file)) {
+                        linked++;
+                    }
+                }
+            }
+        }
+        return linked;
+    }
+
+    /**
+     * Removes the cached artifacts a file is linked to. A file which turned out to be corrupt has corrupted its
+     * cache entry as well, which would otherwise be linked again under its original checksum.
+     *
+     * @return number of entries removed
+     */
+    public int invalidate(String classifier, String id, String version, Path file) throws IOException {
+        Path dir = root.resolve("artifacts").resolve(classifier).resolve(id).resolve(version);
+        if (!Files.isRegularFile(file) || !Files.isDirectory(dir)) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                Path artifact = entry.resolve(ARTIFACT);
+                if (Files.isRegularFile(artifact) && Files.isSameFile(artifact, file)) {
+                    Files.deleteIfExists(artifact);
+                    Files.deleteIfExists(entry);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the total size of the cached artifacts in bytes
+     */
+    public long size() throws IOException {
+        long size = 0;
+        for (Entry entry : entries()) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used artifacts until the store fits into its maximum size. Does nothing if another
+     * build is evicting the store at the moment.
+     *
+     * Files linked into mirrors and target platforms keep their content, their space is freed once the last link is
+     * deleted.
+     *
+     * @return number of bytes removed from the store
+     */
+    public long evict() throws IOException {
+        Files.createDirectories(root);
+        try (RandomAccessFile lockFile = new RandomAccessFile(root.resolve("evict.lock").toFile(), "rw");
+             FileChannel channel = lockFile.getChannel()) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                return 0;
+            }
+
+            try {
+                deleteStaleTemps();
+
+                List<Entry> entries = entries();
+                long size = 0;
+                for (Entry entry : entries) {
+                    size += entry.size;
+                }
+                entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+
+                long removed = 0;
+                long youngest = System.currentTimeMillis() - MIN_AGE;
+                for (Entry entry : entries) {
+                    if (size - removed <= maxSize || entry.lastUsed > youngest) {
+                        break;
+                    }
+                    try {
+                        Files.deleteIfExists(entry.dir.resolve(ARTIFACT));
+                        Files.deleteIfExists(entry.dir);
+                        removed += entry.size;
+                    } catch (IOException e) {
+                        // used again in between, try the next one
+                    }
+                }
+                return removed;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private Path entry(String classifier, String id, String version, String sha256) {
+        return root.resolve("artifacts").resolve(classifier).resolve(id).resolve(version).resolve(sha256);
+    }
+
+    private List<Entry> entries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path artifacts = root.resolve("artifacts");
+        if (!Files.isDirectory(artifacts)) {
+            return entries;
+        }
+        // artifacts/<classifier>/<id>/<version>/<sha256>
+        try (Stream<Path> dirs = Files.find(artifacts, 4, (path, attributes) -> attributes.isDirectory())) {
+            dirs.forEach(dir -> {
+                Path artifact = dir.resolve(ARTIFACT);
+                if (artifacts.relativize(dir).getNameCount() == 4 && Files.isRegularFile(artifact)) {
+                    try {
+                        entries.add(new Entry(dir, Files.getLastModifiedTime(dir).toMillis(), Files.size(artifact)));
+                    } catch (IOException e) {
+                        // evicted in between
+                    }
+                }
+            });
+        }
+        return entries;
+    }
+
+    private FileStore getFileStore() throws IOException {
+        if (fileStore == null) {
+            Files.createDirectories(root);
+            fileStore = Files.getFileStore(root);
+        }
+        return fileStore;
+    }
+
+    private Path createTemp() throws IOException {
+        Path temp = root.resolve("tmp");
+        Files.createDirectories(temp);
+        return temp.resolve(UUID.randomUUID() + ".tmp");
+    }
+
+    private void deleteStaleTemps() throws IOException {
+        Path temp = root.resolve("tmp");
+        if (!Files.isDirectory(temp)) {
+            return;
+        }
+        long stale = System.currentTimeMillis() - STALE_TEMP_AGE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(temp)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < stale) {
+                        Files.delete(file);
+                    }
+                } catch (IOException e) {
+                    // moved into the store in between
+                }
+            }
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted in between, the caller finds out when it uses the artifact
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        final Path dir;
+        final long lastUsed;
+        final long size;
+
+        Entry(Path dir, long lastUsed, long size) {
+            this.dir = dir;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.cache
+
+import org.gradle.api.Project
+
+/**
+ * Shares the bundles and features of mirrors and target platforms between all projects and builds of a machine.
+ *
+ * With the project property <code>buildmonkey.p2.cache=true</code>, e.g. in gradle.properties, the artifact files
+ * are moved into an {@link ArtifactCache} in <code>~/.buildmonkey/p2-cache</code> (or
+ * <code>buildmonkey.p2.cache.dir</code>) and replaced with hard links. The cache is kept below
+ * <code>buildmonkey.p2.cache.maxSize</code> megabytes (10240 by default) by evicting the least recently used artifacts.
+ */
+class SharedArtifacts {
+
+    static final String CACHE_PROPERTY = 'buildmonkey.p2.cache'
+    static final String CACHE_DIR_PROPERTY = 'buildmonkey.p2.cache.dir'
+    static final String CACHE_SIZE_PROPERTY = 'buildmonkey.p2.cache.maxSize'
+    static final long DEFAULT_MAX_SIZE_MB = 10240
+
+    static boolean isEnabled(Project project) {
+        return project.hasProperty(CACHE_PROPERTY) && Boolean.valueOf(project.property(CACHE_PROPERTY).toString())
+    }
+
+    static ArtifactCache getCache(Project project) {
+        File dir = new File(System.getProperty('user.home'), '.buildmonkey/p2-cache')
+        if(project.hasProperty(CACHE_DIR_PROPERTY)) {
+            dir = project.file(project.property(CACHE_DIR_PROPERTY))
+        }
+        long maxSize = DEFAULT_MAX_SIZE_MB
+        if(project.hasProperty(CACHE_SIZE_PROPERTY)) {
+            maxSize = project.property(CACHE_SIZE_PROPERTY).toString() as long
+        }
+        return new ArtifactCache(dir.toPath(), maxSize * 1024 * 1024)
+    }
+
+    /**
+     * Replaces the artifact files of p2 repositories or Eclipse installations with links into the cache, if the
+     * cache is enabled.
+     *
+     * @param directories p2 repositories or Eclipse installations, missing ones are skipped
+     */
+    static void share(Project project, File... directories) {
+        if(!isEnabled(project)) {
+            return
+        }
+
+        ArtifactCache cache = getCache(project)
+        long start = System.currentTimeMillis()
+        int linked = 0
+        directories.findAll { it.isDirectory() }.each { directory ->
+            linked += cache.linkRepository(directory.toPath())
+        }
+        long evicted = cache.evict()
+        project.logger.info("Linked ${linked} artifacts to p2 cache ${cache.root} in ${System.currentTimeMillis() - start} ms, evicted ${evicted} bytes")
+    }
+}
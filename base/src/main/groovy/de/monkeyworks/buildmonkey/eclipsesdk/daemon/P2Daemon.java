@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.monkeyworks.buildmonkey.eclipsesdk.ApplicationRunner;
+import de.monkeyworks.buildmonkey.eclipsesdk.EquinoxFramework;
+
+/**
+ * Long-lived process running the Equinox framework of one Eclipse installation for many builds.
+ *
+ * Clients connect to a loopback socket whose port and access token are published in a registry file. Each
+ * connection carries one command:
+ * <ul>
+ * <li><code>PING</code> answers with exit value 0 if the daemon is alive,</li>
+ * <li><code>RUN</code> runs an Eclipse application like the p2 director, publisher or the antRunner and streams its
+ * console output back to the client before sending the exit value,</li>
+ * <li><code>STOP</code> shuts the daemon down.</li>
+ * </ul>
+ * Applications run one after the other, the daemon stops by itself once it has been idle for the configured time.
+ */
+public class P2Daemon {
+
+    public static final int PROTOCOL_VERSION = 1;
+
+    static final String PING = "PING";
+    static final String RUN = "RUN";
+    static final String STOP = "STOP";
+
+    static final byte OUTPUT = 'O';
+    static final byte EXIT = 'X';
+    static final byte ERROR = 'E';
+
+    private static final int ACCEPT_TIMEOUT = 1000;
+
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final ApplicationRunner runner;
+    private final long idleTimeout;
+
+    private final RequestOutput requestOutput;
+    private final PrintStream output;
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean stopped;
+
+    /**
+     * @param serverSocket bound socket the clients connect to
+     * @param token secret the clients have to send with each command
+     * @param runner runs the applications
+     * @param idleTimeout milliseconds without any request after which the daemon stops
+     */
+    public P2Daemon(ServerSocket serverSocket, String token, ApplicationRunner runner, long idleTimeout) {
+        this.serverSocket = serverSocket;
+        this.token = token;
+        this.runner = runner;
+        this.idleTimeout = idleTimeout;
+        this.requestOutput = new RequestOutput(System.out);
+        this.output = new PrintStream(requestOutput, true);
+    }
+
+    /**
+     * Stream that is forwarded to the client of the running application, the daemon redirects
+     * <code>System.out</code> and <code>System.err</code> to it.
+     */
+    public PrintStream getOutput() {
+        return output;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts commands until the daemon is stopped or idle.
+     */
+    public void serve() throws IOException {
+        serverSocket.setSoTimeout((int) Math.max(1, Math.min(ACCEPT_TIMEOUT, idleTimeout)));
+        try {
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity >= idleTimeout) {
+                        stopped = true;
+                    }
+                    continue;
+                }
+                activeRequests.incrementAndGet();
+                Thread handler = new Thread(() -> handle(socket), "P2 daemon request");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            if (!token.equals(in.readUTF())) {
+                error(out, "Invalid token");
+                return;
+            }
+            int version = in.readInt();
+            if (version != PROTOCOL_VERSION) {
+                error(out, "Unsupported protocol version " + version + ", daemon speaks " + PROTOCOL_VERSION);
+                return;
+            }
+
+            String command = in.readUTF();
+            if (PING.equals(command)) {
+                exit(out, 0);
+            } else if (STOP.equals(command)) {
+                stop();
+                exit(out, 0);
+            } else if (RUN.equals(command)) {
+                String applicationId = in.readUTF();
+                int count = in.readInt();
+                List<String> args = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    args.add(in.readUTF());
+                }
+                run(applicationId, args, out);
+            } else {
+                error(out, "Unknown command " + command);
+            }
+        } catch (IOException e) {
+            e.printStackTrace(requestOutput.fallback);
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private void run(String applicationId, List<String> args, DataOutputStream out) throws IOException {
+        int exitValue = 0;
+        String failure = null;
+        synchronized (runner) {
+            requestOutput.forwardTo(out);
+            try {
+                exitValue = runner.run(applicationId, args);
+            } catch (Exception e) {
+                e.printStackTrace(output);
+                failure = applicationId + " failed: " + e;
+            } finally {
+                output.flush();
+                requestOutput.forwardTo(null);
+            }
+        }
+        if (failure != null) {
+            error(out, failure);
+        } else {
+            exit(out, exitValue);
+        }
+    }
+
+    private static void exit(DataOutputStream out, int exitValue) throws IOException {
+        out.writeByte(EXIT);
+        out.writeInt(exitValue);
+        out.flush();
+    }
+
+    private static void error(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    /**
+     * Sends the output of the running application to its client, everything else goes to the daemon log.
+     */
+    private static final class RequestOutput extends OutputStream {
+
+        private final PrintStream fallback;
+        private DataOutputStream client;
+
+        RequestOutput(PrintStream fallback) {
+            this.fallback = fallback;
+        }
+
+        synchronized void forwardTo(DataOutputStream client) {
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (client == null) {
+                fallback.write(b, off, len);
+                return;
+            }
+            try {
+                client.writeByte(OUTPUT);
+                client.writeInt(len);
+                client.write(b, off, len);
+            } catch (IOException e) {
+                // the client went away, the application still runs to its end
+                client = null;
+                fallback.write(b, off, len);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (client != null) {
+                try {
+                    client.flush();
+                } catch (IOException e) {
+                    client = null;
+                }
+            }
+            fallback.flush();
+        }
+    }
+
+    /**
+     * Starts the framework of an Eclipse installation and serves it until the daemon is idle.
+     *
+     * Arguments: eclipse home, registry file, idle timeout in milliseconds
+     */
+    public static void main(String[] args) throws Exception {
+        Path eclipseHome = Paths.get(args[0]);
+        File registry = new File(args[1]);
+        long idleTimeout = Long.parseLong(args[2]);
+
+        String name = registry.getName().replaceFirst("\\.properties$", "");
+        EquinoxFramework framework = new EquinoxFramework(eclipseHome, new File(registry.getParentFile(), name + "-configuration"));
+        framework.start();
+
+        String token = UUID.randomUUID().toString();
+        P2Daemon daemon = new P2Daemon(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), token, framework, idleTimeout);
+        System.setOut(daemon.getOutput());
+        System.setErr(daemon.getOutput());
+
+        Properties properties = new Properties();
+        properties.setProperty("port", Integer.toString(daemon.getPort()));
+        properties.setProperty("token", token);
+        properties.setProperty("pid", ManagementFactory.getRuntimeMXBean().getName());
+        properties.setProperty("protocolVersion", Integer.toString(PROTOCOL_VERSION));
+        properties.setProperty("eclipseHome", framework.getEclipseHome().toString());
+        writeRegistry(registry, properties);
+
+        try {
+            daemon.serve();
+        } finally {
+            // a newer daemon may have taken over the registry already
+            if (token.equals(P2DaemonClient.readRegistry(registry).getProperty("token"))) {
+                registry.delete();
+            }
+            framework.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void writeRegistry(File registry, Properties properties) throws IOException {
+        File tmp = new File(registry.getParentFile(), registry.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            // the token is the only protection of the socket against other users
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            properties.store(out, "BuildMonkey p2 daemon");
+        }
+        Files.move(tmp.toPath(), registry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
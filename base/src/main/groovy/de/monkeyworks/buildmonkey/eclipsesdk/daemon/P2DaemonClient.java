@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of a {@link P2Daemon}.
+ *
+ * {@link #connectOrStart(Path, File, long)} finds the daemon of an Eclipse installation through its registry file in
+ * the daemon directory and starts a new daemon process if there is none or it does not answer.
+ */
+public class P2DaemonClient {
+
+    private static final long START_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private final int port;
+    private final String token;
+
+    public P2DaemonClient(int port, String token) {
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * @return the client of the running daemon registered in the given file or <code>null</code> if there is none
+     */
+    public static P2DaemonClient connect(File registry) {
+        if (!registry.isFile()) {
+            return null;
+        }
+        try {
+            Properties properties = readRegistry(registry);
+            P2DaemonClient client = new P2DaemonClient(Integer.parseInt(properties.getProperty("port")), properties.getProperty("token"));
+            return client.ping() ? client : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the client of the daemon running the given Eclipse installation, starting the daemon if necessary.
+     *
+     * @param eclipseHome the Eclipse installation
+     * @param daemonDirectory directory holding the registry files, logs and configuration areas of the daemons
+     * @param idleTimeout milliseconds after which a newly started daemon stops if it is not used
+     */
+    public static P2DaemonClient connectOrStart(Path eclipseHome, File daemonDirectory, long idleTimeout) throws IOException, InterruptedException {
+        Path home = eclipseHome.toAbsolutePath().normalize();
+        String name = "p2-v" + P2Daemon.PROTOCOL_VERSION + "-" + hash(home.toString());
+        File registry = new File(daemonDirectory, name + ".properties");
+
+        P2DaemonClient client = connect(registry);
+        if (client != null) {
+            return client;
+        }
+
+        daemonDirectory.mkdirs();
+        // builds running at the same time must not start two daemons for the same installation
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(daemonDirectory, name + ".lock"), "rw");
+             FileChannel channel = lockFile.getChannel()) {
+            FileLock lock = channel.lock();
+            try {
+                client = connect(registry);
+                if (client != null) {
+                    return client;
+                }
+
+                registry.delete();
+                File log = new File(daemonDirectory, name + ".log");
+                Process process = new ProcessBuilder(javaExecutable(), "-cp", classpath(), P2Daemon.class.getName(),
+                        home.toString(), registry.getAbsolutePath(), Long.toString(idleTimeout))
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                        .start();
+
+                long deadline = System.currentTimeMillis() + START_TIMEOUT;
+                while (System.currentTimeMillis() < deadline) {
+                    client = connect(registry);
+                    if (client != null) {
+                        return client;
+                    }
+                    if (process.waitFor(200, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("P2 daemon for " + home + " exited with " + process.exitValue() + ", see " + log);
+                    }
+                }
+                process.destroy();
+                throw new IOException("P2 daemon for " + home + " did not start within " + START_TIMEOUT + " ms, see " + log);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    public boolean ping() {
+        try {
+            return send(P2Daemon.PING, null, Collections.<String>emptyList(), null) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void stop() throws IOException {
+        send(P2Daemon.STOP, null, Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * Runs an Eclipse application in the daemon and waits for its end.
+     *
+     * @param applicationId id of the application extension
+     * @param args the command line arguments of the application
+     * @param output receives the console output of the application
+     * @return the exit value of the application
+     */
+    public int run(String applicationId, List<String> args, OutputStream output) throws IOException {
+        return send(P2Daemon.RUN, applicationId, args, output);
+    }
+
+    private int send(String command, String applicationId, List<String> args, OutputStream output) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            out.writeUTF(token);
+            out.writeInt(P2Daemon.PROTOCOL_VERSION);
+            out.writeUTF(command);
+            if (applicationId != null) {
+                out.writeUTF(applicationId);
+                out.writeInt(args.size());
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+            }
+            out.flush();
+
+            byte[] buffer = new byte[8192];
+            while (true) {
+                byte type = in.readByte();
+                if (type == P2Daemon.EXIT) {
+                    return in.readInt();
+                } else if (type == P2Daemon.ERROR) {
+                    throw new IOException(in.readUTF());
+                } else if (type == P2Daemon.OUTPUT) {
+                    int length = in.readInt();
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    in.readFully(buffer, 0, length);
+                    if (output != null) {
+                        output.write(buffer, 0, length);
+                    }
+                } else {
+                    throw new IOException("Unexpected message " + type + " from p2 daemon");
+                }
+            }
+        }
+    }
+
+    static Properties readRegistry(File registry) throws IOException {
+        Properties properties = new Properties();
+        if (registry.isFile()) {
+            try (InputStream in = new FileInputStream(registry)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static String javaExecutable() {
+        return new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+    }
+
+    /**
+     * The daemon only needs the Java classes of this library.
+     */
+    private static String classpath() throws IOException {
+        try {
+            return new File(P2Daemon.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
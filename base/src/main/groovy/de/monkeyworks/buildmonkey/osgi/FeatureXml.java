@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content of an Eclipse feature.xml as read by {@link FeatureXmlReader}.
+ */
+public class FeatureXml {
+
+    String id;
+
+    String version;
+
+    final List<String> plugins = new ArrayList<>();
+
+    final List<String> importedPlugins = new ArrayList<>();
+
+    final List<String> includedFeatures = new ArrayList<>();
+
+    public String getId() {
+        return id;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return ids of the plugin elements
+     */
+    public List<String> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * @return plugin ids of the requires/import elements, imports of features are not part of the list
+     */
+    public List<String> getImportedPlugins() {
+        return importedPlugins;
+    }
+
+    /**
+     * @return ids of the includes elements
+     */
+    public List<String> getIncludedFeatures() {
+        return includedFeatures;
+    }
+
+    @Override
+    public String toString() {
+        return id + "_" + version;
+    }
+}
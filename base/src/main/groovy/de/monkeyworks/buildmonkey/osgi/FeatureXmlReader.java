@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Reads Eclipse feature.xml files in a single streaming pass, without building a document tree.
+ */
+public final class FeatureXmlReader {
+
+    public static final String FEATURE_XML = "feature.xml";
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private FeatureXmlReader() {
+    }
+
+    /**
+     * Reads the feature.xml of a feature jar, a feature directory or the feature.xml file itself.
+     */
+    public static FeatureXml read(File feature) throws IOException {
+        return withFeatureXml(feature, FeatureXmlReader::read);
+    }
+
+    /**
+     * Reads a feature.xml from the stream, the stream is not closed.
+     */
+    public static FeatureXml read(InputStream in) throws IOException {
+        FeatureXml feature = new FeatureXml();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String name = reader.getLocalName();
+                    if ("feature".equals(name) && feature.id == null) {
+                        feature.id = reader.getAttributeValue(null, "id");
+                        feature.version = reader.getAttributeValue(null, "version");
+                    } else if ("plugin".equals(name)) {
+                        addIfPresent(feature.plugins, reader.getAttributeValue(null, "id"));
+                    } else if ("import".equals(name)) {
+                        addIfPresent(feature.importedPlugins, reader.getAttributeValue(null, "plugin"));
+                    } else if ("includes".equals(name)) {
+                        addIfPresent(feature.includedFeatures, reader.getAttributeValue(null, "id"));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid " + FEATURE_XML, e);
+        }
+        return feature;
+    }
+
+    /**
+     * Copies the feature.xml of a feature jar, a feature directory or the feature.xml file itself and replaces
+     * the version of the feature element.
+     */
+    public static void writeWithVersion(File feature, OutputStream out, String version) throws IOException {
+        withFeatureXml(feature, in -> {
+            writeWithVersion(in, out, version);
+            return null;
+        });
+    }
+
+    /**
+     * Copies a feature.xml and replaces the version of the feature element. Everything else, including comments
+     * and the other elements, is copied as is.
+     */
+    public static void writeWithVersion(InputStream in, OutputStream out, String version) throws IOException {
+        XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+        try {
+            XMLEventReader reader = inputFactory.createXMLEventReader(in);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            boolean rootFound = false;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartDocument()) {
+                    event = eventFactory.createStartDocument("UTF-8", "1.0");
+                } else if (!rootFound && event.isStartElement()) {
+                    rootFound = true;
+                    event = withVersion(eventFactory, event.asStartElement(), version);
+                }
+                writer.add(event);
+            }
+            writer.flush();
+            writer.close();
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid " + FEATURE_XML, e);
+        }
+    }
+
+    private static StartElement withVersion(XMLEventFactory eventFactory, StartElement element, String version) {
+        List<Attribute> attributes = new ArrayList<>();
+        boolean replaced = false;
+        for (Iterator<?> it = element.getAttributes(); it.hasNext(); ) {
+            Attribute attribute = (Attribute) it.next();
+            if ("version".equals(attribute.getName().getLocalPart())) {
+                attribute = eventFactory.createAttribute(attribute.getName(), version);
+                replaced = true;
+            }
+            attributes.add(attribute);
+        }
+        if (!replaced) {
+            attributes.add(eventFactory.createAttribute(new QName("version"), version));
+        }
+        return eventFactory.createStartElement(element.getName(), attributes.iterator(), element.getNamespaces());
+    }
+
+    private static <T> T withFeatureXml(File feature, FeatureXmlAction<T> action) throws IOException {
+        if (feature.isDirectory()) {
+            return withFeatureXml(new File(feature, FEATURE_XML), action);
+        }
+        if (!feature.getName().endsWith(".jar")) {
+            try (InputStream in = new FileInputStream(feature)) {
+                return action.apply(in);
+            }
+        }
+        try (ZipFile zip = new ZipFile(feature)) {
+            ZipEntry entry = zip.getEntry(FEATURE_XML);
+            if (entry == null) {
+                throw new IOException("No " + FEATURE_XML + " found in '" + feature + "'");
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                return action.apply(in);
+            }
+        }
+    }
+
+    private interface FeatureXmlAction<T> {
+        T apply(InputStream in) throws IOException;
+    }
+
+    private static void addIfPresent(List<String> list, String value) {
+        if (value != null && !value.isEmpty()) {
+            list.add(value);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // feature.xml files don't need external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
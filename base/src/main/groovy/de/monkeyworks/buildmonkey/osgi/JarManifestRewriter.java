@@ -0,0 +1,431 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Copies a jar with changed manifest attributes.
+ *
+ * All entries apart from the manifest are copied byte for byte from the source archive, they are neither inflated
+ * nor deflated again. Only the new manifest is compressed, so copying a large bundle is limited by I/O rather than
+ * by the deflater.
+ */
+public final class JarManifestRewriter {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    /** general purpose flag telling that sizes and crc follow the data instead of being in the local header */
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+    private static final int META_INF = 0;
+    private static final int MANIFEST = 1;
+
+    private JarManifestRewriter() {
+    }
+
+    /**
+     * Writes a copy of <code>source</code> to <code>target</code> with the given main attributes of the manifest
+     * replaced. The target is written to a temporary file first and moved into place.
+     *
+     * @param attributes main attributes to put into the manifest, all other attributes are kept
+     */
+    public static void rewrite(File source, File target, Map<String, String> attributes) throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath();
+        Files.createDirectories(targetPath.getParent());
+        Path temp = Files.createTempFile(targetPath.getParent(), "." + target.getName(), ".tmp");
+        try {
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (!copyRaw(source, in, out, attributes)) {
+                    out.truncate(0);
+                    copyInflating(source, out, attributes);
+                }
+            }
+            Files.move(temp, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the archive needs zip64 extensions, which are left to the jdk
+     */
+    private static boolean copyRaw(File jar, FileChannel in, FileChannel out, Map<String, String> attributes) throws IOException {
+        ByteBuffer end = findEndOfCentralDirectory(in);
+        if (end == null) {
+            throw new IOException("'" + jar + "' is not a zip file");
+        }
+        int entryCount = end.getShort(10) & 0xffff;
+        long directorySize = end.getInt(12) & 0xffffffffL;
+        long directoryOffset = end.getInt(16) & 0xffffffffL;
+        if (entryCount == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL
+                || in.size() > 0xffffffffL) {
+            return false;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        Entry[] manifestEntries = new Entry[2];
+        ByteBuffer directory = read(in, directoryOffset, (int) directorySize);
+        while (directory.remaining() >= CENTRAL_DIRECTORY_ENTRY_SIZE) {
+            int position = directory.position();
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new IOException("Invalid central directory in '" + jar + "'");
+            }
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            byte[] record = new byte[CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength];
+            directory.get(record);
+
+            Entry entry = new Entry(record);
+            if (entry.compressedSize() == 0xffffffffL || entry.size() == 0xffffffffL) {
+                return false;
+            }
+            String name = entry.name();
+            if ("META-INF/".equalsIgnoreCase(name)) {
+                manifestEntries[META_INF] = entry;
+            } else if (JarFile.MANIFEST_NAME.equalsIgnoreCase(name)) {
+                manifestEntries[MANIFEST] = entry;
+            } else {
+                entries.add(entry);
+            }
+        }
+
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        // JarInputStream only finds the manifest as first or second entry
+        if (manifestEntries[META_INF] != null) {
+            copyEntry(jar, in, out, manifestEntries[META_INF], centralDirectory);
+        }
+        writeManifest(out, manifestEntries[MANIFEST], readManifest(jar), attributes, centralDirectory);
+        for (Entry entry : entries) {
+            copyEntry(jar, in, out, entry, centralDirectory);
+        }
+
+        long newDirectoryOffset = out.position();
+        if (newDirectoryOffset + centralDirectory.size() > 0xffffffffL) {
+            throw new IOException("Copy of '" + jar + "' would need zip64 extensions");
+        }
+        write(out, ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+        int commentLength = end.getShort(20) & 0xffff;
+        ByteBuffer newEnd = buffer(END_OF_CENTRAL_DIRECTORY_SIZE + commentLength);
+        newEnd.putInt(END_OF_CENTRAL_DIRECTORY);
+        newEnd.putShort((short) 0);
+        newEnd.putShort((short) 0);
+        newEnd.putShort((short) (entries.size() + (manifestEntries[META_INF] != null ? 2 : 1)));
+        newEnd.putShort((short) (entries.size() + (manifestEntries[META_INF] != null ? 2 : 1)));
+        newEnd.putInt(centralDirectory.size());
+        newEnd.putInt((int) newDirectoryOffset);
+        newEnd.putShort((short) commentLength);
+        for (int i = 0; i < commentLength; i++) {
+            newEnd.put(end.get(END_OF_CENTRAL_DIRECTORY_SIZE + i));
+        }
+        newEnd.flip();
+        write(out, newEnd);
+        return true;
+    }
+
+    private static void copyEntry(File jar, FileChannel in, FileChannel out, Entry entry, ByteArrayOutputStream centralDirectory) throws IOException {
+        long headerOffset = entry.headerOffset();
+        ByteBuffer header = read(in, headerOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("Invalid local file header in '" + jar + "'");
+        }
+        // name and extra field of the local header may differ from the central directory, keep them as they are
+        int variableLength = (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        ByteBuffer localHeader = read(in, headerOffset, LOCAL_FILE_HEADER_SIZE + variableLength);
+
+        // a data descriptor is dropped, sizes and crc are known from the central directory
+        int flags = entry.flags() & ~DATA_DESCRIPTOR_FLAG;
+        localHeader.putShort(6, (short) flags);
+        localHeader.putInt(14, entry.crc());
+        localHeader.putInt(18, (int) entry.compressedSize());
+        localHeader.putInt(22, (int) entry.size());
+
+        long newOffset = out.position();
+        write(out, localHeader);
+        transfer(in, headerOffset + LOCAL_FILE_HEADER_SIZE + variableLength, entry.compressedSize(), out);
+
+        entry.record.putShort(8, (short) flags);
+        entry.record.putInt(42, (int) newOffset);
+        centralDirectory.write(entry.record.array(), 0, entry.record.capacity());
+    }
+
+    private static void writeManifest(FileChannel out, Entry original, Manifest manifest, Map<String, String> attributes,
+                                      ByteArrayOutputStream centralDirectory) throws IOException {
+        Attributes mainAttributes = manifest.getMainAttributes();
+        if (mainAttributes.getValue(Attributes.Name.MANIFEST_VERSION) == null) {
+            mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        }
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            mainAttributes.putValue(attribute.getKey(), attribute.getValue());
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write(content);
+        byte[] data = content.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] compressed = deflate(data);
+        byte[] name = JarFile.MANIFEST_NAME.getBytes(StandardCharsets.UTF_8);
+        // keep the timestamp of the original manifest, the copy should not differ between two runs
+        int dosTime = original != null ? original.record.getInt(12) : javaToDosTime(System.currentTimeMillis());
+
+        long offset = out.position();
+        ByteBuffer localHeader = buffer(LOCAL_FILE_HEADER_SIZE + name.length);
+        localHeader.putInt(LOCAL_FILE_HEADER);
+        localHeader.putShort((short) 20);
+        localHeader.putShort((short) 0);
+        localHeader.putShort((short) ZipEntry.DEFLATED);
+        localHeader.putInt(dosTime);
+        localHeader.putInt((int) crc.getValue());
+        localHeader.putInt(compressed.length);
+        localHeader.putInt(data.length);
+        localHeader.putShort((short) name.length);
+        localHeader.putShort((short) 0);
+        localHeader.put(name);
+        localHeader.flip();
+        write(out, localHeader);
+        write(out, ByteBuffer.wrap(compressed));
+
+        ByteBuffer record = buffer(CENTRAL_DIRECTORY_ENTRY_SIZE + name.length);
+        record.putInt(CENTRAL_DIRECTORY_ENTRY);
+        record.putShort((short) 20);
+        record.putShort((short) 20);
+        record.putShort((short) 0);
+        record.putShort((short) ZipEntry.DEFLATED);
+        record.putInt(dosTime);
+        record.putInt((int) crc.getValue());
+        record.putInt(compressed.length);
+        record.putInt(data.length);
+        record.putShort((short) name.length);
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putInt(0);
+        record.putInt((int) offset);
+        record.put(name);
+        centralDirectory.write(record.array(), 0, record.capacity());
+    }
+
+    private static Manifest readManifest(File jar) throws IOException {
+        Manifest manifest = ManifestReader.read(jar);
+        return manifest != null ? manifest : new Manifest();
+    }
+
+    /**
+     * Fallback for zip64 archives: rewrites the jar through the jdk, which recompresses every entry.
+     */
+    private static void copyInflating(File source, FileChannel target, Map<String, String> attributes) throws IOException {
+        try (JarFile jar = new JarFile(source);
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new ChannelOutputStream(target), 65536))) {
+            Manifest manifest = jar.getManifest() != null ? jar.getManifest() : new Manifest();
+            Attributes mainAttributes = manifest.getMainAttributes();
+            if (mainAttributes.getValue(Attributes.Name.MANIFEST_VERSION) == null) {
+                mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            }
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                mainAttributes.putValue(attribute.getKey(), attribute.getValue());
+            }
+            out.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            manifest.write(out);
+            out.closeEntry();
+
+            byte[] buffer = new byte[65536];
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+                    continue;
+                }
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                out.putNextEntry(copy);
+                try (InputStream in = jar.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int javaToDosTime(long time) {
+        java.util.Date date = new java.util.Date(time);
+        int year = date.getYear() + 1900;
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (date.getMonth() + 1) << 21 | date.getDate() << 16
+                | date.getHours() << 11 | date.getMinutes() << 5 | date.getSeconds() >> 1;
+    }
+
+    private static ByteBuffer findEndOfCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            return null;
+        }
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                tail.position(i);
+                ByteBuffer end = tail.slice();
+                end.order(ByteOrder.LITTLE_ENDIAN);
+                return end;
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = buffer(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer buffer(int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long written = in.transferTo(position + transferred, count - transferred, out);
+            if (written <= 0 && position + transferred >= in.size()) {
+                throw new EOFException();
+            }
+            transferred += written;
+        }
+    }
+
+    /**
+     * Central directory record of an entry, copied into the new archive with its offset updated.
+     */
+    private static final class Entry {
+        final ByteBuffer record;
+
+        Entry(byte[] record) {
+            this.record = ByteBuffer.wrap(record);
+            this.record.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int flags() {
+            return record.getShort(8) & 0xffff;
+        }
+
+        int crc() {
+            return record.getInt(16);
+        }
+
+        long compressedSize() {
+            return record.getInt(20) & 0xffffffffL;
+        }
+
+        long size() {
+            return record.getInt(24) & 0xffffffffL;
+        }
+
+        long headerOffset() {
+            return record.getInt(42) & 0xffffffffL;
+        }
+
+        String name() {
+            int nameLength = record.getShort(28) & 0xffff;
+            return new String(record.array(), CENTRAL_DIRECTORY_ENTRY_SIZE, nameLength, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the manifest of a bundle jar or bundle directory.
+ *
+ * For jars only the central directory and the manifest entry are read, the rest of the archive is never touched.
+ * Results of the most recently read bundles are cached by path, size and modification time, callers get their own
+ * copy of the manifest.
+ */
+public final class ManifestReader {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    /** the cache lives as long as the Gradle daemon, only the manifests used most recently are kept */
+    private static final int MAX_CACHED = 4096;
+
+    private static final Map<String, CacheEntry> cache = Collections.synchronizedMap(new LruCache());
+
+    private ManifestReader() {
+    }
+
+    /**
+     * Returns the manifest of a bundle.
+     *
+     * @param bundle jar file or directory containing the bundle
+     * @return the manifest or null if the bundle doesn't have one
+     */
+    public static Manifest read(File bundle) throws IOException {
+        File file = bundle.isDirectory() ? new File(bundle, JarFile.MANIFEST_NAME) : bundle;
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String key = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        CacheEntry entry = cache.get(key);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            byte[] content = bundle.isDirectory() ? readFile(file) : readManifestEntry(file);
+            entry = new CacheEntry(size, lastModified, content);
+            cache.put(key, entry);
+        }
+        if (entry.content == null) {
+            return null;
+        }
+        return new Manifest(new ByteArrayInputStream(entry.content));
+    }
+
+    /**
+     * Drops all cached manifests.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] content = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < content.length && (read = in.read(content, offset, content.length - offset)) >= 0) {
+                offset += read;
+            }
+            return content;
+        }
+    }
+
+    private static byte[] readManifestEntry(File jar) throws IOException {
+        // not opened through jar.toPath(), the File would keep the Path for as long as the bundle is known
+        try (RandomAccessFile file = new RandomAccessFile(jar, "r"); FileChannel channel = file.getChannel()) {
+            ByteBuffer end = findEndOfCentralDirectory(channel);
+            if (end == null) {
+                throw new IOException("'" + jar + "' is not a zip file");
+            }
+            long directorySize = end.getInt(12) & 0xffffffffL;
+            long directoryOffset = end.getInt(16) & 0xffffffffL;
+            if (directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+                // zip64 archives are rare for bundles, leave them to the jdk
+                return readWithJarFile(jar);
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            while (directory.remaining() >= CENTRAL_DIRECTORY_ENTRY_SIZE) {
+                int position = directory.position();
+                if (directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                    throw new IOException("Invalid central directory in '" + jar + "'");
+                }
+                int method = directory.getShort(position + 10) & 0xffff;
+                long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+                long size = directory.getInt(position + 24) & 0xffffffffL;
+                int nameLength = directory.getShort(position + 28) & 0xffff;
+                int extraLength = directory.getShort(position + 30) & 0xffff;
+                int commentLength = directory.getShort(position + 32) & 0xffff;
+                long headerOffset = directory.getInt(position + 42) & 0xffffffffL;
+
+                byte[] name = new byte[nameLength];
+                directory.position(position + CENTRAL_DIRECTORY_ENTRY_SIZE);
+                directory.get(name);
+                if (JarFile.MANIFEST_NAME.equalsIgnoreCase(new String(name, StandardCharsets.UTF_8))) {
+                    if (compressedSize == 0xffffffffL || size == 0xffffffffL || size > Integer.MAX_VALUE) {
+                        return readWithJarFile(jar);
+                    }
+                    return readEntry(jar, channel, headerOffset, method, (int) compressedSize, (int) size);
+                }
+                directory.position(position + CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength);
+            }
+            return null;
+        }
+    }
+
+    private static byte[] readEntry(File jar, FileChannel channel, long headerOffset, int method, int compressedSize, int size) throws IOException {
+        // name and extra field of the local header may differ from the central directory
+        ByteBuffer header = read(channel, headerOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("Invalid local file header in '" + jar + "'");
+        }
+        long dataOffset = headerOffset + LOCAL_FILE_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        ByteBuffer data = read(channel, dataOffset, compressedSize);
+
+        if (method == ZipEntry.STORED) {
+            return data.array();
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + method + " of the manifest in '" + jar + "'");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data.array());
+            byte[] content = new byte[size];
+            int offset = 0;
+            while (offset < size && !inflater.finished()) {
+                int inflated = inflater.inflate(content, offset, size - offset);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated manifest in '" + jar + "'");
+                }
+                offset += inflated;
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt manifest in '" + jar + "'", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer findEndOfCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            return null;
+        }
+        // the record is at the very end of the archive, followed only by the archive comment
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                tail.position(i);
+                ByteBuffer end = tail.slice();
+                end.order(ByteOrder.LITTLE_ENDIAN);
+                return end;
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static byte[] readWithJarFile(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            ZipEntry entry = jarFile.getEntry(JarFile.MANIFEST_NAME);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class LruCache extends LinkedHashMap<String, CacheEntry> {
+
+        LruCache() {
+            super(256, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHED;
+        }
+    }
+
+    private static final class CacheEntry {
+        final long size;
+        final long lastModified;
+        final byte[] content;
+
+        CacheEntry(long size, long lastModified, byte[] content) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.cache.test
+
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.ArtifactCache
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+
+import static org.junit.Assert.*
+
+class ArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private File createRepository(String name, Map<String, String> plugins) {
+        File repository = folder.newFolder(name)
+        File dir = new File(repository, 'plugins')
+        dir.mkdirs()
+        plugins.each { fileName, content -> new File(dir, fileName).text = content }
+        return repository
+    }
+
+    @Test
+    void testRepositoriesShareArtifacts() {
+        def cache = new ArtifactCache(folder.newFolder('cache').toPath(), 1024 * 1024)
+        File first = createRepository('first', ['org.example.a_1.0.0.v20170101.jar': 'a', 'org.example.b_2.1.0.jar': 'b'])
+        File second = createRepository('second', ['org.example.a_1.0.0.v20170101.jar': 'a'])
+
+        assertEquals(2, cache.linkRepository(first.toPath()))
+        assertEquals(1, cache.linkRepository(second.toPath()))
+
+        Path a1 = first.toPath().resolve('plugins/org.example.a_1.0.0.v20170101.jar')
+        Path a2 = second.toPath().resolve('plugins/org.example.a_1.0.0.v20170101.jar')
+        assertTrue("same artifact should be stored once", Files.isSameFile(a1, a2))
+        assertEquals('a', a2.text)
+        assertEquals("cache should hold both artifacts", 2, cache.size())
+    }
+
+    @Test
+    void testDifferentContentIsKeptApart() {
+        def cache = new ArtifactCache(folder.newFolder('cache').toPath(), 1024 * 1024)
+        File first = createRepository('first', ['org.example.a_1.0.0.jar': 'a'])
+        File second = createRepository('second', ['org.example.a_1.0.0.jar': 'rebuilt a'])
+
+        cache.linkRepository(first.toPath())
+        cache.linkRepository(second.toPath())
+
+        assertEquals('a', first.toPath().resolve('plugins/org.example.a_1.0.0.jar').text)
+        assertEquals('rebuilt a', second.toPath().resolve('plugins/org.example.a_1.0.0.jar').text)
+    }
+
+    @Test
+    void testEvictLeastRecentlyUsed() {
+        Path root = folder.newFolder('cache').toPath()
+        def cache = new ArtifactCache(root, 10)
+        File repository = createRepository('repository', [
+                'org.example.old_1.0.0.jar': '12345678',
+                'org.example.new_1.0.0.jar': '12345678'])
+        cache.linkRepository(repository.toPath())
+
+        Path old = cache.put('plugins', 'org.example.old', '1.0.0', repository.toPath().resolve('plugins/org.example.old_1.0.0.jar'))
+        Path recent = cache.put('plugins', 'org.example.new', '1.0.0', repository.toPath().resolve('plugins/org.example.new_1.0.0.jar'))
+        long hourAgo = System.currentTimeMillis() - 3600000
+        Files.setLastModifiedTime(old.parent, FileTime.fromMillis(hourAgo - 1000))
+        Files.setLastModifiedTime(recent.parent, FileTime.fromMillis(hourAgo))
+
+        assertEquals(8, cache.evict())
+        assertFalse("least recently used artifact should be evicted", Files.exists(old))
+        assertTrue(Files.exists(recent))
+        assertEquals("linked file should keep its content", '12345678',
+                repository.toPath().resolve('plugins/org.example.old_1.0.0.jar').text)
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.eclipsesdk.daemon.test
+
+import de.monkeyworks.buildmonkey.eclipsesdk.ApplicationRunner
+import de.monkeyworks.buildmonkey.eclipsesdk.daemon.P2Daemon
+import de.monkeyworks.buildmonkey.eclipsesdk.daemon.P2DaemonClient
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+/**
+ * Talks to a daemon whose Equinox is replaced by a stand-in runner.
+ */
+class P2DaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private P2Daemon daemon
+    private Thread serveThread
+    private List<String> runs = []
+
+    @After
+    void stopDaemon() {
+        daemon?.stop()
+        serveThread?.join(5000)
+    }
+
+    private P2DaemonClient startDaemon(long idleTimeout = 60000) {
+        ApplicationRunner runner = { String applicationId, List<String> args ->
+            runs << applicationId
+            if(applicationId == 'failing') {
+                throw new IllegalStateException('no such repository')
+            }
+            daemon.output.println("${applicationId} ${args.join(' ')}")
+            return args.size()
+        } as ApplicationRunner
+
+        daemon = new P2Daemon(new ServerSocket(0, 50, InetAddress.loopbackAddress), 'secret', runner, idleTimeout)
+        serveThread = Thread.start { daemon.serve() }
+        return new P2DaemonClient(daemon.port, 'secret')
+    }
+
+    @Test
+    void testRunStreamsOutputAndExitValue() {
+        def client = startDaemon()
+        def output = new ByteArrayOutputStream()
+
+        assertTrue("daemon should answer", client.ping())
+        int exitValue = client.run('org.eclipse.equinox.p2.director', ['-repository', 'file:/tmp/site', '-roaming'], output)
+
+        assertEquals("exit value of the runner should be returned", 3, exitValue)
+        assertEquals("output of the runner should be forwarded",
+                "org.eclipse.equinox.p2.director -repository file:/tmp/site -roaming", output.toString().trim())
+        assertEquals("application should run once", ['org.eclipse.equinox.p2.director'], runs)
+    }
+
+    @Test
+    void testFailingApplication() {
+        def client = startDaemon()
+        def output = new ByteArrayOutputStream()
+
+        try {
+            client.run('failing', [], output)
+            fail("failure should be reported")
+        } catch(IOException e) {
+            assertTrue("message should name the application", e.message.contains('failing'))
+        }
+        assertTrue("stack trace should be forwarded", output.toString().contains('no such repository'))
+        assertTrue("daemon should still answer", client.ping())
+    }
+
+    @Test
+    void testInvalidTokenIsRejected() {
+        startDaemon()
+        def client = new P2DaemonClient(daemon.port, 'guess')
+
+        assertFalse("ping with wrong token should fail", client.ping())
+        try {
+            client.run('org.eclipse.ant.core.antRunner', [], null)
+            fail("run with wrong token should fail")
+        } catch(IOException e) {
+            assertEquals("Invalid token", e.message)
+        }
+        assertTrue("nothing should have run", runs.isEmpty())
+    }
+
+    @Test
+    void testStop() {
+        def client = startDaemon()
+
+        client.stop()
+        serveThread.join(5000)
+
+        assertFalse("daemon should have stopped", serveThread.alive)
+        assertFalse("stopped daemon should not answer", client.ping())
+    }
+
+    @Test
+    void testIdleTimeout() {
+        def client = startDaemon(300)
+        assertTrue("daemon should answer", client.ping())
+
+        serveThread.join(5000)
+
+        assertFalse("idle daemon should have stopped", serveThread.alive)
+    }
+
+    @Test
+    void testConnectThroughRegistry() {
+        startDaemon()
+        File registry = folder.newFile('p2.properties')
+        registry.text = "port=${daemon.port}\ntoken=secret\n"
+
+        assertNotNull("registered daemon should be found", P2DaemonClient.connect(registry))
+        assertNull("missing registry should not connect", P2DaemonClient.connect(new File(folder.root, 'missing.properties')))
+
+        registry.text = "port=${daemon.port}\ntoken=stale\n"
+        assertNull("daemon with other token should not be used", P2DaemonClient.connect(registry))
+    }
+}
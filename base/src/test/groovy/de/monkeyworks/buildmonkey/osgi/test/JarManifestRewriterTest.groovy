@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi.test
+
+import de.monkeyworks.buildmonkey.osgi.JarManifestRewriter
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+import java.util.jar.JarFile
+import java.util.jar.JarInputStream
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+class JarManifestRewriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void testEntriesAreCopiedRaw() {
+        File source = folder.newFile('bundle.jar')
+        Manifest manifest = new Manifest()
+        manifest.mainAttributes.putValue('Manifest-Version', '1.0')
+        manifest.mainAttributes.putValue('Bundle-SymbolicName', 'a.b')
+        manifest.mainAttributes.putValue('Bundle-Version', '1.0.0.qualifier')
+        new JarOutputStream(new FileOutputStream(source), manifest).withStream { out ->
+            out.comment = 'comment'
+            (1..20).each {
+                // written with data descriptors, which the copy has to drop
+                out.putNextEntry(new ZipEntry("a/b/C${it}.class"))
+                out.write(("class ${it} " * 100).bytes)
+                out.closeEntry()
+            }
+            byte[] content = 'stored'.bytes
+            CRC32 crc = new CRC32()
+            crc.update(content)
+            ZipEntry stored = new ZipEntry('stored.txt')
+            stored.method = ZipEntry.STORED
+            stored.size = content.length
+            stored.crc = crc.value
+            out.putNextEntry(stored)
+            out.write(content)
+            out.closeEntry()
+        }
+
+        File target = new File(folder.root, 'p2/plugins/a.b_1.0.0.v1.jar')
+        JarManifestRewriter.rewrite(source, target, ['Bundle-Version': '1.0.0.v1'])
+
+        new JarInputStream(new FileInputStream(target)).withStream { JarInputStream jar ->
+            assertEquals("version should be replaced", "1.0.0.v1", jar.manifest.mainAttributes.getValue('Bundle-Version'))
+            assertEquals("other attributes should be kept", "a.b", jar.manifest.mainAttributes.getValue('Bundle-SymbolicName'))
+        }
+
+        new ZipFile(source).withCloseable { ZipFile original ->
+            new ZipFile(target).withCloseable { ZipFile copy ->
+                assertEquals("all entries should be copied", original.size(), copy.size())
+                assertEquals("comment should be kept", 'comment', copy.comment)
+                original.entries().findAll { it.name != 'META-INF/MANIFEST.MF' }.each { ZipEntry entry ->
+                    ZipEntry copied = copy.getEntry(entry.name)
+                    assertEquals("compressed data should not change", entry.compressedSize, copied.compressedSize)
+                    assertArrayEquals("content should not change", original.getInputStream(entry).bytes, copy.getInputStream(copied).bytes)
+                }
+            }
+        }
+    }
+
+    @Test
+    void testJarWithoutManifest() {
+        File source = zip('sources.jar', ['a/b/C.java': 'class C {}'])
+
+        File target = new File(folder.root, 'a.b.source_1.0.0.jar')
+        JarManifestRewriter.rewrite(source, target, ['Bundle-SymbolicName': 'a.b.source'])
+
+        new JarInputStream(new FileInputStream(target)).withStream { JarInputStream jar ->
+            assertNotNull("a manifest should be added", jar.manifest)
+            assertEquals('1.0', jar.manifest.mainAttributes.getValue('Manifest-Version'))
+            assertEquals('a.b.source', jar.manifest.mainAttributes.getValue('Bundle-SymbolicName'))
+            assertEquals('a/b/C.java', jar.nextJarEntry.name)
+            assertEquals('class C {}', new String(jar.bytes))
+        }
+    }
+
+    @Test
+    void testManifestIsMovedToTheFront() {
+        File source = zip('bundle.jar', [
+                'a/b/C.class': 'class C',
+                'META-INF/MANIFEST.MF': 'Manifest-Version: 1.0\r\nBundle-SymbolicName: a.b\r\n\r\n'])
+
+        File target = new File(folder.root, 'a.b_1.0.0.jar')
+        JarManifestRewriter.rewrite(source, target, ['Bundle-Version': '1.0.0'])
+
+        new JarInputStream(new FileInputStream(target)).withStream { JarInputStream jar ->
+            assertNotNull("JarInputStream should find the manifest", jar.manifest)
+            assertEquals('a.b', jar.manifest.mainAttributes.getValue('Bundle-SymbolicName'))
+            assertEquals('1.0.0', jar.manifest.mainAttributes.getValue('Bundle-Version'))
+            assertEquals('a/b/C.class', jar.nextJarEntry.name)
+            assertNull("the manifest should not be copied twice", jar.nextJarEntry)
+        }
+    }
+
+    @Test
+    void testSourceBundleAttributeIsAdded() {
+        File source = zip('sources.jar', [
+                'META-INF/MANIFEST.MF': 'Manifest-Version: 1.0\r\nCreated-By: Gradle\r\n\r\n',
+                'a/b/C.java': 'class C {}'])
+
+        File target = new File(folder.root, 'a.b.source_1.0.0.v1.jar')
+        String sourceBundle = 'a.b;version="1.0.0.v1";roots:="."'
+        JarManifestRewriter.rewrite(source, target, ['Eclipse-SourceBundle': sourceBundle])
+
+        new JarFile(target).withCloseable { JarFile jar ->
+            assertEquals(sourceBundle, jar.manifest.mainAttributes.getValue('Eclipse-SourceBundle'))
+            assertEquals("other attributes should be kept", 'Gradle', jar.manifest.mainAttributes.getValue('Created-By'))
+        }
+    }
+
+    @Test
+    void testZip64FallsBackToTheJdk() {
+        // more than 65535 entries need the zip64 end of central directory
+        File source = folder.newFile('large.jar')
+        int count = 70000
+        new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(source))).withStream { out ->
+            (0..<count).each {
+                out.putNextEntry(new ZipEntry("e/${it}.txt"))
+                out.write("${it}".bytes)
+                out.closeEntry()
+            }
+        }
+
+        File target = new File(folder.root, 'large_1.0.0.jar')
+        JarManifestRewriter.rewrite(source, target, ['Bundle-Version': '1.0.0'])
+
+        new ZipFile(target).withCloseable { ZipFile copy ->
+            assertEquals("all entries and the manifest should be written", count + 1, copy.size())
+            assertEquals('69999', new String(copy.getInputStream(copy.getEntry('e/69999.txt')).bytes))
+        }
+        new JarInputStream(new FileInputStream(target)).withStream { JarInputStream jar ->
+            assertEquals('1.0.0', jar.manifest.mainAttributes.getValue('Bundle-Version'))
+        }
+    }
+
+    private File zip(String name, Map<String, String> entries) {
+        File file = folder.newFile(name)
+        new ZipOutputStream(new FileOutputStream(file)).withStream { out ->
+            entries.each { entryName, content ->
+                out.putNextEntry(new ZipEntry(entryName))
+                out.write(content.bytes)
+                out.closeEntry()
+            }
+        }
+        return file
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi.test
+
+import de.monkeyworks.buildmonkey.osgi.ManifestReader
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+import java.util.jar.Manifest
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ManifestReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void testDeflatedJar() {
+        File jar = writeJar('deflated.jar', manifestText('a.b', '1.0.0'), ZipEntry.DEFLATED)
+
+        Manifest manifest = ManifestReader.read(jar)
+
+        assertEquals("symbolic name should match", "a.b", manifest.mainAttributes.getValue('Bundle-SymbolicName'))
+        assertEquals("version should match", "1.0.0", manifest.mainAttributes.getValue('Bundle-Version'))
+    }
+
+    @Test
+    void testStoredJar() {
+        File jar = writeJar('stored.jar', manifestText('a.c', '2.0.0'), ZipEntry.STORED)
+
+        assertEquals("symbolic name should match", "a.c", ManifestReader.read(jar).mainAttributes.getValue('Bundle-SymbolicName'))
+    }
+
+    @Test
+    void testDirectoryAndMissingManifest() {
+        File bundle = folder.newFolder('bundle')
+        assertNull("bundle without manifest should not have one", ManifestReader.read(bundle))
+
+        new File(bundle, 'META-INF').mkdirs()
+        new File(bundle, 'META-INF/MANIFEST.MF').text = manifestText('a.d', '3.0.0')
+        assertEquals("symbolic name should match", "a.d", ManifestReader.read(bundle).mainAttributes.getValue('Bundle-SymbolicName'))
+    }
+
+    @Test
+    void testChangedJarIsReadAgain() {
+        File jar = writeJar('changed.jar', manifestText('a.e', '1.0.0'), ZipEntry.DEFLATED)
+        assertEquals("version should match", "1.0.0", ManifestReader.read(jar).mainAttributes.getValue('Bundle-Version'))
+
+        writeJar('changed.jar', manifestText('a.e', '1.0.10'), ZipEntry.DEFLATED)
+        jar.setLastModified(jar.lastModified() + 2000)
+        assertEquals("changed version should be read", "1.0.10", ManifestReader.read(jar).mainAttributes.getValue('Bundle-Version'))
+    }
+
+    private static String manifestText(String name, String version) {
+        return "Manifest-Version: 1.0\r\nBundle-SymbolicName: ${name}\r\nBundle-Version: ${version}\r\n\r\n"
+    }
+
+    private File writeJar(String name, String manifest, int method) {
+        File jar = new File(folder.root, name)
+        byte[] content = manifest.getBytes('UTF-8')
+        jar.withOutputStream {
+            ZipOutputStream zip = new ZipOutputStream(it)
+            zip.putNextEntry(new ZipEntry('a/b.txt'))
+            zip.write('content'.getBytes('UTF-8'))
+            zip.closeEntry()
+
+            ZipEntry entry = new ZipEntry('META-INF/MANIFEST.MF')
+            entry.method = method
+            if (method == ZipEntry.STORED) {
+                CRC32 crc = new CRC32()
+                crc.update(content)
+                entry.size = content.length
+                entry.crc = crc.value
+            }
+            zip.putNextEntry(entry)
+            zip.write(content)
+            zip.closeEntry()
+            zip.finish()
+        }
+        return jar
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates synthetic p2 update sites, i.e. a plugins and a features folder, for the benchmarks.
+ *
+ * The content only depends on the bundle count, the feature count and the seed, so the benchmarks always
+ * work on the same site and nothing has to be downloaded. Bundles require bundles with a lower index, every
+ * tenth bundle exists in a second major version, every twentieth has a source bundle and every fiftieth a
+ * language fragment. Some requirements can't be resolved or don't match any version, as on real sites.
+ */
+public final class SiteFixture {
+
+    public static final String BUNDLE_PREFIX = "org.example.bundle";
+    public static final String FEATURE_PREFIX = "org.example.feature";
+
+    private static final String QUALIFIER = "v20170601-1200";
+    private static final long ENTRY_TIME = 315532800000L;
+
+    private final File root;
+
+    private SiteFixture(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public File getPlugins() {
+        return new File(root, "plugins");
+    }
+
+    public File getFeatures() {
+        return new File(root, "features");
+    }
+
+    /**
+     * Lists the bundle jars of the site in a stable order.
+     */
+    public List<File> listPlugins() {
+        return listJars(getPlugins());
+    }
+
+    /**
+     * Lists the feature jars of the site in a stable order.
+     */
+    public List<File> listFeatures() {
+        return listJars(getFeatures());
+    }
+
+    /**
+     * Writes a site to a new temporary directory.
+     *
+     * @param bundleCount number of distinct bundle symbolic names
+     * @param featureCount number of features
+     * @param seed seed of the generated dependencies
+     */
+    public static SiteFixture generate(int bundleCount, int featureCount, long seed) throws IOException {
+        return generate(Files.createTempDirectory("buildmonkey-site").toFile(), bundleCount, featureCount, seed);
+    }
+
+    /**
+     * Writes a site to the given directory.
+     *
+     * @param root directory of the site, created if missing
+     * @param bundleCount number of distinct bundle symbolic names
+     * @param featureCount number of features
+     * @param seed seed of the generated dependencies
+     */
+    public static SiteFixture generate(File root, int bundleCount, int featureCount, long seed) throws IOException {
+        SiteFixture site = new SiteFixture(root);
+        File plugins = site.getPlugins();
+        File features = site.getFeatures();
+        if (!plugins.mkdirs() && !plugins.isDirectory() || !features.mkdirs() && !features.isDirectory()) {
+            throw new IOException("Can't create site in '" + root + "'");
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < bundleCount; i++) {
+            String name = BUNDLE_PREFIX + i;
+            String version = "1." + (i % 10) + ".0." + QUALIFIER;
+            String requireBundle = requireBundleHeader(random, i, 1 + random.nextInt(8));
+            writeBundle(plugins, name, version, requireBundle, random);
+            if (i % 10 == 0) {
+                writeBundle(plugins, name, "2.0.0." + QUALIFIER, requireBundle, random);
+            }
+            if (i % 20 == 0) {
+                writeBundle(plugins, name + ".source", version, null, random);
+            }
+            if (i % 50 == 0) {
+                writeBundle(plugins, name + ".nl_de", version, null, random);
+            }
+        }
+
+        for (int i = 0; i < featureCount; i++) {
+            writeFeature(features, i, bundleCount, random);
+        }
+        return site;
+    }
+
+    /**
+     * Creates a Require-Bundle header with the given number of entries. Versions are quoted ranges, so the
+     * header contains commas which don't separate bundles.
+     */
+    public static String requireBundleHeader(int count, long seed) {
+        return requireBundleHeader(new Random(seed), Integer.MAX_VALUE, count);
+    }
+
+    private static String requireBundleHeader(Random random, int index, int count) {
+        if (index == 0) {
+            return null;
+        }
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                header.append(',');
+            }
+            int dependency = random.nextInt(Math.min(index, 100000));
+            if (random.nextInt(100) == 0) {
+                header.append("org.example.missing").append(dependency);
+            } else {
+                header.append(BUNDLE_PREFIX).append(dependency);
+            }
+            switch (random.nextInt(5)) {
+                case 0:
+                    break;
+                case 1:
+                    header.append(";bundle-version=\"1.0.0\"");
+                    break;
+                case 2:
+                    header.append(";bundle-version=\"[1.0.0,2.0.0)\"");
+                    break;
+                case 3:
+                    header.append(";bundle-version=\"[2.0.0,3.0.0)\"");
+                    break;
+                default:
+                    header.append(";bundle-version=\"[3.0.0,4.0.0)\"");
+                    break;
+            }
+            if (random.nextInt(4) == 0) {
+                header.append(";resolution:=optional");
+            }
+            if (random.nextInt(4) == 0) {
+                header.append(";visibility:=reexport");
+            }
+        }
+        return header.toString();
+    }
+
+    private static void writeBundle(File plugins, String name, String version, String requireBundle, Random random) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", name + ";singleton:=true");
+        attributes.putValue("Bundle-Version", version);
+        attributes.putValue("Bundle-Vendor", "BuildMonkey benchmarks");
+        if (requireBundle != null) {
+            attributes.putValue("Require-Bundle", requireBundle);
+        }
+
+        byte[] content = new byte[1024 + random.nextInt(4096)];
+        random.nextBytes(content);
+
+        File jar = new File(plugins, name + "_" + version + ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            JarEntry manifestEntry = new JarEntry("META-INF/MANIFEST.MF");
+            manifestEntry.setTime(ENTRY_TIME);
+            out.putNextEntry(manifestEntry);
+            manifest.write(out);
+            out.closeEntry();
+
+            JarEntry classEntry = new JarEntry(name.replace('.', '/') + "/Activator.class");
+            classEntry.setTime(ENTRY_TIME);
+            out.putNextEntry(classEntry);
+            out.write(content);
+            out.closeEntry();
+        }
+    }
+
+    private static void writeFeature(File features, int index, int bundleCount, Random random) throws IOException {
+        String id = FEATURE_PREFIX + index;
+        String version = "1.0.0." + QUALIFIER;
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<feature id=\"").append(id).append("\" label=\"Feature ").append(index)
+                .append("\" version=\"").append(version).append("\" provider-name=\"BuildMonkey benchmarks\">\n");
+        xml.append("   <description>Synthetic feature</description>\n");
+        if (index > 0) {
+            xml.append("   <includes id=\"").append(FEATURE_PREFIX).append(random.nextInt(index))
+                    .append("\" version=\"0.0.0\"/>\n");
+        }
+        xml.append("   <requires>\n");
+        xml.append("      <import plugin=\"").append(BUNDLE_PREFIX).append(random.nextInt(bundleCount))
+                .append("\" version=\"1.0.0\" match=\"greaterOrEqual\"/>\n");
+        xml.append("   </requires>\n");
+        for (int i = 0; i < 20; i++) {
+            xml.append("   <plugin id=\"").append(BUNDLE_PREFIX).append(random.nextInt(bundleCount))
+                    .append("\" download-size=\"0\" install-size=\"0\" version=\"0.0.0\" unpack=\"false\"/>\n");
+        }
+        xml.append("</feature>\n");
+
+        File jar = new File(features, id + "_" + version + ".jar");
+        try (OutputStream file = new FileOutputStream(jar); JarOutputStream out = new JarOutputStream(file)) {
+            JarEntry entry = new JarEntry("feature.xml");
+            entry.setTime(ENTRY_TIME);
+            out.putNextEntry(entry);
+            out.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    private static List<File> listJars(File folder) {
+        List<File> jars = new ArrayList<>();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".jar"));
+        if (files != null) {
+            for (File file : files) {
+                jars.add(file);
+            }
+        }
+        jars.sort(null);
+        return jars;
+    }
+
+    /**
+     * Removes the site from disk.
+     */
+    public void delete() throws IOException {
+        if (!root.exists()) {
+            return;
+        }
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes a site for manual tests: {@code SiteFixture <directory> [bundles] [features] [seed]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SiteFixture <directory> [bundles] [features] [seed]");
+            System.exit(1);
+        }
+        int bundles = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int features = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        SiteFixture site = generate(new File(args[0]), bundles, features, seed);
+        System.out.println("Generated " + bundles + " bundles and " + features + " features in " + site.getRoot());
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.dependency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turns Require-Bundle entries and bundle-version attributes into Gradle version constraints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParseVersionBenchmark {
+
+    private final String[] versions = {
+            null,
+            "org.eclipse.core.runtime",
+            "org.eclipse.core.runtime;bundle-version=\"3.12.0\"",
+            "org.eclipse.ui;resolution:=optional;bundle-version=\"[3.1,4.0)\";visibility:=reexport",
+            "3.2",
+            "[2.0,3.0)",
+            "(1.0.0,2.0.0]",
+    };
+
+    @Benchmark
+    public void parseVersion(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(ManifestDependencyPlugin.parseVersion(version));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.mavenize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.monkeyworks.buildmonkey.benchmarks.SiteFixture;
+import de.monkeyworks.buildmonkey.osgi.ManifestReader;
+
+/**
+ * Converts all bundles and all features of a synthetic update site into POMs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConversionBenchmark {
+
+    @Param({"1000"})
+    int bundles;
+
+    /**
+     * Whether the manifests are already known to the {@link ManifestReader}, as for a rerun in the same daemon.
+     */
+    @Param({"false", "true"})
+    boolean cachedManifests;
+
+    private SiteFixture site;
+    private List<File> pluginFiles;
+    private List<File> featureFiles;
+
+    @Setup
+    public void setUp() throws IOException {
+        site = SiteFixture.generate(bundles, bundles / 10, 42L);
+        pluginFiles = site.listPlugins();
+        featureFiles = site.listFeatures();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        site.delete();
+    }
+
+    @Benchmark
+    public void bundle2Pom(Blackhole blackhole) {
+        if (!cachedManifests) {
+            ManifestReader.clearCache();
+        }
+        Bundle2Pom converter = new Bundle2Pom("eclipse", "eclipse");
+        for (File file : pluginFiles) {
+            blackhole.consume(converter.convert(file));
+        }
+    }
+
+    @Benchmark
+    public void feature2Pom(Blackhole blackhole) {
+        Feature2Pom converter = new Feature2Pom("eclipse.features", "eclipse");
+        for (File file : featureFiles) {
+            blackhole.consume(converter.convert(file));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.mavenize;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.monkeyworks.buildmonkey.benchmarks.SiteFixture;
+
+/**
+ * Resolves the Require-Bundle dependencies of a synthetic update site.
+ *
+ * The site is converted once per trial, every invocation works on fresh copies of the POMs since the
+ * resolution rewrites the dependency versions in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FixDependenciesBenchmark {
+
+    private static final Logger QUIET = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(),
+            new Class<?>[] { Logger.class },
+            (proxy, method, args) -> method.getReturnType() == boolean.class ? Boolean.FALSE : null);
+
+    @Param({"10000"})
+    int bundles;
+
+    private SiteFixture site;
+    private final List<Pom> poms = new ArrayList<>();
+    private final List<File> files = new ArrayList<>();
+    private BundleMavenDeployer deployer;
+
+    @Setup(Level.Trial)
+    public void convertSite() throws IOException {
+        site = SiteFixture.generate(bundles, 0, 42L);
+        Bundle2Pom converter = new Bundle2Pom("eclipse", "eclipse");
+        for (File file : site.listPlugins()) {
+            poms.add(converter.convert(file));
+            files.add(file);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void collectArtifacts() {
+        deployer = new BundleMavenDeployer(null, "eclipse", QUIET, 1);
+        for (int i = 0; i < poms.size(); i++) {
+            deployer.addArtifact(copy(poms.get(i)), files.get(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        site.delete();
+    }
+
+    @Benchmark
+    public BundleMavenDeployer fixDependencies() {
+        deployer.fixDependencies();
+        return deployer;
+    }
+
+    private static Pom copy(Pom pom) {
+        Pom copy = new Pom();
+        copy.setGroup(pom.getGroup());
+        copy.setArtifact(pom.getArtifact());
+        copy.setVersion(pom.getVersion());
+        copy.setPackaging(pom.getPackaging());
+        copy.setDependencyGroup(pom.getDependencyGroup());
+        for (DependencyBundle bundle : pom.getDependencyBundles()) {
+            DependencyBundle dependency = new DependencyBundle();
+            dependency.setGroup(bundle.getGroup());
+            dependency.setName(bundle.getName());
+            dependency.setVersion(bundle.getVersion());
+            dependency.setVisibility(bundle.getVisibility());
+            dependency.setResolution(bundle.getResolution());
+            copy.getDependencyBundles().add(dependency);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.mavenize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses and sorts OSGi versions as found on update sites.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VersionBenchmark {
+
+    private static final int COUNT = 1000;
+
+    private String[] versionStrings;
+    private List<Version> versions;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        versionStrings = new String[COUNT];
+        versions = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            StringBuilder version = new StringBuilder();
+            version.append(random.nextInt(5)).append('.').append(random.nextInt(20));
+            if (random.nextInt(4) != 0) {
+                version.append('.').append(random.nextInt(300));
+            }
+            if (random.nextBoolean()) {
+                version.append(".v2017").append(String.format("%04d", random.nextInt(10000))).append("-1200");
+            }
+            versionStrings[i] = version.toString();
+            versions.add(new Version(versionStrings[i]));
+        }
+        Collections.shuffle(versions, random);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String version : versionStrings) {
+            blackhole.consume(new Version(version));
+        }
+    }
+
+    @Benchmark
+    public List<Version> sort() {
+        List<Version> sorted = new ArrayList<>(versions);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public int compare() {
+        int result = 0;
+        for (int i = 1; i < versions.size(); i++) {
+            result += versions.get(i - 1).compareTo(versions.get(i));
+        }
+        return result;
+    }
+}
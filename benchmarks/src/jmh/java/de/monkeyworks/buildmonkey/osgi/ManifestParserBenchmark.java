@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.osgi;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.monkeyworks.buildmonkey.benchmarks.SiteFixture;
+
+/**
+ * Parses Require-Bundle headers of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManifestParserBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    int requiredBundles;
+
+    private Manifest manifest;
+
+    @Setup
+    public void setUp() {
+        manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-SymbolicName", "org.example.huge");
+        attributes.putValue("Require-Bundle", SiteFixture.requireBundleHeader(requiredBundles, 42L));
+    }
+
+    @Benchmark
+    public List<RequiredBundle> parseRequireBundles() {
+        return new ManifestParser(manifest).parseRequireBundles();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.pde.testing;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.internal.junit.model.ITestRunListener2;
+import org.eclipse.jdt.internal.junit.runner.MessageIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decodes the message stream of a RemoteTestRunner without a socket in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDecodingBenchmark {
+
+    @Param({"1000"})
+    int tests;
+
+    private String stream;
+
+    @Setup
+    public void setUp() {
+        StringBuilder messages = new StringBuilder();
+        messages.append(MessageIds.TEST_RUN_START).append(tests).append(" v2\n");
+        for (int i = 0; i < tests; i++) {
+            messages.append(MessageIds.TEST_TREE).append(i).append(",test").append(i)
+                    .append("(org.example.ExampleTest),false,1,false,-1,test").append(i).append(",,\n");
+        }
+        for (int i = 0; i < tests; i++) {
+            String test = i + ",test" + i + "(org.example.ExampleTest)";
+            messages.append(MessageIds.TEST_START).append(test).append('\n');
+            if (i % 10 == 0) {
+                messages.append(MessageIds.TEST_FAILED).append(test).append('\n');
+                messages.append(MessageIds.EXPECTED_START).append('\n').append("expected").append('\n')
+                        .append(MessageIds.EXPECTED_END).append('\n');
+                messages.append(MessageIds.ACTUAL_START).append('\n').append("actual").append('\n')
+                        .append(MessageIds.ACTUAL_END).append('\n');
+                messages.append(MessageIds.TRACE_START).append('\n');
+                messages.append("java.lang.AssertionError: expected:<expected> but was:<actual>\r\n");
+                for (int line = 0; line < 20; line++) {
+                    messages.append("\tat org.example.ExampleTest.test").append(i)
+                            .append("(ExampleTest.java:").append(line).append(")\r\n");
+                }
+                messages.append(MessageIds.TRACE_END).append('\n');
+            }
+            messages.append(MessageIds.TEST_END).append(test).append('\n');
+        }
+        messages.append(MessageIds.TEST_RUN_END).append(4711).append('\n');
+        stream = messages.toString();
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        CountingListener listener = new CountingListener();
+        PluginTestRunnerClient client = new PluginTestRunnerClient();
+        client.setTestRunListeners(new ITestRunListener2[] { listener });
+        PushbackReader in = new PushbackReader(new StringReader(stream));
+        String message;
+        while ((message = client.readMessage(in)) != null) {
+            client.receiveMessage(message);
+        }
+        return listener.events;
+    }
+
+    private static final class CountingListener implements ITestRunListener2 {
+        int events;
+
+        public void testRunStarted(int testCount) {
+            events++;
+        }
+
+        public void testRunEnded(long elapsedTime) {
+            events++;
+        }
+
+        public void testRunStopped(long elapsedTime) {
+            events++;
+        }
+
+        public void testStarted(String testId, String testName) {
+            events++;
+        }
+
+        public void testEnded(String testId, String testName) {
+            events++;
+        }
+
+        public void testRunTerminated() {
+            events++;
+        }
+
+        public void testTreeEntry(String description) {
+            events++;
+        }
+
+        public void testFailed(int status, String testId, String testName, String trace, String expected, String actual) {
+            events += trace.length() > 0 ? 1 : 0;
+        }
+
+        public void testReran(String testId, String testClass, String testName, int status, String trace, String expected, String actual) {
+            events++;
+        }
+    }
+}
@@ -7,8 +7,11 @@
  */
 package de.monkeyworks.buildmonkey.dependency
 
+import de.monkeyworks.buildmonkey.osgi.FeatureXml
+import de.monkeyworks.buildmonkey.osgi.FeatureXmlReader
 import de.monkeyworks.buildmonkey.osgi.ManifestParser
 import de.monkeyworks.buildmonkey.osgi.RequiredBundle
+import groovy.transform.PackageScope
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.plugins.JavaPlugin
@@ -176,11 +179,9 @@ class ManifestDependencyPlugin implements Plugin<Project> {
      */
     private List featureDependencies() {
         def evaluationStrategy = {
-            def parsedXML = new XmlSlurper().parse(it)
-            def extractFromXML = { String nodeName, String attribute ->
-                return parsedXML.'**'.findAll { node -> node.name() == nodeName }.collect { it["@$attribute"] }
-            }
-            return extractFromXML("plugin", "id") + extractFromXML("import", "plugin") + extractFromXML("include", "id")
+            // included features are no bundles, only plugins and imported plugins are dependencies
+            FeatureXml feature = FeatureXmlReader.read(it)
+            return feature.plugins + feature.importedPlugins
         }
         return evaluateDependencyFile("feature.xml", evaluationStrategy)
     }
@@ -344,7 +345,7 @@ class ManifestDependencyPlugin implements Plugin<Project> {
     }
 
 
-    private String fillVersion(String version) {
+    private static String fillVersion(String version) {
         String[] versionParts = version.split("\\.")
         String[] tmp = ["0", "0", "0"]
         if(tmp.length < versionParts.length) {
@@ -357,7 +358,8 @@ class ManifestDependencyPlugin implements Plugin<Project> {
         return tmp.join(".")
     }
 
-    private String parseVersion(String depBundlesString) {
+    @PackageScope
+    static String parseVersion(String depBundlesString) {
         if(!depBundlesString)
             return "+"
 
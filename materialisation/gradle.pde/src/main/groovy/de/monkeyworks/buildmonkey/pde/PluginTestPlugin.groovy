@@ -15,9 +15,9 @@ import groovy.xml.MarkupBuilder
 
 import org.gradle.api.Plugin
 import org.gradle.api.Project
-import org.gradle.api.file.FileTree
 
-import java.util.jar.JarFile
+import de.monkeyworks.buildmonkey.eclipsesdk.EclipseApplication
+import de.monkeyworks.buildmonkey.osgi.ManifestReader
 import java.util.jar.Manifest
 import org.gradle.api.artifacts.ProjectDependency
 import org.gradle.api.internal.file.FileResolver
@@ -179,40 +179,29 @@ class PluginTestPlugin implements Plugin<Project> {
 
     static void installDependenciesIntoTargetPlatform(Project project, Config config, File additionalPluginsDir, File testDistributionDir) {
         def bundles = prepareUpdateSite(project, additionalPluginsDir)
+        def eclipseHome = project.parent.buildDir.toPath().resolve("eclipse/eclipse")
         def launcherVersion = project.pluginTest.launcherVersion
 
         // convert (pdetest/additions subfolder) to a mini P2 update site
         project.logger.info("Create additional repository in ${additionalPluginsDir.path}")
-        project.exec {
-            commandLine("java", 
-                    '-cp', project.parent.buildDir.toPath().resolve("eclipse/eclipse/plugins/org.eclipse.equinox.launcher_${launcherVersion}.jar").toFile(),
-                    'org.eclipse.core.launcher.Main',
-                    "-application", "org.eclipse.equinox.p2.publisher.FeaturesAndBundlesPublisher",
-                    "-metadataRepository", "file:${additionalPluginsDir.path}",
-                    "-artifactRepository", "file:${additionalPluginsDir.path}",
-                    "-source", "$additionalPluginsDir.path",
-                    "-nosplash")
-        }
+        EclipseApplication.run(project, eclipseHome, 'org.eclipse.equinox.p2.publisher.FeaturesAndBundlesPublisher', [
+                "-metadataRepository", "file:${additionalPluginsDir.path}",
+                "-artifactRepository", "file:${additionalPluginsDir.path}",
+                "-source", "$additionalPluginsDir.path"], false, launcherVersion)
 
         // take the mini P2 update sites from the build folder and install it into the test Eclipse distribution
         project.logger.info("Install additional repository ${additionalPluginsDir.path} with ${bundles} into ${testDistributionDir}")
-        project.exec {
-            commandLine("java",
-                    '-cp', project.parent.buildDir.toPath().resolve("eclipse/eclipse/plugins/org.eclipse.equinox.launcher_${launcherVersion}.jar").toFile(),
-                    'org.eclipse.core.launcher.Main',
-                    '-application', 'org.eclipse.equinox.p2.director',
-                    '-metadataRepository', "file:${project.parent.buildDir}/eclipse/eclipse/p2/org.eclipse.equinox.p2.engine/profileRegistry/SDKProfile.profile",
-                    '-artifactRepository', "file:${project.parent.buildDir}/eclipse/eclipse,file:${testDistributionDir.path}",
-                    '-repository', "file:${additionalPluginsDir.path}",
-                    '-installIU', bundles,
-                    '-destination', testDistributionDir,
-                    '-profile', 'PluginProfile',
-                    '-p2.os', Config.os,
-                    '-p2.ws', Config.ws,
-                    '-p2.arch', Config.arch,
-                    '-roaming',
-                    '-nosplash')
-        }
+        EclipseApplication.run(project, eclipseHome, 'org.eclipse.equinox.p2.director', [
+                '-metadataRepository', "file:${project.parent.buildDir}/eclipse/eclipse/p2/org.eclipse.equinox.p2.engine/profileRegistry/SDKProfile.profile",
+                '-artifactRepository', "file:${project.parent.buildDir}/eclipse/eclipse,file:${testDistributionDir.path}",
+                '-repository', "file:${additionalPluginsDir.path}",
+                '-installIU', bundles,
+                '-destination', testDistributionDir,
+                '-profile', 'PluginProfile',
+                '-p2.os', Config.os,
+                '-p2.ws', Config.ws,
+                '-p2.arch', Config.arch,
+                '-roaming'], false, launcherVersion)
 
         createConfig(project, config, testDistributionDir)
     }
@@ -354,45 +343,33 @@ class PluginTestPlugin implements Plugin<Project> {
 
                 if(!plugin.getName().contains(".source")) {
 
-                    FileTree tree
+                    // only the manifest is needed, the bundle doesn't have to be extracted
+                    Manifest mani = ManifestReader.read(plugin)
+                    if(mani != null) {
+                        version = mani.getMainAttributes().getValue('Bundle-Version')
+                        artefact = mani.getMainAttributes().getValue('Bundle-SymbolicName')
+                        if(artefact == null) {
+                            artefact = mani.getMainAttributes().getValue('Bundle-Name')
+                        }
 
-                    if (plugin.isFile()) {
-                        tree = project.zipTree(plugin)
-                    }
-                    else {
-                        tree = project.fileTree(dir: plugin)
-                    }
+                        if(artefact != null && ! artefact.contains("_ID")) {
+                            int index = artefact.indexOf(";")
+                            if(index > 0) {
+                                artefact = artefact.substring(0,index)
+                            }
+
+                            if(artefact in autoStarts) {
+                                autoStart = 'true'
+                            }
 
-                    tree.each { file ->
-                        if(file.getName().equals("MANIFEST.MF")) {
-                            file.withInputStream {
-                                def mani = new Manifest(it)
-                                version = mani.getMainAttributes().getValue('Bundle-Version')
-                                artefact = mani.getMainAttributes().getValue('Bundle-SymbolicName')
-                                if(artefact == null) {
-                                    artefact = mani.getMainAttributes().getValue('Bundle-Name')
-                                }
+                            if(startLevels.containsKey(artefact)) {
+                                startLevel = startLevels.get(artefact)
                             }
 
-                            if(artefact != null && ! artefact.contains("_ID")) {
-                                int index = artefact.indexOf(";")
-                                if(index > 0) {
-                                    artefact = artefact.substring(0,index)
-                                }
-
-                                if(artefact in autoStarts) {
-                                    autoStart = 'true'
-                                }
-
-                                if(startLevels.containsKey(artefact)) {
-                                    startLevel = startLevels.get(artefact)
-                                }
-
-                                bundles.setProperty(artefact, version)
-//                                  if(artefact in needed || artefact in whitelist || !artefact.startsWith('org.eclipse')) {
-                                if(!(artefact in blackList)) {
-                                    out.println "${artefact},${version},plugins/${plugin.getName()},${startLevel},${autoStart}"
-                                }
+                            bundles.setProperty(artefact, version)
+//                              if(artefact in needed || artefact in whitelist || !artefact.startsWith('org.eclipse')) {
+                            if(!(artefact in blackList)) {
+                                out.println "${artefact},${version},plugins/${plugin.getName()},${startLevel},${autoStart}"
                             }
                         }
                     }
@@ -488,8 +465,8 @@ class PluginTestPlugin implements Plugin<Project> {
 
             xmlMarkup.'feature'('id': "${project.name}.feature", 'label':"TargetPlatform feature for ${project.name}", 'version':"1.0.0", 'provider-name':"Generated with monkeyworks p2 tooling") {
                 bundles.each { unit ->
-                    Manifest mani = new JarFile(unit).getManifest()
-                    def name = mani.getMainAttributes().getValue('Bundle-SymbolicName')
+                    Manifest mani = ManifestReader.read(unit)
+                    def name = mani?.getMainAttributes()?.getValue('Bundle-SymbolicName')
                     if(name != null) {
 
                         if (name.contains(';')) {
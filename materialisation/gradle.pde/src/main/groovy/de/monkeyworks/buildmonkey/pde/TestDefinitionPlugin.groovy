@@ -15,6 +15,11 @@ import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.internal.os.OperatingSystem
 
+import de.monkeyworks.buildmonkey.eclipsesdk.EclipseApplication
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
+import de.monkeyworks.buildmonkey.p2.metadata.MetadataIndex
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.Slicer
 import de.monkeyworks.buildmonkey.pde.mavenize.BundleMavenDeployer
 import de.monkeyworks.buildmonkey.pde.tools.DownloadEclipseSdkTask
 import de.monkeyworks.buildmonkey.pde.utils.FileSemaphore
@@ -32,6 +37,8 @@ class PluginTestBuild {
     def targetDefinition
     def mavenGroup
     def p2Group
+    // only deploy changed bundles of the target platform instead of recreating the whole maven repository
+    boolean incrementalMavenization
 
     Closure dependencyClosure
 
@@ -44,6 +51,7 @@ class PluginTestBuild {
         launcherVersion = '1.4.0.v20161219-1356'
         this.mavenGroup = 'buildMonkey'
         this.p2Group = 'eclipse'
+        this.incrementalMavenization = true
     }
 
     void dependencyHandling(Closure closure) {
@@ -64,6 +72,7 @@ class TestDefinitionPlugin implements Plugin<Project> {
     static final String TASK_NAME_PREPARE_TARGET_PLATFORM = "prepareTargetPlatform"
     static final String TASK_NAME_INSTALL_TARGET_PLATFORM = "installTargetPlatform"
     static final String TASK_NAME_UNINSTALL_TARGET_PLATFORM = "uninstallTargetPlatform"
+    static final String TASK_NAME_PREVIEW_TARGET_PLATFORM = "previewTargetPlatform"
 
     @Override
     public void apply(Project project) {
@@ -75,6 +84,7 @@ class TestDefinitionPlugin implements Plugin<Project> {
         addTaskAssembleTargetPlatform(project, config)
         addTaskInstallTargetPlatform(project, config)
         addTaskUninstallTargetPlatform(project, config)
+        addTaskPreviewTargetPlatform(project, config)
     }
 
     static void configureProject(Project project) {
@@ -159,6 +169,14 @@ class TestDefinitionPlugin implements Plugin<Project> {
         }
     }
 
+    static void addTaskPreviewTargetPlatform(Project project, Config config) {
+        project.task(TASK_NAME_PREVIEW_TARGET_PLATFORM) {
+            group = Config.gradleTaskGroupName
+            description = "Lists the bundles the target platform needs, read from the update sites without Eclipse."
+            doLast { previewTargetPlatform(project, config) }
+        }
+    }
+
     static String getEclipseSdkDownloadUrl(Project project)  {
         def mirror = project.pluginTestBuild
         def os = org.gradle.internal.os.OperatingSystem.current()
@@ -220,33 +238,74 @@ class TestDefinitionPlugin implements Plugin<Project> {
 
         // invoke the P2 director application to assemble install all features from the target
         // definition file to the target platform: http://help.eclipse.org/luna/index.jsp?topic=%2Forg.eclipse.platform.doc.isv%2Fguide%2Fp2_director.html
-        def launcherVersion = project.pluginTestBuild.launcherVersion
         project.logger.info("Assemble target platfrom in '${config.nonMavenizedTargetPlatformDir.absolutePath}'.\n    Update sites: '${updateSites.join(' ')}'\n    Features: '${features.join(' ')}'")
         //println("Assemble target platfrom in '${config.nonMavenizedTargetPlatformDir.absolutePath}'.\n    Update sites: '${updateSites.join(' ')}'\n    Features: '${features.join(' ')}'")
-        project.exec {
-
-            commandLine("java",
-                    '-cp', project.buildDir.toPath().resolve("eclipse/eclipse/plugins/org.eclipse.equinox.launcher_${launcherVersion}.jar").toFile(),
-                    'org.eclipse.core.launcher.Main',
-                    '-application', 'org.eclipse.equinox.p2.director',
-                    '-repository', updateSites.join(','),
-                    '-installIU', features.join(','),
-                    '-tag', 'target-platform',
-                    '-destination', config.nonMavenizedTargetPlatformDir.path,
-                    '-profile', 'PluginProfile',
-                    '-bundlepool', config.nonMavenizedTargetPlatformDir.path,
-                    '-p2.os', Config.os,
-                    '-p2.ws', Config.ws,
-                    '-p2.arch', Config.arch,
-                    '-roaming',
-                    '-nosplash')
+        EclipseApplication.run(project, project.buildDir.toPath().resolve("eclipse/eclipse"), 'org.eclipse.equinox.p2.director', [
+                '-repository', updateSites.join(','),
+                '-installIU', features.join(','),
+                '-tag', 'target-platform',
+                '-destination', config.nonMavenizedTargetPlatformDir.path,
+                '-profile', 'PluginProfile',
+                '-bundlepool', config.nonMavenizedTargetPlatformDir.path,
+                '-p2.os', Config.os,
+                '-p2.ws', Config.ws,
+                '-p2.arch', Config.arch,
+                '-roaming'], false, project.pluginTestBuild.launcherVersion)
+        SharedArtifacts.share(project, config.nonMavenizedTargetPlatformDir)
+    }
+
+    static void previewTargetPlatform(Project project, Config config) {
+        def index = new MetadataIndex()
+        def roots = []
+        def rootNode = new XmlSlurper().parseText(project.pluginTestBuild.targetDefinition.text)
+        rootNode.locations.location.each { location ->
+            def updateSite = location.repository.@location.text().replace('\${project_loc}', 'file://' +  project.projectDir.absolutePath)
+            def locationIndex = RepositoryReader.readMetadata(new URI(updateSite))
+            index.addAll(locationIndex)
+            location.unit.each { unit ->
+                def iu = locationIndex.find(unit.@id.text(), unit.@version.text())
+                if(iu == null) {
+                    project.logger.warn("Installable unit ${unit.@id}/${unit.@version} not found in ${updateSite}")
+                } else {
+                    roots << iu
+                }
+            }
+        }
+
+        // the director installs only what the platform needs, but unlike the mirror no optional units
+        def slicer = new Slicer(index)
+        slicer.platform = ['osgi.os': Config.os, 'osgi.ws': Config.ws, 'osgi.arch': Config.arch]
+        slicer.includeOptional = false
+        def units = slicer.slice(roots)
+
+        // installed artifacts are named <id>_<version> in the plugins and features folders
+        def installed = [] as Set
+        ['plugins', 'features'].each { folder ->
+            new File(config.nonMavenizedTargetPlatformDir, folder).listFiles()?.each { installed << it.name - ~/\.jar$/ }
+        }
+
+        def report = project.buildDir.toPath().resolve("target-platform-preview.txt").toFile()
+        report.parentFile.mkdirs()
+        int missing = 0
+        report.withPrintWriter('UTF-8') { writer ->
+            writer.println("Installable units (+ not installed yet)")
+            units.each { iu ->
+                boolean present = iu.artifacts.every { installed.contains("${it.id}_${it.version}".toString()) }
+                if(!present) {
+                    missing++
+                }
+                writer.println("${present ? ' ' : '+'} ${iu}")
+            }
         }
+        project.logger.lifecycle("Target platform needs ${units.size()} installable units, ${missing} not installed yet, see ${report}")
     }
 
     static void installTargetPlatform(Project project, Config config) {
+        boolean incremental = project.pluginTestBuild.incrementalMavenization
         // delete the mavenized target platform directory to ensure that the deployment doesn't
-        // have outdated artifacts
-        if (config.mavenizedTargetPlatformDir.exists()) {
+        // have outdated artifacts, the incremental deployment removes them itself and deletes the directory
+        // if it was deployed without an index
+        if (!incremental && config.mavenizedTargetPlatformDir.exists()) {
             project.logger.info("Delete mavenized platform directory '${config.mavenizedTargetPlatformDir}'")
             config.mavenizedTargetPlatformDir.deleteDir()
         }
@@ -254,6 +313,7 @@ class TestDefinitionPlugin implements Plugin<Project> {
         // install bundles
         project.logger.info("Convert Eclipse target platform '${config.nonMavenizedTargetPlatformDir}' to Maven repository '${config.mavenizedTargetPlatformDir}'")
         def deployer = new BundleMavenDeployer(project.ant, Config.mavenizedEclipsePluginGroupName, project.logger)
+        deployer.incremental = incremental
         deployer.deploy(config.nonMavenizedTargetPlatformDir, config.mavenizedTargetPlatformDir)
     }
 
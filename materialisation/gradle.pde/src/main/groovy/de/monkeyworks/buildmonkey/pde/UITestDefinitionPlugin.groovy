@@ -11,6 +11,7 @@
 
 package de.monkeyworks.buildmonkey.pde
 
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
 import de.monkeyworks.buildmonkey.pde.tools.DownloadApplicationTask
 import de.monkeyworks.buildmonkey.pde.tools.DownloadEclipseSdkTask
 import de.monkeyworks.buildmonkey.pde.tools.FileHelper
@@ -192,6 +193,7 @@ class UITestDefinitionPlugin implements Plugin<Project> {
                     "-destination", appFolder,
                     "-consolelog")
         }
+        SharedArtifacts.share(project, appFolder)
     }
 
     static void deleteFolder(Project project, File folder) {
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+/**
+ * Sorted, pre-parsed versions of every artifact. Built once, it resolves the version ranges of all dependencies
+ * with binary searches instead of sorting the candidates for every single dependency.
+ */
+final class ArtifactVersionIndex {
+    // artifact name -> POMs and their versions, both in ascending version order
+    private final Map<String, List<Pom>> poms = [:]
+    private final Map<String, Version[]> versions = [:]
+
+    ArtifactVersionIndex(Map<String, List<Pom>> artifacts) {
+        artifacts.each { String name, List<Pom> artifactVersions ->
+            List<List> sorted = artifactVersions.collect { Pom pom -> [pom.toVersion(), pom] }.sort { a, b -> a[0] <=> b[0] }
+            versions[name] = sorted.collect { it[0] } as Version[]
+            poms[name] = sorted.collect { it[1] as Pom }
+        }
+    }
+
+    boolean contains(String name) {
+        return poms.containsKey(name)
+    }
+
+    /**
+     * Returns all POMs of an artifact in ascending version order.
+     */
+    List<Pom> getAt(String name) {
+        return poms[name]
+    }
+
+    /**
+     * Returns the POM with the highest version within the range or null if no version matches.
+     */
+    Pom highest(String name, VersionRange range) {
+        Version[] sorted = versions[name]
+        int i = (range.maximum == null ? sorted.length : countBelow(sorted, range.maximum, range.maximumInclusive)) - 1
+        return i >= 0 && range.includes(sorted[i]) ? poms[name][i] : null
+    }
+
+    /**
+     * Returns the POM with the lowest version above the lower bound of the range, or the highest version if all
+     * versions are below. Used when no version matches the range.
+     */
+    Pom nearest(String name, VersionRange range) {
+        Version[] sorted = versions[name]
+        int i = countBelow(sorted, range.minimum, !range.minimumInclusive)
+        return poms[name][Math.min(i, sorted.length - 1)]
+    }
+
+    /**
+     * Returns the number of versions lower than the given one, including equal versions if requested.
+     */
+    private static int countBelow(Version[] sorted, Version version, boolean includeEqual) {
+        int low = 0
+        int high = sorted.length
+        while (low < high) {
+            int middle = (low + high) >>> 1
+            int c = sorted[middle].compareTo(version)
+            if (c < 0 || (c == 0 && includeEqual))
+                low = middle + 1
+            else
+                high = middle
+        }
+        return low
+    }
+}
@@ -14,8 +14,8 @@
 //DUPLICATED, must be part of a common bundle
 package de.monkeyworks.buildmonkey.pde.mavenize
 
-import java.util.jar.JarFile
-import java.util.jar.Manifest
+import de.monkeyworks.buildmonkey.osgi.ManifestReader
+import java.util.jar.Attributes
 import org.osgi.framework.Constants
 
 /**
@@ -25,6 +25,11 @@ final class Bundle2Pom {
     String group
     String dependencyGroup
 
+    /**
+     * Pool for the names and version ranges, share it between the converters of one site.
+     */
+    StringPool strings = new StringPool()
+
     /**
      * Constructs Bundle2Pom object with the specified parameters.
      * @param group - maven group to which the given artifact belongs.
@@ -42,29 +47,27 @@ final class Bundle2Pom {
      */
     Pom convert(File bundleFileOrDirectory) {
         def pom = new Pom()
-        def manifest
-        if (bundleFileOrDirectory.isDirectory()) {
-            new File(bundleFileOrDirectory, 'META-INF/MANIFEST.MF').withInputStream {
-                manifest = new Manifest(it)
-            }
+        if (bundleFileOrDirectory.isDirectory())
             pom.packaging = 'dir'
-        } else
-            manifest = new JarFile(bundleFileOrDirectory).manifest
+        def manifest = ManifestReader.read(bundleFileOrDirectory)
+        if (manifest == null)
+            throw new IllegalArgumentException("No manifest found in ${bundleFileOrDirectory}")
+        Attributes attr = manifest.mainAttributes
 
-        pom.artifact = manifest.attr.getValue(Constants.BUNDLE_SYMBOLICNAME)
+        pom.artifact = attr.getValue(Constants.BUNDLE_SYMBOLICNAME)
         if (pom.artifact.contains(';'))
             pom.artifact = pom.artifact.split(';')[0]
-        pom.artifact = pom.artifact.trim()
+        pom.artifact = strings.intern(pom.artifact.trim())
 
         pom.group = group ?: pom.artifact
         pom.dependencyGroup = dependencyGroup
 
         // cut the qualifier and use only the major.minor.service segments as version number
         // this is in sync with version constraints declared in the bundle manifest
-        def version = new Version(manifest.attr.getValue(Constants.BUNDLE_VERSION))
-        pom.version = "${version.major}.${version.minor}.${version.release}"
+        pom.version = attr.getValue(Constants.BUNDLE_VERSION) ?: '0.0.0'
 
-        parseDependencyBundles(pom.dependencyBundles, manifest.attr.getValue(Constants.REQUIRE_BUNDLE))
+        parseDependencyBundles(pom.dependencyBundles, attr.getValue(Constants.REQUIRE_BUNDLE))
+        pom.dependencyBundles.trimToSize()
 
         return pom
     }
@@ -73,7 +76,7 @@ final class Bundle2Pom {
         List elements = string.split(';')
         String name = elements[0]
         elements.remove(0)
-        DependencyBundle bundle = new DependencyBundle(name: name, resolution: Constants.RESOLUTION_MANDATORY, visibility: Constants.VISIBILITY_PRIVATE, version: "[1.0,)")
+        DependencyBundle bundle = new DependencyBundle(name: strings.intern(name), resolution: Constants.RESOLUTION_MANDATORY, visibility: Constants.VISIBILITY_PRIVATE, version: "[1.0,)")
         for(String element in elements)
             if (element.startsWith(Constants.BUNDLE_VERSION_ATTRIBUTE)) {
                 String s = element.substring(element.indexOf('=') + 1)
@@ -81,11 +84,11 @@ final class Bundle2Pom {
                     s = s.substring(1)
                 if(s.endsWith('"'))
                     s = s.substring(0, s.length() - 1)
-                bundle.version = s
+                bundle.version = strings.intern(s)
             } else if (element.startsWith(Constants.RESOLUTION_DIRECTIVE))
-                bundle.resolution = element.substring(element.indexOf('=') + 1)
+                bundle.resolution = strings.intern(element.substring(element.indexOf('=') + 1))
             else if (element.startsWith(Constants.VISIBILITY_DIRECTIVE))
-                bundle.visibility = element.substring(element.indexOf('=') + 1)
+                bundle.visibility = strings.intern(element.substring(element.indexOf('=') + 1))
         return bundle
     }
 
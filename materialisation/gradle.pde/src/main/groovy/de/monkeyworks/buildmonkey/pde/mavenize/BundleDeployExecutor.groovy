@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+/**
+ * Deploys OSGI bundles (jar or directory) to a maven repository
+ */
+interface BundleDeployExecutor {
+
+    /**
+     * Deploys the specified bundle with the specified POM to target maven repository.
+     * @param options - may contain sourceFile (of type java.io.File), pointing to sources jar.
+     * @param pomStruct - contains POM that will be used for deployment
+     * @param bundleFileOrDirectory - jar-file or directory, containing OSGI bundle
+     */
+    void deployBundle(Map options, Pom pomStruct, File bundleFileOrDirectory)
+
+    /**
+     * Waits until all deployments have been written to the target maven repository.
+     */
+    void finish()
+
+    void cleanup()
+}
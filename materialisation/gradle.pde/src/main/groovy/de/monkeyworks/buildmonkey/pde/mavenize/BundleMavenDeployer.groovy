@@ -24,10 +24,23 @@ final class BundleMavenDeployer {
   private final String groupIdForBundles
   private final Logger logger
 
-  private Map artifacts = [:]
+  /**
+   * Deploys with the maven-ant-tasks instead of writing the maven repository layout directly.
+   */
+  boolean useAntDeployer = false
+
+  /**
+   * Deploys only bundles which were added or changed since the last deployment to the same maven repository
+   * and removes the artifacts of bundles which disappeared. Requires the direct deployment.
+   */
+  boolean incremental = false
+
+  private MavenizeIndex index
+  private final StringPool strings = new StringPool()
+  private Map<String, List<Pom>> artifacts = [:]
   private Map artifactsNl = [:]
-  private Map artifactFiles = [:]
-  private Map sourceFiles = [:]
+  // source bundles read before the bundle they belong to, keyed by artifact:version
+  private Map<String, File> pendingSourceFiles = [:]
 
   /**
    * Creates a new instance.
@@ -51,9 +64,18 @@ final class BundleMavenDeployer {
     File pluginFolder = new File(source, 'plugins')
     assert pluginFolder.exists()
 
+    if (incremental && useAntDeployer)
+      logger.warn('Incremental deployment is not supported by the maven-ant-tasks, deploying all bundles')
+    index = incremental && !useAntDeployer ? new MavenizeIndex(target) : null
+    if (index && !new File(target, MavenizeIndex.FILE_NAME).exists() && target.exists()) {
+      // the artifacts deployed without an index are unknown, so outdated ones would never be removed
+      logger?.info("Delete maven repository '$target' deployed without mavenize index")
+      target.deleteDir()
+    }
+
     collectArtifacts(pluginFolder)
     fixDependencies()
-    deployBundles(new DeployMavenAntTaskExecutor(ant, target))
+    deployBundles(useAntDeployer ? new DeployMavenAntTaskExecutor(ant, target) : new DeployMavenRepositoryExecutor(target, Runtime.runtime.availableProcessors()), target)
 
     File dependencyVersionFile = new File(target.getAbsolutePath() + "/../bundle.versions")
 
@@ -70,13 +92,19 @@ final class BundleMavenDeployer {
     def processFile = { File file ->
       logger.info("Collecting artifacts: ${file.name}")
       try {
-        Bundle2Pom reader = new Bundle2Pom(group: groupIdForBundles, dependencyGroup: groupIdForBundles)
+        Bundle2Pom reader = new Bundle2Pom(group: groupIdForBundles, dependencyGroup: groupIdForBundles, strings: strings)
         Pom pom = reader.convert(file)
         def source_match = pom.artifact =~ /(.*)\.source/
         if (source_match) {
-          def artifact = source_match[0][1]
-          sourceFiles["${artifact}:${pom.version}"] = file
+          String artifact = source_match[0][1]
+          // the source POM itself isn't deployed, only its file is kept with the POM of the bundle
+          Pom bundle = artifacts[artifact]?.find { it.version == pom.version }
+          if (bundle)
+            bundle.sourceFile = file
+          else
+            pendingSourceFiles[artifact + ':' + pom.version] = file
         } else {
+          pom.file = file
           def nl_match = pom.artifact =~ /(.*)\.nl_(.*)/
           if (nl_match) {
             def artifact = nl_match[0][1]
@@ -88,8 +116,8 @@ final class BundleMavenDeployer {
             if (!artifacts.containsKey(pom.artifact))
               artifacts[pom.artifact] = []
             artifacts[pom.artifact].add pom
+            pom.sourceFile = pendingSourceFiles.remove(pom.artifact + ':' + pom.version)
           }
-          artifactFiles["${pom.artifact}:${pom.version}"] = file
         }
       } catch (Exception e) {
         logger.info("Error while mavenizing ${file}")
@@ -107,36 +135,20 @@ final class BundleMavenDeployer {
 
   private void fixDependencies() {
     logger.info('Fixing dependencies')
+    ArtifactVersionIndex versionIndex = new ArtifactVersionIndex(artifacts)
     try {
       artifacts.each { name, artifactVersions ->
         logger.info("Fixing dependencies: $name")
         artifactVersions.each { pom ->
           pom.dependencyBundles.removeAll { reqBundle ->
-            if (!artifacts[reqBundle.name.trim()]) {
+            if (!versionIndex.contains(reqBundle.name.trim())) {
               logger.info("Warning: artifact dependency $pom.group:$pom.artifact:$pom.version -> $reqBundle.name could not be resolved.")
               return true
             }
             return false
           }
           pom.dependencyBundles.each { reqBundle ->
-            def resolvedVersions = []
-            resolvedVersions.addAll(artifacts[reqBundle.name.trim()])
-            
-            if (resolvedVersions.size() == 1)
-              reqBundle.version = resolvedVersions[0].version
-            else if (!resolvedVersions.find { it -> it.version == reqBundle.version.trim() }) {
-              def compare = { a, b -> new Version(a).compare(new Version(b)) }
-              resolvedVersions = resolvedVersions.sort(compare)
-              int i = Collections.binarySearch resolvedVersions, reqBundle.version.trim(), compare as java.util.Comparator
-              if (i < 0)
-                i = -i - 1
-              if (i > resolvedVersions.size() - 1)
-                i = resolvedVersions.size() - 1
-              def c = resolvedVersions[i]
-              def depsStr = resolvedVersions.collect({ p -> "$p.group:$p.artifact:$p.version" }).join(', ')
-              logger.info("Warning: resolved ambiguous dependency: $pom.group:$pom.artifact:$pom.version -> $reqBundle.name:$reqBundle.version, chosen $c.group:$c.artifact:$c.version from [$depsStr].")
-              reqBundle.version = c.version
-            }
+            reqBundle.target = resolveDependency(versionIndex, pom, reqBundle)
           }
           artifactsNl.each { language, map_nl ->
             def pom_nl = map_nl[pom.artifact]
@@ -144,7 +156,7 @@ final class BundleMavenDeployer {
               pom.dependencyBundles.each { dep_bundle ->
                 def dep_pom_nl = map_nl[dep_bundle.name]
                 if (dep_pom_nl) {
-                  pom_nl.dependencyBundles.add new DependencyBundle(name: dep_pom_nl.artifact, version: dep_pom_nl.version, visibility: dep_bundle.visibility, resolution: dep_bundle.resolution)
+                  pom_nl.dependencyBundles.add new DependencyBundle(name: dep_pom_nl.artifact, target: dep_pom_nl, visibility: dep_bundle.visibility, resolution: dep_bundle.resolution)
                 }
               }
           }
@@ -155,23 +167,78 @@ final class BundleMavenDeployer {
     }
   }
 
-  private deployBundles(DeployMavenAntTaskExecutor executor) {
+  /**
+   * Resolves the required bundle to the POM with the highest version within the required version range. If no
+   * version matches, the nearest version above the lower bound is chosen and a warning is logged.
+   */
+  private Pom resolveDependency(ArtifactVersionIndex versionIndex, Pom pom, DependencyBundle reqBundle) {
+    String name = reqBundle.name.trim()
+    List<Pom> candidates = versionIndex[name]
+    if (candidates.size() == 1)
+      return candidates[0]
+
+    VersionRange range
+    try {
+      range = VersionRange.parse(reqBundle.version)
+    } catch (IllegalArgumentException e) {
+      logger.info("Warning: ${e.message} in $pom.group:$pom.artifact:$pom.version, accepting any version of $name.")
+      range = VersionRange.parse(null)
+    }
+    Pom resolved = versionIndex.highest(name, range)
+    if (resolved)
+      return resolved
+
+    Pom c = versionIndex.nearest(name, range)
+    def depsStr = candidates.collect({ p -> "$p.group:$p.artifact:$p.version" }).join(', ')
+    logger.info("Warning: resolved ambiguous dependency: $pom.group:$pom.artifact:$pom.version -> $reqBundle.name:$reqBundle.version, chosen $c.group:$c.artifact:$c.version from [$depsStr].")
+    return c
+  }
+
+  private deployBundles(BundleDeployExecutor executor, File target) {
     logger.info('Deploying artifacts')
+    int unchanged = 0
+    def deploy = { Pom pom, File bundleFile, File sourceFile ->
+      if (isUnchanged(pom, bundleFile, sourceFile, target))
+        unchanged++
+      else
+        executor.deployBundle pom, bundleFile, sourceFile: sourceFile
+    }
     try {
       artifacts.each { name, artifactVersions ->
         artifactVersions.each { pom ->
-          executor.deployBundle pom, artifactFiles["${pom.artifact}:${pom.version}"], sourceFile: sourceFiles["${pom.artifact}:${pom.version}"]
+          deploy pom, pom.file, pom.sourceFile
         }
       }
       artifactsNl.each { language, map_nl ->
         map_nl.each { artifactName, pom ->
-          executor.deployBundle pom, artifactFiles["${pom.artifact}:${pom.version}"]
+          deploy pom, pom.file, null
+        }
+      }
+      if (index) {
+        index.removedArtifacts.each { String coordinates ->
+          logger.info("Removing artifact $coordinates")
+          String[] parts = coordinates.split(':')
+          // the index is only kept with the DeployMavenRepositoryExecutor
+          ((DeployMavenRepositoryExecutor) executor).undeployBundle parts[0], parts[1], parts[2]
         }
+        logger.info("Skipped $unchanged unchanged artifacts")
       }
+      executor.finish()
+      index?.store()
     } finally {
       executor.cleanup()
       logger.info('Finished deploying artifacts')
     }
   }
-}
 
+  /**
+   * Records the bundle in the index and returns whether exactly this bundle and POM are already deployed.
+   */
+  private boolean isUnchanged(Pom pom, File bundleFile, File sourceFile, File target) {
+    if (!index)
+      return false
+    boolean unchanged = index.update(pom, index.contentHash(bundleFile), index.contentHash(sourceFile), MavenizeIndex.sha1(pom.toString()))
+    File pomFile = new File(target, "${pom.group.replace('.', '/')}/${pom.artifact}/${pom.version}/${pom.artifact}-${pom.version}.pom")
+    return unchanged && pomFile.exists()
+  }
+}
@@ -19,7 +19,7 @@ import org.apache.maven.artifact.ant.Mvn;
 /**
  * Deploys OSGI bundle (jar or directory) to maven repository
  */
-class DeployMavenAntTaskExecutor {
+class DeployMavenAntTaskExecutor implements BundleDeployExecutor {
     final AntBuilder ant
     final File target
     final File workFolder
@@ -49,7 +49,7 @@ class DeployMavenAntTaskExecutor {
             pomStruct.packaging = 'jar'
             pomFile.text = pomStruct.toString()
             File zipFile = new File(workFolder, "${pomStruct.artifact}-${pomStruct.version}.jar")
-            ant.zip(basedir: bundleFileOrDirectory, destfile: zipFile)
+            zipFile.withOutputStream { JarPackager.pack(bundleFileOrDirectory, it) }
             bundleFile = zipFile
         }
         else {
@@ -59,7 +59,7 @@ class DeployMavenAntTaskExecutor {
         File sourceFile = options.sourceFile
         if(sourceFile?.isDirectory()) {
             File zipFile = new File(workFolder, sourceFile.name + '.jar')
-            ant.zip(basedir: sourceFile, destfile: zipFile)
+            zipFile.withOutputStream { JarPackager.pack(sourceFile, it) }
             sourceFile = zipFile
         }
         ant.with {
@@ -75,6 +75,10 @@ class DeployMavenAntTaskExecutor {
         }
     }
 
+    void finish() {
+        // the ant deploy task writes every bundle synchronously
+    }
+
     void cleanup() {
         // delete the working directory
         if(workFolder.exists()){
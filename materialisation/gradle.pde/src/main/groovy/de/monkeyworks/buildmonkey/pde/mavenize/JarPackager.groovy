@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+import java.nio.file.Files
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Packs directory-shaped bundles into jars. The jar is streamed into the given output stream and is
+ * reproducible: entries are written in a stable order with the manifest first and with a fixed timestamp.
+ */
+final class JarPackager {
+    private static final String MANIFEST_FOLDER = 'META-INF/'
+    private static final String MANIFEST_NAME = 'META-INF/MANIFEST.MF'
+
+    // the same constant timestamp gradle uses for reproducible archives, 1980-02-01 00:00 in local time
+    static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).timeInMillis
+
+    private JarPackager() {
+    }
+
+    /**
+     * Writes the content of the directory as jar into the output stream. The stream is finished, but not closed.
+     */
+    static void pack(File directory, OutputStream out) {
+        Map<String, File> entries = [:]
+        directory.eachFileRecurse { File file -> entries[entryName(directory, file)] = file }
+        // jar readers expect the manifest to be the first entries of the archive
+        List<String> names = entries.keySet().sort { String a, String b -> rank(a) <=> rank(b) ?: a <=> b }
+
+        ZipOutputStream zip = new ZipOutputStream(out)
+        for (String name in names) {
+            ZipEntry entry = new ZipEntry(name)
+            entry.time = ENTRY_TIME
+            zip.putNextEntry(entry)
+            if (!name.endsWith('/'))
+                Files.copy(entries[name].toPath(), zip)
+            zip.closeEntry()
+        }
+        zip.finish()
+    }
+
+    private static int rank(String name) {
+        if (name == MANIFEST_FOLDER)
+            return 0
+        if (name == MANIFEST_NAME)
+            return 1
+        return 2
+    }
+
+    private static String entryName(File directory, File file) {
+        String name = directory.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/' as char)
+        return file.isDirectory() ? name + '/' : name
+    }
+}
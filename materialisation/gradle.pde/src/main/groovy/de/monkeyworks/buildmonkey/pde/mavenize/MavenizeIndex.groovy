@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+import groovy.io.FileType
+
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers which bundles have been deployed to a maven repository, so that a rerun only deploys the bundles
+ * which were added or changed and removes the artifacts whose bundles disappeared.
+ *
+ * The index is stored in the maven repository itself. Content hashes of the bundles are cached by size and
+ * modification time, unchanged bundles therefore don't have to be read again.
+ */
+final class MavenizeIndex {
+    static final String FILE_NAME = '.mavenize-index'
+
+    private static final String FILE_PREFIX = 'file.'
+    private static final String ARTIFACT_PREFIX = 'artifact.'
+
+    private final File indexFile
+    // "folder/file name" of a bundle -> "fingerprint|sha1" of the previous and of the current run
+    private final Map<String, String> previousHashes = [:]
+    private final Map<String, String> hashes = new ConcurrentHashMap<String, String>()
+    // "groupId:artifactId:version" -> "bundle sha1|source sha1|pom sha1" of the previous and of the current run
+    private final Map<String, String> previousArtifacts = [:]
+    private final Map<String, String> artifacts = new ConcurrentHashMap<String, String>()
+
+    /**
+     * Loads the index of the specified maven repository, a missing index is treated as empty.
+     */
+    MavenizeIndex(File repository) {
+        indexFile = new File(repository, FILE_NAME)
+        if (indexFile.exists()) {
+            Properties props = new Properties()
+            indexFile.withReader('UTF-8') { props.load(it) }
+            props.stringPropertyNames().each { String key ->
+                if (key.startsWith(FILE_PREFIX))
+                    previousHashes[key.substring(FILE_PREFIX.length())] = props.getProperty(key)
+                else if (key.startsWith(ARTIFACT_PREFIX))
+                    previousArtifacts[key.substring(ARTIFACT_PREFIX.length())] = props.getProperty(key)
+            }
+        }
+    }
+
+    /**
+     * Returns the content hash of a bundle jar or directory. The hash of the previous run is reused as long as
+     * size and modification time of the bundle did not change.
+     */
+    String contentHash(File fileOrDirectory) {
+        if (fileOrDirectory == null)
+            return ''
+        // features and plugins often share their file names
+        String key = "${fileOrDirectory.parentFile.name}/${fileOrDirectory.name}"
+        String entry = hashes[key]
+        String fingerprint = fingerprint(fileOrDirectory)
+        if (entry == null || !entry.startsWith(fingerprint + '|')) {
+            entry = previousHashes[key]
+            if (entry == null || !entry.startsWith(fingerprint + '|'))
+                entry = fingerprint + '|' + hash(fileOrDirectory)
+            hashes[key] = entry
+        }
+        return entry.substring(fingerprint.length() + 1)
+    }
+
+    /**
+     * Records the deployment state of an artifact and returns whether the same state was deployed before.
+     */
+    boolean update(Pom pom, String bundleHash, String sourceHash, String pomHash) {
+        String coordinates = coordinates(pom)
+        String state = "${bundleHash}|${sourceHash}|${pomHash}"
+        artifacts[coordinates] = state
+        return previousArtifacts[coordinates] == state
+    }
+
+    /**
+     * Returns the coordinates "groupId:artifactId:version" of the artifacts which were deployed by the previous
+     * run, but not by this one.
+     */
+    Set<String> getRemovedArtifacts() {
+        return previousArtifacts.keySet() - artifacts.keySet()
+    }
+
+    void store() {
+        Properties props = new Properties()
+        hashes.each { name, entry -> props.setProperty(FILE_PREFIX + name, entry) }
+        artifacts.each { coordinates, state -> props.setProperty(ARTIFACT_PREFIX + coordinates, state) }
+        indexFile.parentFile.mkdirs()
+        indexFile.withWriter('UTF-8') { props.store(it, null) }
+    }
+
+    static String coordinates(Pom pom) {
+        return "${pom.group}:${pom.artifact}:${pom.version}"
+    }
+
+    static String sha1(String text) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-1')
+        return digest.digest(text.getBytes('UTF-8')).encodeHex().toString()
+    }
+
+    private static String fingerprint(File fileOrDirectory) {
+        if (!fileOrDirectory.isDirectory())
+            return "${fileOrDirectory.length()}:${fileOrDirectory.lastModified()}"
+        long count = 0, size = 0, lastModified = fileOrDirectory.lastModified()
+        fileOrDirectory.eachFileRecurse(FileType.FILES) { File file ->
+            count++
+            size += file.length()
+            lastModified = Math.max(lastModified, file.lastModified())
+        }
+        return "${count}:${size}:${lastModified}"
+    }
+
+    private static String hash(File fileOrDirectory) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-1')
+        byte[] buffer = new byte[65536]
+        def update = { File file ->
+            file.withInputStream { InputStream input ->
+                int read
+                while ((read = input.read(buffer)) >= 0)
+                    digest.update(buffer, 0, read)
+            }
+        }
+        if (fileOrDirectory.isDirectory()) {
+            // the relative paths are part of the hash, so renaming a file inside the bundle changes it as well
+            String basePath = fileOrDirectory.toURI().path
+            List<File> files = []
+            fileOrDirectory.eachFileRecurse(FileType.FILES) { files.add(it) }
+            files.sort { it.toURI().path }.each { File file ->
+                digest.update(file.toURI().path.substring(basePath.length()).getBytes('UTF-8'))
+                update(file)
+            }
+        } else {
+            update(fileOrDirectory)
+        }
+        return digest.digest().encodeHex().toString()
+    }
+}
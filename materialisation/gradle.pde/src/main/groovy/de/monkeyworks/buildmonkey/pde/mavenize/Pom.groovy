@@ -25,11 +25,46 @@ public final class Pom {
 
     String group
     String artifact
-    String version
     String packaging = 'jar'
     List<DependencyBundle> dependencyBundles = []
     String dependencyGroup
 
+    /**
+     * The bundle or feature the POM was created from and the bundle with its sources, neither is part of the POM.
+     */
+    File file
+    File sourceFile
+
+    // the version as primitive segments, large sites hold tens of thousands of POMs
+    private long major
+    private long minor
+    private long release
+    private boolean hasVersion
+
+    /**
+     * Returns the maven version, i.e. the major, minor and release segment of the OSGi version.
+     */
+    String getVersion() {
+        return hasVersion ? "${major}.${minor}.${release}" : null
+    }
+
+    /**
+     * Sets the version, a qualifier is dropped.
+     */
+    void setVersion(String version) {
+        hasVersion = version != null
+        if (hasVersion) {
+            Version parsed = new Version(version)
+            major = parsed.major
+            minor = parsed.minor
+            release = parsed.release
+        }
+    }
+
+    Version toVersion() {
+        return new Version(major, minor, release)
+    }
+
     String toString() {
         ByteArrayOutputStream stm = new ByteArrayOutputStream()
         writeTo(new OutputStreamWriter(stm, encoding))
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Canonical instances of the names and version ranges of a site. Every bundle repeats the names of the bundles
+ * it requires, so without a pool a large site keeps the same strings thousands of times. Unlike
+ * {@link String#intern()} the pool is dropped together with the deployment.
+ */
+final class StringPool {
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>()
+
+    /**
+     * Returns the pooled instance equal to the given string, null stays null.
+     */
+    String intern(String string) {
+        if (string == null)
+            return null
+        String pooled = strings.putIfAbsent(string, string)
+        return pooled != null ? pooled : string
+    }
+
+    int size() {
+        return strings.size()
+    }
+}
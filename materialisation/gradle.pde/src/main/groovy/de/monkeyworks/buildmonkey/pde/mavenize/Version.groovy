@@ -17,7 +17,7 @@ package de.monkeyworks.buildmonkey.pde.mavenize
 /**
  * OSGi-specific version.
  */
-final class Version {
+final class Version implements Comparable<Version> {
   long major = 0, minor = 0, release = 0
   String suffix = ''
 
@@ -29,19 +29,42 @@ final class Version {
     init(versionStr)
   }
 
+  Version(long major, long minor, long release, String suffix = '') {
+    this.major = major
+    this.minor = minor
+    this.release = release
+    this.suffix = suffix
+  }
+
   int compare(Version other) {
-    int result = major - other.major
+    return compareTo(other)
+  }
+
+  int compareTo(Version other) {
+    int result = Long.compare(major, other.major)
     if(result != 0)
       return result
-    result = minor - other.minor
+    result = Long.compare(minor, other.minor)
     if(result != 0)
       return result
-    result = release - other.release
+    result = Long.compare(release, other.release)
     if(result != 0)
       return result
     return suffix.compareTo(other.suffix)
   }
 
+  boolean equals(Object other) {
+    return other instanceof Version && compareTo((Version) other) == 0
+  }
+
+  int hashCode() {
+    return Objects.hash(major, minor, release, suffix)
+  }
+
+  String toString() {
+    return suffix ? "${major}.${minor}.${release}.${suffix}" : "${major}.${minor}.${release}"
+  }
+
   private void init(String versionStr) {
     def m = versionStr =~ /(\d+)(\.(\d+))?(\.(\d+))?(\.(.+))?/
     if(m) {
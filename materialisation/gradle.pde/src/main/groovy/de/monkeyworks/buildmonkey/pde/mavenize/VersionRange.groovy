@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+//DUPLICATED, must be part of a common bundle
+package de.monkeyworks.buildmonkey.pde.mavenize
+
+/**
+ * OSGi version range as used by the bundle-version attribute, e.g. "[1.0,2.0)", "(1.0,2.0]" or "1.0".
+ * A plain version is the range from this version (inclusive) to infinity.
+ */
+final class VersionRange {
+    final Version minimum
+    final boolean minimumInclusive
+    // null for an unbounded range
+    final Version maximum
+    final boolean maximumInclusive
+
+    VersionRange(Version minimum, boolean minimumInclusive, Version maximum, boolean maximumInclusive) {
+        this.minimum = minimum
+        this.minimumInclusive = minimumInclusive
+        this.maximum = maximum
+        this.maximumInclusive = maximumInclusive
+    }
+
+    /**
+     * Parses a version range, an empty string is the range of all versions.
+     */
+    static VersionRange parse(String range) {
+        String s = range?.trim()
+        if (!s)
+            return new VersionRange(new Version('0.0.0'), true, null, false)
+        char first = s.charAt(0)
+        if (first != '[' as char && first != '(' as char)
+            return new VersionRange(new Version(s), true, null, false)
+
+        char last = s.charAt(s.length() - 1)
+        if (last != ']' as char && last != ')' as char)
+            throw new IllegalArgumentException("Invalid version range '$range'")
+        String[] bounds = s.substring(1, s.length() - 1).split(',', -1)
+        if (bounds.length != 2)
+            throw new IllegalArgumentException("Invalid version range '$range'")
+        // an empty upper bound as in "[1.0,)" is unbounded
+        Version maximum = bounds[1].trim() ? new Version(bounds[1].trim()) : null
+        return new VersionRange(new Version(bounds[0].trim() ?: '0.0.0'), first == '[' as char, maximum, last == ']' as char)
+    }
+
+    boolean includes(Version version) {
+        int lower = version.compareTo(minimum)
+        if (lower < 0 || (lower == 0 && !minimumInclusive))
+            return false
+        if (maximum == null)
+            return true
+        int upper = version.compareTo(maximum)
+        return upper < 0 || (upper == 0 && maximumInclusive)
+    }
+
+    String toString() {
+        if (maximum == null && minimumInclusive)
+            return minimum.toString()
+        return "${minimumInclusive ? '[' : '('}${minimum},${maximum ?: ''}${maximumInclusive ? ']' : ')'}"
+    }
+}
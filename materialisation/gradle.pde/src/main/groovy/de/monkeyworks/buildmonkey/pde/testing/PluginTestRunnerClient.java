@@ -293,6 +293,16 @@ public class PluginTestRunnerClient {
         connection.start();
     }
 
+    /**
+     * Sets the listeners without opening a server connection, messages are then fed through
+     * {@link #receiveMessage(String)} directly.
+     *
+     * @param listeners listeners to inform
+     */
+    void setTestRunListeners(ITestRunListener2[] listeners) {
+        testRunListeners= listeners;
+    }
+
     /**
      * Requests to stop the remote test run.
      */
@@ -344,7 +354,7 @@ public class PluginTestRunnerClient {
         return clientSocket != null;
     }
 
-    private String readMessage(PushbackReader in) throws IOException {
+    String readMessage(PushbackReader in) throws IOException {
         StringBuffer buf= new StringBuffer(128);
         int ch;
         while ((ch= in.read()) != -1) {
@@ -370,7 +380,7 @@ public class PluginTestRunnerClient {
         return buf.toString();
     }
 
-    private void receiveMessage(String message) {
+    void receiveMessage(String message) {
         currentProcessingState= currentProcessingState.readMessage(message);
     }
 
@@ -17,6 +17,19 @@ class MavenizeTaskExtension {
     String targetDir
     String groupId
     boolean useP2MirrorOutput
+    // number of bundles converted concurrently, 1 disables the parallel collection
+    int parallelism
+    // deploy with the maven-ant-tasks instead of writing the repository layout directly
+    boolean useAntDeployer
+    // deploy only added or changed bundles and remove the artifacts of bundles which disappeared
+    boolean incremental
+    // deploy the features as well, into the group "<groupId>.features"
+    boolean deployFeatures
+    // write durations and throughput of the conversion to "<targetDir>-metrics.json"
+    boolean collectMetrics
+    // hard link the bundle jars of the p2 repository into the maven repository instead of copying them, the maven
+    // repository then shares the files of the mirror and must not be changed in place
+    boolean linkBundles
 
     Project project
 
@@ -25,6 +38,12 @@ class MavenizeTaskExtension {
         targetDir = "build/m2-repository"
         sourceP2Repository = ""
         useP2MirrorOutput = false
+        parallelism = Runtime.runtime.availableProcessors()
+        useAntDeployer = false
+        incremental = true
+        deployFeatures = true
+        collectMetrics = false
+        linkBundles = false
         this.project = project
     }
 }
@@ -86,7 +105,12 @@ class MavenizerPlugin implements Plugin<Project> {
 
                     doLast {
 
-                        def converter = new BundleMavenDeployer(project.ant, task.groupId, project.logger)
+                        def converter = new BundleMavenDeployer(project.ant, task.groupId, project.logger, task.parallelism)
+                        converter.useAntDeployer = task.useAntDeployer
+                        converter.incremental = task.incremental
+                        converter.deployFeatures = task.deployFeatures
+                        converter.collectMetrics = task.collectMetrics
+                        converter.linkBundles = task.linkBundles
                         converter.deploy(new File(task.sourceP2Repository), new File(task.targetDir))
                     }
                 }
@@ -14,8 +14,14 @@
 
 package de.monkeyworks.buildmonkey.mavenizer.mavenize
 
+import groovy.transform.PackageScope
 import org.gradle.api.logging.Logger
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
 /**
  * Converts an Eclipse update site into a Maven repository.
  */
@@ -23,22 +29,59 @@ final class BundleMavenDeployer {
     private final AntBuilder ant
     private final String groupIdForBundles
     private final Logger logger
+    private final int parallelism
+
+    /**
+     * Deploys with the maven-ant-tasks instead of writing the maven repository layout directly.
+     */
+    boolean useAntDeployer = false
 
-    private Map artifacts = [:]
+    /**
+     * Deploys only bundles which were added or changed since the last deployment to the same maven repository
+     * and removes the artifacts of bundles which disappeared. Requires the direct deployment.
+     */
+    boolean incremental = false
+
+    /**
+     * Deploys the features of the update site as well. They are published in the group of the bundles with the
+     * suffix ".features", since features often share their id with a plugin.
+     */
+    boolean deployFeatures = true
+
+    /**
+     * Records phase durations, throughput and the slowest bundles and writes them as JSON next to the target
+     * repository, see {@link #getMetricsFile(java.io.File)}.
+     */
+    boolean collectMetrics = false
+
+    /**
+     * Deploys bundle jars as hard links to the jars of the update site instead of copies, if the file system
+     * supports it. Requires the direct deployment. The linked jars share their content with the update site, so
+     * neither must be changed in place.
+     */
+    boolean linkBundles = false
+
+    private MavenizeIndex index
+    private MavenizeMetrics metrics = MavenizeMetrics.NOOP
+    private final StringPool strings = new StringPool()
+    private Map<String, List<Pom>> artifacts = [:]
+    private Map<String, List<Pom>> features = [:]
     private Map artifactsNl = [:]
-    private Map artifactFiles = [:]
-    private Map sourceFiles = [:]
+    // source bundles read before the bundle they belong to, keyed by artifact:version
+    private Map<String, File> pendingSourceFiles = [:]
 
     /**
      * Creates a new instance.
      *
      * @param ant ant build instance to execute the deployment task defined in the maven-ant-tasks dependency
      * @param groupIdForBundles the maven groupId where the eclipse plugins will be published
+     * @param parallelism number of bundles which are converted and deployed concurrently, 1 handles them one after another
      */
-    BundleMavenDeployer(AntBuilder ant, String groupIdForBundles, Logger logger = null) {
+    BundleMavenDeployer(AntBuilder ant, String groupIdForBundles, Logger logger = null, int parallelism = 1) {
         this.ant = ant
         this.groupIdForBundles = groupIdForBundles
         this.logger = logger
+        this.parallelism = parallelism
     }
 
     /**
@@ -54,109 +97,166 @@ final class BundleMavenDeployer {
         File featuresFolder = new File(source, 'features')
         assert featuresFolder.exists()
 
-        collectArtifacts(pluginFolder)
-        //collectFeatures(featuresFolder)
+        if (incremental && useAntDeployer)
+            logger.warn('Incremental deployment is not supported by the maven-ant-tasks, deploying all bundles')
+        index = incremental && !useAntDeployer ? new MavenizeIndex(target) : null
+        if (index && !new File(target, MavenizeIndex.FILE_NAME).exists() && target.exists()) {
+            // the artifacts deployed without an index are unknown, so outdated ones would never be removed
+            logger?.info("Delete maven repository '$target' deployed without mavenize index")
+            target.deleteDir()
+        }
+        metrics = collectMetrics ? new MavenizeMetrics() : MavenizeMetrics.NOOP
+
+        metrics.phase('collectBundles') { collectArtifacts(pluginFolder) }
+        if (deployFeatures)
+            metrics.phase('collectFeatures') { collectFeatures(featuresFolder) }
 
-        fixDependencies()
+        metrics.phase('fixDependencies') { fixDependencies() }
 
-        deployBundles(new DeployMavenAntTaskExecutor(ant, target))
+        deployBundles(useAntDeployer ? new DeployMavenAntTaskExecutor(ant, target, metrics) : new DeployMavenRepositoryExecutor(target, parallelism, metrics, linkBundles), target)
 
+        if (collectMetrics) {
+            File metricsFile = getMetricsFile(target)
+            metrics.write(metricsFile)
+            logger.lifecycle("Mavenize metrics written to $metricsFile")
+        }
     }
 
-    private void collectFeatures(featuresDir) {
-        def processFeature = { File file ->
-            Feature2Pom reader = new Feature2Pom(group: groupIdForBundles, dependencyGroup: groupIdForBundles)
-            Pom pom = reader.convert(file)
-            println "Try to add feature: ${pom.artifact}"
-            if (!artifacts.containsKey(pom.artifact))
-                artifacts[pom.artifact] = []
-            artifacts[pom.artifact].add pom
-            artifactFiles["${pom.artifact}:${pom.version}"] = file
+    /**
+     * Returns the file the metrics of a deployment to the given maven repository are written to.
+     */
+    static File getMetricsFile(File target) {
+        return new File(target.absoluteFile.parentFile, "${target.name}-metrics.json")
+    }
+
+    String getFeatureGroup() {
+        return "${groupIdForBundles}.features"
+    }
+
+    private void collectFeatures(File featuresDir) {
+        List<File> files = listArtifactFiles(featuresDir)
 
-        }
         logger.info("Reading features in $featuresDir")
+        try {
+            List<Pom> poms = convertAll(files) { File file ->
+                new Feature2Pom(group: featureGroup, dependencyGroup: groupIdForBundles, strings: strings).convert(file)
+            }
+            for (int i = 0; i < files.size(); i++) {
+                Pom pom = poms[i]
+                if (pom == null)
+                    continue
+                pom.file = files[i]
+                if (!features.containsKey(pom.artifact))
+                    features[pom.artifact] = []
+                features[pom.artifact].add pom
+            }
+        } finally {
+            logger.info("Finished reading features in $featuresDir")
+        }
+    }
+
+    private static List<File> listArtifactFiles(File folder) {
+        List<File> files = []
+        folder.eachDir { files.add(it) }
+        folder.eachFileMatch(~/.*\.jar/) { files.add(it) }
+        return files
+    }
 
+    private void collectArtifacts(File artifactsSourceDir) {
+        List<File> files = listArtifactFiles(artifactsSourceDir)
+
+        logger.info("Reading bundles in $artifactsSourceDir")
         try {
-            featuresDir.eachDir processFeature
-            featuresDir.eachFileMatch ~/.*\.jar/, processFeature
+            // the POMs are merged in the order of the directory listing, so the result does not depend on
+            // the order in which the conversions finish
+            List<Pom> poms = convertAll(files) { File file ->
+                new Bundle2Pom(group: groupIdForBundles, dependencyGroup: groupIdForBundles, strings: strings).convert(file)
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (poms[i] != null)
+                    addArtifact(poms[i], files[i])
+            }
         } finally {
-            logger.info("Finished reading bundles in $featuresDir")
+            logger.info("Finished reading bundles in $artifactsSourceDir")
         }
     }
 
-    private void collectArtifacts(artifactsSourceDir) {
-        def processFile = { File file ->
+    private List<Pom> convertAll(List<File> files, Closure<Pom> converter) {
+        def convert = { File file ->
             logger.info("Collecting artifacts: ${file.name}")
             try {
-                Bundle2Pom reader = new Bundle2Pom(group: groupIdForBundles, dependencyGroup: groupIdForBundles)
-                Pom pom = reader.convert(file)
-                def source_match = pom.artifact =~ /(.*)\.source/
-                if (source_match) {
-                    def artifact = source_match[0][1]
-                    sourceFiles["${artifact}:${pom.version}"] = file
-                } else {
-                    def nl_match = pom.artifact =~ /(.*)\.nl_(.*)/
-                    if (nl_match) {
-                        def artifact = nl_match[0][1]
-                        def language = nl_match[0][2]
-                        if (!artifactsNl[language])
-                            artifactsNl[language] = [:]
-                        artifactsNl[language][artifact] = pom
-                    } else {
-                        if (!artifacts.containsKey(pom.artifact))
-                            artifacts[pom.artifact] = []
-                        println "Add plugin: ${pom.artifact}"
-                        artifacts[pom.artifact].add pom
-                    }
-                    artifactFiles["${pom.artifact}:${pom.version}"] = file
-                }
+                long start = metrics.start()
+                Pom pom = converter(file)
+                // hash while the bundles are read concurrently anyway, the deployment only looks the hash up
+                index?.contentHash(file)
+                metrics.bundleConverted(file, start)
+                return pom
             } catch (Exception e) {
                 logger.info("Error while mavenizing ${file}")
                 e.printStackTrace()
+                return null
             }
         }
 
-        logger.info("Reading bundles in $artifactsSourceDir")
+        if (parallelism <= 1 || files.size() <= 1)
+            return files.collect(convert)
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, files.size()))
         try {
-            artifactsSourceDir.eachDir processFile
-            artifactsSourceDir.eachFileMatch ~/.*\.jar/, processFile
+            List<Future<Pom>> futures = files.collect { File file -> executor.submit({ convert(file) } as Callable<Pom>) }
+            return futures.collect { it.get() }
         } finally {
-            logger.info("Finished reading bundles in $artifactsSourceDir")
+            executor.shutdownNow()
         }
     }
 
-    private void fixDependencies() {
+    @PackageScope
+    void addArtifact(Pom pom, File file) {
+        def source_match = pom.artifact =~ /(.*)\.source/
+        if (source_match) {
+            String artifact = source_match[0][1]
+            // the source POM itself isn't deployed, only its file is kept with the POM of the bundle
+            Pom bundle = artifacts[artifact]?.find { it.version == pom.version }
+            if (bundle)
+                bundle.sourceFile = file
+            else
+                pendingSourceFiles[artifact + ':' + pom.version] = file
+        } else {
+            pom.file = file
+            def nl_match = pom.artifact =~ /(.*)\.nl_(.*)/
+            if (nl_match) {
+                def artifact = nl_match[0][1]
+                def language = nl_match[0][2]
+                if (!artifactsNl[language])
+                    artifactsNl[language] = [:]
+                artifactsNl[language][artifact] = pom
+            } else {
+                if (!artifacts.containsKey(pom.artifact))
+                    artifacts[pom.artifact] = []
+                logger.debug("Add plugin: ${pom.artifact}")
+                artifacts[pom.artifact].add pom
+                pom.sourceFile = pendingSourceFiles.remove(pom.artifact + ':' + pom.version)
+            }
+        }
+    }
+
+    @PackageScope
+    void fixDependencies() {
         logger.info('Fixing dependencies')
+        ArtifactVersionIndex versionIndex = new ArtifactVersionIndex(artifacts)
         try {
             artifacts.each { name, artifactVersions ->
                 logger.info("Fixing dependencies: $name")
                 artifactVersions.each { pom ->
                     pom.dependencyBundles.removeAll { reqBundle ->
-                        if (!artifacts[reqBundle.name.trim()]) {
+                        if (!versionIndex.contains(reqBundle.name.trim())) {
                             logger.info("Warning: artifact dependency $pom.group:$pom.artifact:$pom.version -> $reqBundle.name could not be resolved.")
                             return true
                         }
                         return false
                     }
                     pom.dependencyBundles.each { reqBundle ->
-                        def resolvedVersions = []
-                        resolvedVersions.addAll(artifacts[reqBundle.name.trim()])
-
-                        if (resolvedVersions.size() == 1)
-                            reqBundle.version = resolvedVersions[0].version
-                        else if (!resolvedVersions.find { it -> it.version == reqBundle.version.trim() }) {
-                            def compare = { a, b -> new Version(a).compare(new Version(b)) }
-                            resolvedVersions = resolvedVersions.sort(compare)
-                            int i = Collections.binarySearch resolvedVersions, reqBundle.version.trim(), compare as java.util.Comparator
-                            if (i < 0)
-                                i = -i - 1
-                            if (i > resolvedVersions.size() - 1)
-                                i = resolvedVersions.size() - 1
-                            def c = resolvedVersions[i]
-                            def depsStr = resolvedVersions.collect({ p -> "$p.group:$p.artifact:$p.version" }).join(', ')
-                            logger.info("Warning: resolved ambiguous dependency: $pom.group:$pom.artifact:$pom.version -> $reqBundle.name:$reqBundle.version, chosen $c.group:$c.artifact:$c.version from [$depsStr].")
-                            reqBundle.version = c.version
-                        }
+                        reqBundle.target = resolveDependency(versionIndex, pom, reqBundle)
                     }
                     artifactsNl.each { language, map_nl ->
                         def pom_nl = map_nl[pom.artifact]
@@ -164,34 +264,122 @@ final class BundleMavenDeployer {
                             pom.dependencyBundles.each { dep_bundle ->
                                 def dep_pom_nl = map_nl[dep_bundle.name]
                                 if (dep_pom_nl) {
-                                    pom_nl.dependencyBundles.add new DependencyBundle(name: dep_pom_nl.artifact, version: dep_pom_nl.version, visibility: dep_bundle.visibility, resolution: dep_bundle.resolution)
+                                    pom_nl.dependencyBundles.add new DependencyBundle(name: dep_pom_nl.artifact, target: dep_pom_nl, visibility: dep_bundle.visibility, resolution: dep_bundle.resolution)
                                 }
                             }
                     }
                 }
             }
+            fixFeatureDependencies(versionIndex)
         } finally {
             logger.info('Finished fixing dependencies')
         }
     }
 
-    private deployBundles(DeployMavenAntTaskExecutor executor) {
+    /**
+     * Resolves the plugins of the features against the bundles and the included features against the features.
+     */
+    private void fixFeatureDependencies(ArtifactVersionIndex versionIndex) {
+        ArtifactVersionIndex featureIndex = new ArtifactVersionIndex(features)
+        features.each { name, featureVersions ->
+            featureVersions.each { pom ->
+                pom.dependencyBundles.removeAll { reqBundle ->
+                    if (!(reqBundle.group ? featureIndex : versionIndex).contains(reqBundle.name.trim())) {
+                        logger.info("Warning: feature dependency $pom.group:$pom.artifact:$pom.version -> $reqBundle.name could not be resolved.")
+                        return true
+                    }
+                    return false
+                }
+                pom.dependencyBundles.each { reqBundle ->
+                    reqBundle.target = resolveDependency(reqBundle.group ? featureIndex : versionIndex, pom, reqBundle)
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the required bundle to the POM with the highest version within the required version range. If no
+     * version matches, the nearest version above the lower bound is chosen and a warning is logged.
+     */
+    private Pom resolveDependency(ArtifactVersionIndex versionIndex, Pom pom, DependencyBundle reqBundle) {
+        String name = reqBundle.name.trim()
+        List<Pom> candidates = versionIndex[name]
+        if (candidates.size() == 1)
+            return candidates[0]
+
+        VersionRange range
+        try {
+            range = VersionRange.parse(reqBundle.version)
+        } catch (IllegalArgumentException e) {
+            logger.info("Warning: ${e.message} in $pom.group:$pom.artifact:$pom.version, accepting any version of $name.")
+            range = VersionRange.parse(null)
+        }
+        Pom resolved = versionIndex.highest(name, range)
+        if (resolved)
+            return resolved
+
+        Pom c = versionIndex.nearest(name, range)
+        metrics.ambiguousResolution()
+        def depsStr = candidates.collect({ p -> "$p.group:$p.artifact:$p.version" }).join(', ')
+        logger.info("Warning: resolved ambiguous dependency: $pom.group:$pom.artifact:$pom.version -> $reqBundle.name:$reqBundle.version, chosen $c.group:$c.artifact:$c.version from [$depsStr].")
+        return c
+    }
+
+    private deployBundles(BundleDeployExecutor executor, File target) {
         logger.info('Deploying artifacts')
+        int unchanged = 0
+        def deploy = { Pom pom, File bundleFile, File sourceFile ->
+            if (isUnchanged(pom, bundleFile, sourceFile, target)) {
+                unchanged++
+                metrics.bundleUnchanged()
+            } else
+                executor.deployBundle pom, bundleFile, sourceFile: sourceFile
+        }
         try {
-            artifacts.each { name, artifactVersions ->
-                artifactVersions.each { pom ->
-                    executor.deployBundle pom, artifactFiles["${pom.artifact}:${pom.version}"], sourceFile: sourceFiles["${pom.artifact}:${pom.version}"]
+            metrics.phase('deploy') {
+                artifacts.each { name, artifactVersions ->
+                    artifactVersions.each { pom ->
+                        deploy pom, pom.file, pom.sourceFile
+                    }
                 }
-            }
-            artifactsNl.each { language, map_nl ->
-                map_nl.each { artifactName, pom ->
-                    executor.deployBundle pom, artifactFiles["${pom.artifact}:${pom.version}"]
+                artifactsNl.each { language, map_nl ->
+                    map_nl.each { artifactName, pom ->
+                        deploy pom, pom.file, null
+                    }
                 }
+                features.each { name, featureVersions ->
+                    featureVersions.each { pom ->
+                        deploy pom, pom.file, null
+                    }
+                }
+                if (index) {
+                    index.removedArtifacts.each { String coordinates ->
+                        logger.info("Removing artifact $coordinates")
+                        String[] parts = coordinates.split(':')
+                        // the index is only kept with the DeployMavenRepositoryExecutor
+                        ((DeployMavenRepositoryExecutor) executor).undeployBundle parts[0], parts[1], parts[2]
+                    }
+                    logger.info("Skipped $unchanged unchanged artifacts")
+                }
+            }
+            metrics.phase('finish') {
+                executor.finish()
+                index?.store()
             }
         } finally {
             executor.cleanup()
             logger.info('Finished deploying artifacts')
         }
     }
-}
 
+    /**
+     * Records the bundle in the index and returns whether exactly this bundle and POM are already deployed.
+     */
+    private boolean isUnchanged(Pom pom, File bundleFile, File sourceFile, File target) {
+        if (!index)
+            return false
+        boolean unchanged = index.update(pom, index.contentHash(bundleFile), index.contentHash(sourceFile), MavenizeIndex.sha1(pom.toString()))
+        File pomFile = new File(target, "${pom.group.replace('.', '/')}/${pom.artifact}/${pom.version}/${pom.artifact}-${pom.version}.pom")
+        return unchanged && pomFile.exists()
+    }
+}
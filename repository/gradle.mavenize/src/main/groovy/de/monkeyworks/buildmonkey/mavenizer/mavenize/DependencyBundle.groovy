@@ -19,12 +19,24 @@ import groovy.transform.ToString
 /**
  * POJO class holding data on dependency bundle. Used by {@link org.akhikhl.unpuzzle.osgi2maven.Pom} class.
  */
-@ToString
+@ToString(excludes = 'target')
 public final class DependencyBundle {
     String group
     String name
     String version
     String visibility
     String resolution
+
+    /**
+     * The artifact the dependency was resolved to, the edge keeps a reference instead of a copy of its version.
+     */
+    Pom target
+
+    /**
+     * Returns the version of the resolved artifact or the version range required by the bundle if unresolved.
+     */
+    String getVersion() {
+        return target != null ? target.version : version
+    }
 }
 
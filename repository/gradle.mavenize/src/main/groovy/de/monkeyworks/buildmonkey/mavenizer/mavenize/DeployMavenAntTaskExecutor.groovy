@@ -19,18 +19,20 @@ import org.apache.maven.artifact.ant.Mvn;
 /**
  * Deploys OSGI bundle (jar or directory) to maven repository
  */
-class DeployMavenAntTaskExecutor {
+class DeployMavenAntTaskExecutor implements BundleDeployExecutor {
     final AntBuilder ant
     final File target
     final File workFolder
+    final MavenizeMetrics metrics
 
     /**
      * Constructs Deployer with the specified parameters.
      */
-    DeployMavenAntTaskExecutor(AntBuilder ant, File target) {
+    DeployMavenAntTaskExecutor(AntBuilder ant, File target, MavenizeMetrics metrics = MavenizeMetrics.NOOP) {
         this.ant = ant
         this.ant.taskdef(resource: 'org/apache/maven/artifact/ant/antlib.xml', classpath: Mvn.class.getProtectionDomain().getCodeSource().getLocation())
         this.target = target
+        this.metrics = metrics
         this.workFolder = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString())
     }
 
@@ -41,6 +43,7 @@ class DeployMavenAntTaskExecutor {
      * @param bundleFileOrDirectory - jar-file or directory, containing OSGI bundle
      */
     void deployBundle(Map options = [:], Pom pomStruct, File bundleFileOrDirectory) {
+        long start = metrics.start()
         workFolder.mkdirs()
         String temporaryM2FolderPath = new File(workFolder, ".m2").absolutePath
         def pomFile = new File(workFolder, 'myPom.xml')
@@ -49,7 +52,7 @@ class DeployMavenAntTaskExecutor {
             pomStruct.packaging = 'jar'
             pomFile.text = pomStruct.toString()
             File zipFile = new File(workFolder, "${pomStruct.artifact}-${pomStruct.version}.jar")
-            ant.zip(basedir: bundleFileOrDirectory, destfile: zipFile)
+            zipFile.withOutputStream { JarPackager.pack(bundleFileOrDirectory, it) }
             bundleFile = zipFile
         }
         else {
@@ -59,7 +62,7 @@ class DeployMavenAntTaskExecutor {
         File sourceFile = options.sourceFile
         if(sourceFile?.isDirectory()) {
             File zipFile = new File(workFolder, sourceFile.name + '.jar')
-            ant.zip(basedir: sourceFile, destfile: zipFile)
+            zipFile.withOutputStream { JarPackager.pack(sourceFile, it) }
             sourceFile = zipFile
         }
         ant.with {
@@ -73,6 +76,18 @@ class DeployMavenAntTaskExecutor {
                 remoteRepository url: this.target.toURI().toURL().toString(), {}
             }
         }
+        // the deploy task copies these files into the repository, its checksums and metadata are not counted
+        metrics.read(bundleFileOrDirectory)
+        metrics.read(options.sourceFile as File)
+        metrics.written(pomFile)
+        metrics.written(bundleFile)
+        if (sourceFile)
+            metrics.written(sourceFile)
+        metrics.bundleDeployed(bundleFileOrDirectory, start)
+    }
+
+    void finish() {
+        // the ant deploy task writes every bundle synchronously
     }
 
     void cleanup() {
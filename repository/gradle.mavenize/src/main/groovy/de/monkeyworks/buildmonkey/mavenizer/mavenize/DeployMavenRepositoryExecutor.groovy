@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+
+package de.monkeyworks.buildmonkey.mavenizer.mavenize
+
+import groovy.xml.MarkupBuilder
+
+import java.nio.file.FileSystemException
+import java.nio.file.Files
+import java.security.DigestInputStream
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Deploys OSGI bundles (jar or directory) to maven repository by writing the maven 2 repository layout
+ * directly, without maven-ant-tasks and without a temporary local repository. Directory bundles are streamed
+ * into their final location as jar, bundle jars are hard links to the jar they are deployed from if possible.
+ */
+class DeployMavenRepositoryExecutor implements BundleDeployExecutor {
+    private static final String encoding = 'UTF-8'
+
+    final File target
+    final MavenizeMetrics metrics
+    final boolean linkJars
+
+    private final ExecutorService executor
+    private final List<Future> deployments = []
+    // versions deployed and removed per "groupId:artifactId", used to write the maven-metadata.xml files at the end
+    private final Map<String, Set<String>> deployedVersions = [:]
+    private final Map<String, Set<String>> removedVersions = [:]
+
+    /**
+     * Constructs Deployer with the specified parameters.
+     *
+     * @param target the maven repository the bundles are written to
+     * @param parallelism number of bundles which are written concurrently
+     * @param metrics records the deployment time of every bundle and the bytes read and written
+     * @param linkJars whether bundle jars are linked instead of copied
+     */
+    DeployMavenRepositoryExecutor(File target, int parallelism = 1, MavenizeMetrics metrics = MavenizeMetrics.NOOP, boolean linkJars = false) {
+        this.target = target
+        this.metrics = metrics
+        this.linkJars = linkJars
+        this.executor = Executors.newFixedThreadPool(Math.max(parallelism, 1))
+    }
+
+    /**
+     * Deploys the specified bundle with the specified POM to target maven repository.
+     * @param options - may contain sourceFile (of type java.io.File), pointing to sources jar or directory.
+     * @param pomStruct - contains POM that will be used for deployment
+     * @param bundleFileOrDirectory - jar-file or directory, containing OSGI bundle
+     */
+    void deployBundle(Map options = [:], Pom pomStruct, File bundleFileOrDirectory) {
+        if (bundleFileOrDirectory.isDirectory())
+            pomStruct.packaging = 'jar'
+        // the POM is rendered on the calling thread, the deployment only works on immutable values
+        String pomText = pomStruct.toString()
+        String group = pomStruct.group
+        String artifact = pomStruct.artifact
+        String version = pomStruct.version
+        File sourceFile = options.sourceFile
+
+        versionsOf(deployedVersions, group, artifact).add(version)
+
+        deployments.add(executor.submit({
+            long start = metrics.start()
+            File versionFolder = new File(artifactFolder(group, artifact), version)
+            versionFolder.mkdirs()
+            String baseName = "${artifact}-${version}"
+
+            writeJar(bundleFileOrDirectory, new File(versionFolder, "${baseName}.jar"))
+            if (sourceFile)
+                writeJar(sourceFile, new File(versionFolder, "${baseName}-sources.jar"))
+            writeText(pomText, new File(versionFolder, "${baseName}.pom"))
+            metrics.bundleDeployed(bundleFileOrDirectory, start)
+            return null
+        } as Callable<Void>))
+    }
+
+    /**
+     * Removes a version of an artifact from the target maven repository and its maven-metadata.xml.
+     */
+    void undeployBundle(String group, String artifact, String version) {
+        new File(artifactFolder(group, artifact), version).deleteDir()
+        versionsOf(removedVersions, group, artifact).add(version)
+    }
+
+    void finish() {
+        deployments.each { it.get() }
+        deployments.clear()
+
+        Set<String> keys = deployedVersions.keySet() + removedVersions.keySet()
+        List<Future> metadata = keys.collect { String key ->
+            executor.submit({
+                String[] coordinates = key.split(':')
+                writeMetadata(coordinates[0], coordinates[1], deployedVersions[key] ?: [] as Set, removedVersions[key] ?: [] as Set)
+                return null
+            } as Callable<Void>)
+        }
+        metadata.each { it.get() }
+        deployedVersions.clear()
+        removedVersions.clear()
+    }
+
+    void cleanup() {
+        executor.shutdownNow()
+    }
+
+    private static Set<String> versionsOf(Map<String, Set<String>> versions, String group, String artifact) {
+        String key = "${group}:${artifact}"
+        if (!versions.containsKey(key))
+            versions[key] = new LinkedHashSet<String>()
+        return versions[key]
+    }
+
+    private File artifactFolder(String group, String artifact) {
+        return new File(target, "${group.replace('.', '/')}/${artifact}")
+    }
+
+    /**
+     * Writes maven-metadata.xml of an artifact, versions deployed by earlier runs are kept unless they were removed.
+     */
+    private void writeMetadata(String group, String artifact, Set<String> deployed, Set<String> removed) {
+        File metadataFile = new File(artifactFolder(group, artifact), 'maven-metadata.xml')
+        Set<String> allVersions = new HashSet<String>(deployed)
+        if (metadataFile.exists())
+            allVersions.addAll(new XmlSlurper().parse(metadataFile).versioning.versions.version*.text())
+        allVersions.removeAll(removed - deployed)
+        if (allVersions.isEmpty()) {
+            // no version of the artifact is left
+            artifactFolder(group, artifact).deleteDir()
+            return
+        }
+        List<String> sortedVersions = allVersions.sort { a, b -> new Version(a).compare(new Version(b)) }
+
+        StringWriter writer = new StringWriter()
+        def builder = new MarkupBuilder(writer)
+        builder.mkp.xmlDeclaration(version: '1.0', encoding: encoding)
+        builder.metadata {
+            groupId group
+            artifactId artifact
+            versioning {
+                latest sortedVersions.last()
+                release sortedVersions.last()
+                versions {
+                    for (String v in sortedVersions)
+                        version v
+                }
+                lastUpdated new Date().format('yyyyMMddHHmmss', TimeZone.getTimeZone('UTC'))
+            }
+        }
+        writeText(writer.toString(), metadataFile)
+    }
+
+    private void writeText(String text, File file) {
+        writeWithChecksums(file) { OutputStream out -> out.write(text.getBytes(encoding)) }
+    }
+
+    private void writeJar(File fileOrDirectory, File jarFile) {
+        metrics.read(fileOrDirectory)
+        // the jar of an earlier deployment may be a link to the update site, which must not be written through
+        Files.deleteIfExists(jarFile.toPath())
+        if (linkJars && fileOrDirectory.isFile() && link(fileOrDirectory, jarFile)) {
+            writeChecksums(jarFile)
+            metrics.linked(jarFile)
+            return
+        }
+        writeWithChecksums(jarFile) { OutputStream out ->
+            if (fileOrDirectory.isDirectory())
+                JarPackager.pack(fileOrDirectory, out)
+            else
+                Files.copy(fileOrDirectory.toPath(), out)
+        }
+    }
+
+    /**
+     * Writes a file of the maven repository together with its md5 and sha1 files, the checksums are computed
+     * while the content is written.
+     */
+    private void writeWithChecksums(File file, Closure write) {
+        MessageDigest md5 = MessageDigest.getInstance('MD5')
+        MessageDigest sha1 = MessageDigest.getInstance('SHA-1')
+        file.withOutputStream { OutputStream out ->
+            OutputStream stream = new DigestOutputStream(new DigestOutputStream(new BufferedOutputStream(out, 65536), md5), sha1)
+            write(stream)
+            stream.flush()
+        }
+        metrics.written(file)
+        writeChecksumFiles(file, md5, sha1)
+    }
+
+    /**
+     * Writes the md5 and sha1 files of a file which is in the maven repository already.
+     */
+    private void writeChecksums(File file) {
+        MessageDigest md5 = MessageDigest.getInstance('MD5')
+        MessageDigest sha1 = MessageDigest.getInstance('SHA-1')
+        file.withInputStream { InputStream input ->
+            InputStream stream = new DigestInputStream(new DigestInputStream(input, md5), sha1)
+            byte[] buffer = new byte[65536]
+            while (stream.read(buffer) != -1) {
+            }
+        }
+        writeChecksumFiles(file, md5, sha1)
+    }
+
+    private void writeChecksumFiles(File file, MessageDigest md5, MessageDigest sha1) {
+        File md5File = new File(file.path + '.md5')
+        File sha1File = new File(file.path + '.sha1')
+        md5File.text = md5.digest().encodeHex().toString()
+        sha1File.text = sha1.digest().encodeHex().toString()
+        metrics.written(md5File)
+        metrics.written(sha1File)
+    }
+
+    /**
+     * @return false if the file system does not support hard links between the update site and the repository
+     */
+    private static boolean link(File source, File file) {
+        try {
+            Files.createLink(file.toPath(), source.toPath())
+            return true
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            return false
+        }
+    }
+}
@@ -7,11 +7,10 @@
  */
 package de.monkeyworks.buildmonkey.mavenizer.mavenize
 
-import groovy.util.slurpersupport.GPathResult
+import de.monkeyworks.buildmonkey.osgi.FeatureXml
+import de.monkeyworks.buildmonkey.osgi.FeatureXmlReader
 import org.osgi.framework.Constants
 
-import java.util.jar.JarFile
-
 /**
  * Created by jake on 14/03/2017.
  */
@@ -19,60 +18,54 @@ class Feature2Pom {
     String group
     String dependencyGroup
 
+    /**
+     * Pool for the feature and plugin names, share it between the converters of one site.
+     */
+    StringPool strings = new StringPool()
 
+    /**
+     * Constructs Feature2Pom object with the specified parameters.
+     * @param group - maven group of the features, included features are expected in the same group.
+     * @param dependencyGroup - maven group of the plugins the features depend on.
+     */
     Feature2Pom(String group = null, String dependencyGroup = null) {
         this.group = group
         this.dependencyGroup = dependencyGroup
     }
 
     /**
-     * Converts bundle to POM.
-     * @param bundleFileOrDirectory - jar-file or directory containing OSGi bundle.
+     * Converts feature to POM.
+     * @param featureFileOrDirectory - jar-file or directory containing the feature.
      * @return the converted POM.
      */
-    Pom convert(File bundleFileOrDirectory) {
+    Pom convert(File featureFileOrDirectory) {
         def pom = new Pom()
-        def featurexmlStream
-
-        if (bundleFileOrDirectory.isDirectory()) {
-            featurexmlStream = new FileInputStream(new File(bundleFileOrDirectory, 'feature.xml'))
+        if (featureFileOrDirectory.isDirectory())
             pom.packaging = 'dir'
-        } else {
-            def jarFile = new JarFile(bundleFileOrDirectory)
-            featurexmlStream = jarFile.getInputStream(jarFile.getJarEntry("feature.xml"))
-        }
-
-        def parsedXML = new XmlSlurper().parse(featurexmlStream)
-        featurexmlStream.close()
 
-        pom.artifact = parsedXML['@id']
+        FeatureXml feature = FeatureXmlReader.read(featureFileOrDirectory)
 
+        pom.artifact = strings.intern(feature.id)
         pom.group = group ?: pom.artifact
-        def version = new Version(parsedXML['@version'].toString())
-        pom.version = "${version.major}.${version.minor}.${version.release}"
+        pom.dependencyGroup = dependencyGroup
+        pom.version = feature.version ?: '0.0.0'
 
-        parseDependencies(pom.dependencyBundles, parsedXML)
+        parseDependencies(pom, feature)
+        pom.dependencyBundles.trimToSize()
 
         return pom
     }
 
     /**
-     *
-     * This method extracts dependencies from a given feature xml using a node name for identifying elements that hold a dependency
-     * and an attribute which holds the artifact name
-     *
-     * @param depBundles
-     * @param xml
+     * Adds the plugins, imported plugins and included features as dependencies.
      */
-    private void parseDependencies(List<DependencyBundle> depBundles, GPathResult xml) {
-        def extractDependenciesFromXML = { nodeName, attribute ->
-            xml.'**'.findAll{ node-> node.name() == nodeName}.forEach { plugin ->
-                depBundles.add(new DependencyBundle(name: plugin["@${attribute}"], resolution: Constants.RESOLUTION_MANDATORY, visibility: Constants.VISIBILITY_PRIVATE, version: "[1.0,)"))
-            }
+    private void parseDependencies(Pom pom, FeatureXml feature) {
+        def addDependency = { String name, String depGroup ->
+            pom.dependencyBundles.add(new DependencyBundle(group: depGroup, name: strings.intern(name), resolution: Constants.RESOLUTION_MANDATORY, visibility: Constants.VISIBILITY_PRIVATE, version: "[1.0,)"))
         }
 
-        extractDependenciesFromXML("plugin", "id")
-        extractDependenciesFromXML("import", "plugin")
-        extractDependenciesFromXML("includes", "id")
+        feature.plugins.each { addDependency(it, null) }
+        feature.importedPlugins.each { addDependency(it, null) }
+        feature.includedFeatures.each { addDependency(it, pom.group) }
     }
 }
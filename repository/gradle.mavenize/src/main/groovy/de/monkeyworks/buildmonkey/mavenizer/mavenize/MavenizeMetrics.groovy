@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2014  Andrey Hihlovskiy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ */
+
+package de.monkeyworks.buildmonkey.mavenizer.mavenize
+
+import groovy.json.JsonOutput
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.BiFunction
+
+/**
+ * Durations and throughput of a mavenize run, written as JSON next to the target repository.
+ *
+ * Bytes read are the bundles and sources copied or packaged into the repository, bytes written everything written
+ * to the repository including checksums and metadata. Bytes linked are bundle jars deployed as hard links, which
+ * take no additional space. Features count as bundles.
+ *
+ * The deployer records unconditionally, a disabled instance like {@link #NOOP} returns right away from every
+ * method without reading the clock.
+ */
+final class MavenizeMetrics {
+    static final MavenizeMetrics NOOP = new MavenizeMetrics(false)
+
+    final boolean enabled
+
+    /**
+     * Number of bundles listed in the report as the slowest ones.
+     */
+    int slowestCount = 20
+
+    private final long created = System.nanoTime()
+    private final Map<String, Long> phaseNanos = Collections.synchronizedMap(new LinkedHashMap<String, Long>())
+    private final AtomicInteger converted = new AtomicInteger()
+    private final AtomicInteger deployed = new AtomicInteger()
+    private final AtomicInteger unchanged = new AtomicInteger()
+    private final AtomicInteger ambiguousResolutions = new AtomicInteger()
+    private final AtomicLong bytesRead = new AtomicLong()
+    private final AtomicLong bytesWritten = new AtomicLong()
+    private final AtomicLong bytesLinked = new AtomicLong()
+    // conversion and deployment time per bundle file name
+    private final ConcurrentHashMap<String, Long> bundleNanos = new ConcurrentHashMap<String, Long>()
+
+    MavenizeMetrics(boolean enabled = true) {
+        this.enabled = enabled
+    }
+
+    /**
+     * Runs a phase of the deployment and records its wall time.
+     */
+    def <T> T phase(String name, Closure<T> body) {
+        if (!enabled)
+            return body.call()
+        long start = System.nanoTime()
+        try {
+            return body.call()
+        } finally {
+            phaseNanos[name] = (phaseNanos[name] ?: 0L) + System.nanoTime() - start
+        }
+    }
+
+    /**
+     * Returns the start time for {@link #bundleConverted} and {@link #bundleDeployed}.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0L
+    }
+
+    void bundleConverted(File bundle, long start) {
+        if (!enabled)
+            return
+        converted.incrementAndGet()
+        addBundleTime(bundle, start)
+    }
+
+    void bundleDeployed(File bundle, long start) {
+        if (!enabled)
+            return
+        deployed.incrementAndGet()
+        addBundleTime(bundle, start)
+    }
+
+    void bundleUnchanged() {
+        if (enabled)
+            unchanged.incrementAndGet()
+    }
+
+    void ambiguousResolution() {
+        if (enabled)
+            ambiguousResolutions.incrementAndGet()
+    }
+
+    /**
+     * Records reading a bundle jar or all files of a bundle directory.
+     */
+    void read(File fileOrDirectory) {
+        if (!enabled || fileOrDirectory == null)
+            return
+        if (fileOrDirectory.isDirectory())
+            fileOrDirectory.eachFileRecurse { File file -> bytesRead.addAndGet(file.length()) }
+        else
+            bytesRead.addAndGet(fileOrDirectory.length())
+    }
+
+    void written(File file) {
+        if (enabled)
+            bytesWritten.addAndGet(file.length())
+    }
+
+    void linked(File file) {
+        if (enabled)
+            bytesLinked.addAndGet(file.length())
+    }
+
+    private void addBundleTime(File bundle, long start) {
+        bundleNanos.merge(bundle.name, System.nanoTime() - start, { Long a, Long b -> a + b } as BiFunction<Long, Long, Long>)
+    }
+
+    /**
+     * Returns the report, durations in milliseconds and rates per second.
+     */
+    Map<String, Object> toMap() {
+        long totalNanos = System.nanoTime() - created
+        Map<String, Long> phases = new LinkedHashMap<String, Long>(phaseNanos)
+        long deployNanos = (phases.deploy ?: 0L) + (phases.finish ?: 0L)
+        List<Map.Entry<String, Long>> slowest = new ArrayList<Map.Entry<String, Long>>(bundleNanos.entrySet())
+        slowest.sort { a, b -> b.value <=> a.value }
+
+        Map<String, Object> report = new LinkedHashMap<String, Object>()
+        report.totalMillis = millis(totalNanos)
+        report.phases = phases.collectEntries { name, nanos -> [(name): millis(nanos)] }
+        report.convertedBundles = converted.get()
+        report.deployedBundles = deployed.get()
+        report.unchangedBundles = unchanged.get()
+        report.bundlesPerSecond = rate(converted.get(), totalNanos)
+        report.convertedBundlesPerSecond = rate(converted.get(), (phases.collectBundles ?: 0L) + (phases.collectFeatures ?: 0L))
+        report.deployedBundlesPerSecond = rate(deployed.get(), deployNanos)
+        report.bytesRead = bytesRead.get()
+        report.bytesWritten = bytesWritten.get()
+        report.bytesLinked = bytesLinked.get()
+        report.ambiguousResolutions = ambiguousResolutions.get()
+        report.slowestBundles = slowest.take(slowestCount).collect { [bundle: it.key, millis: millis(it.value)] }
+        return report
+    }
+
+    /**
+     * Writes the report as JSON.
+     */
+    void write(File file) {
+        file.parentFile?.mkdirs()
+        file.setText(JsonOutput.prettyPrint(JsonOutput.toJson(toMap())), 'UTF-8')
+    }
+
+    private static long millis(long nanos) {
+        return nanos.intdiv(1000000L)
+    }
+
+    private static double rate(int count, long nanos) {
+        return nanos > 0 ? Math.round(count * 1e10d / nanos) / 10d : 0d
+    }
+}
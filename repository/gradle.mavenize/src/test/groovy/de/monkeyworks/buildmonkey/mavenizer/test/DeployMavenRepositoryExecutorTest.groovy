@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.test
+
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.DeployMavenRepositoryExecutor
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.Pom
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.security.MessageDigest
+
+import static org.junit.Assert.*
+
+/**
+ * Deploys bundles into a maven repository in several runs and checks the merged maven-metadata.xml.
+ */
+class DeployMavenRepositoryExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private void run(File repository, Closure deployments) {
+        def executor = new DeployMavenRepositoryExecutor(repository, 2)
+        try {
+            deployments(executor)
+            executor.finish()
+        } finally {
+            executor.cleanup()
+        }
+    }
+
+    private void deploy(DeployMavenRepositoryExecutor executor, String version) {
+        File bundle = folder.newFile("a_${version}.jar")
+        bundle.text = "bundle ${version}"
+        executor.deployBundle(new Pom(group: 'eclipse', artifact: 'a', version: version), bundle)
+    }
+
+    private static List<String> versions(File metadata) {
+        return new XmlSlurper().parse(metadata).versioning.versions.version*.text()
+    }
+
+    @Test
+    void testMetadataIsMerged() {
+        File repository = folder.newFolder('m2')
+        File artifact = new File(repository, 'eclipse/a')
+        File metadata = new File(artifact, 'maven-metadata.xml')
+
+        run(repository) { deploy(it, '1.10.0') }
+        run(repository) { deploy(it, '1.2.0') }
+        assertEquals("versions of earlier runs should be kept", ['1.2.0', '1.10.0'], versions(metadata))
+        assertEquals('1.10.0', new XmlSlurper().parse(metadata).versioning.latest.text())
+
+        File jar = new File(artifact, '1.2.0/a-1.2.0.jar')
+        assertEquals('bundle 1.2.0', jar.text)
+        assertEquals(MessageDigest.getInstance('SHA-1').digest(jar.bytes).encodeHex().toString(), new File(jar.path + '.sha1').text)
+        assertEquals(MessageDigest.getInstance('MD5').digest(metadata.bytes).encodeHex().toString(), new File(metadata.path + '.md5').text)
+
+        run(repository) { it.undeployBundle('eclipse', 'a', '1.10.0') }
+        assertEquals("removed versions should be dropped", ['1.2.0'], versions(metadata))
+        assertFalse(new File(artifact, '1.10.0').exists())
+
+        run(repository) { it.undeployBundle('eclipse', 'a', '1.2.0') }
+        assertFalse("an artifact without versions should be deleted", artifact.exists())
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.test
+
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.MavenizeIndex
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.Pom
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+/**
+ * Stores and reloads the index of a maven repository and checks which bundles count as changed.
+ */
+class MavenizeIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void testContentHashInvalidation() {
+        File repository = folder.newFolder('m2')
+        File bundle = new File(folder.newFolder('plugins'), 'a_1.0.0.jar')
+        bundle.text = 'first'
+
+        MavenizeIndex index = new MavenizeIndex(repository)
+        String hash = index.contentHash(bundle)
+        index.store()
+
+        // the cached hash is trusted as long as size and modification time stay the same
+        long modified = bundle.lastModified()
+        bundle.text = 'other'
+        bundle.lastModified = modified
+        assertEquals(hash, new MavenizeIndex(repository).contentHash(bundle))
+
+        bundle.lastModified = modified + 2000
+        assertNotEquals("a changed bundle should be hashed again", hash, new MavenizeIndex(repository).contentHash(bundle))
+
+        File directory = folder.newFolder('plugins', 'b_1.0.0')
+        new File(directory, 'x.txt').text = 'content'
+        String directoryHash = index.contentHash(directory)
+        assertTrue(new File(directory, 'x.txt').renameTo(new File(directory, 'y.txt')))
+        directory.lastModified = directory.lastModified() + 2000
+        assertNotEquals("renaming a file of a bundle folder should change its hash", directoryHash, index.contentHash(directory))
+    }
+
+    @Test
+    void testChangedAndRemovedArtifacts() {
+        File repository = folder.newFolder('m2')
+        Pom a = new Pom(group: 'eclipse', artifact: 'a', version: '1.0.0')
+        Pom b = new Pom(group: 'eclipse', artifact: 'b', version: '1.0.0')
+
+        MavenizeIndex index = new MavenizeIndex(repository)
+        assertFalse("nothing is deployed before the first run", index.update(a, 'bundle', '', 'pom'))
+        index.update(b, 'bundle', '', 'pom')
+        index.store()
+
+        index = new MavenizeIndex(repository)
+        assertTrue("an unchanged artifact should not be deployed again", index.update(a, 'bundle', '', 'pom'))
+        assertEquals("artifacts not deployed again count as removed", ['eclipse:b:1.0.0'] as Set, index.removedArtifacts)
+        index.store()
+
+        index = new MavenizeIndex(repository)
+        assertFalse("a changed pom should deploy the artifact again", index.update(a, 'bundle', '', 'changed'))
+        assertTrue("removed artifacts should not be remembered", index.removedArtifacts.isEmpty())
+    }
+}
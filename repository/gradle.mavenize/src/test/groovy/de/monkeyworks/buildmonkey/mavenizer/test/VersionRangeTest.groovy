@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.mavenizer.test
+
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.ArtifactVersionIndex
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.Pom
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.Version
+import de.monkeyworks.buildmonkey.mavenizer.mavenize.VersionRange
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class VersionRangeTest {
+
+    @Test
+    void testRangeParsing() {
+        VersionRange range = VersionRange.parse('[1.0.0,2.0.0)')
+        assertTrue("lower bound should be included", range.includes(new Version('1.0.0')))
+        assertTrue("version should be in range", range.includes(new Version('1.9.9')))
+        assertFalse("upper bound should be excluded", range.includes(new Version('2.0.0')))
+
+        range = VersionRange.parse('(1.0,2.0]')
+        assertFalse("lower bound should be excluded", range.includes(new Version('1.0.0')))
+        assertTrue("upper bound should be included", range.includes(new Version('2.0.0')))
+
+        range = VersionRange.parse('3.2')
+        assertFalse("version should be below range", range.includes(new Version('3.1.9')))
+        assertTrue("plain version should be unbounded", range.includes(new Version('100.0.0')))
+    }
+
+    @Test
+    void testResolution() {
+        def poms = ['2.0.0', '1.0.0', '1.5.0', '3.0.0'].collect { new Pom(group: 'eclipse', artifact: 'a', version: it) }
+        ArtifactVersionIndex index = new ArtifactVersionIndex([a: poms])
+
+        assertEquals("highest version in range should be chosen", '1.5.0', index.highest('a', VersionRange.parse('[1.0.0,2.0.0)')).version)
+        assertEquals("inclusive upper bound should be chosen", '2.0.0', index.highest('a', VersionRange.parse('[1.0.0,2.0.0]')).version)
+        assertEquals("highest version should be chosen", '3.0.0', index.highest('a', VersionRange.parse('1.0')).version)
+        assertNull("no version should match", index.highest('a', VersionRange.parse('[4.0.0,5.0.0)')))
+        assertEquals("nearest version should be chosen", '3.0.0', index.nearest('a', VersionRange.parse('[2.1.0,2.2.0)')).version)
+    }
+}
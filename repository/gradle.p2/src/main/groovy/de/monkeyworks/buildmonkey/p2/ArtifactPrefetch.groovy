@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2
+
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactFetcher
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.FetchReport
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+
+/**
+ * Downloads the artifacts of a mirror before p2.mirror runs, into an artifact repository p2.mirror copies from.
+ *
+ * Unlike p2.mirror, which ignores errors, the fetcher verifies the checksums, continues partial downloads of a
+ * previous run and fails if an artifact cannot be fetched.
+ */
+class ArtifactPrefetch {
+
+    static File getPrefetchDir(Project project) {
+        return project.buildDir.toPath().resolve("p2-prefetch").toFile()
+    }
+
+    static void prefetch(Project project) {
+        def mirror = project.eclipseMirror
+        File dir = getPrefetchDir(project)
+        def preview = MirrorPreview.create(project)
+        preview.missing.each { project.logger.warn("Installable unit ${it} not found") }
+
+        Set<ArtifactKey> keys = new LinkedHashSet<>()
+        preview.units.each { unit ->
+            keys.addAll(unit.artifacts.findAll { preview.artifacts.contains(it) })
+        }
+
+        int cached = 0
+        if(SharedArtifacts.isEnabled(project)) {
+            def cache = SharedArtifacts.getCache(project)
+            keys.each { key ->
+                def sha256 = preview.artifacts.get(key).sha256
+                def file = sha256 != null ? cache.find(key.path.split('/')[0], key.id, key.version.toString(), sha256) : null
+                if(file != null) {
+                    RunnableRepository.link(file, dir.toPath().resolve(key.path))
+                    cached++
+                }
+            }
+        }
+
+        def fetcher = new ArtifactFetcher(mirror.connections)
+        FetchReport report = fetcher.fetch(preview.artifacts, keys, dir.toPath())
+        project.logger.lifecycle("Prefetched p2 artifacts: ${report}" + (cached > 0 ? ", ${cached} linked from the p2 cache" : ""))
+
+        // p2.mirror only copies what the repository describes, so only complete artifacts are listed
+        Map<ArtifactKey, Map<String, String>> fetched = [:]
+        keys.each { key ->
+            if(new File(dir, key.path).isFile()) {
+                fetched[key] = preview.artifacts.get(key).properties
+            }
+        }
+        RunnableRepository.writeArtifacts(new File(dir, 'artifacts.xml'), 'prefetch', fetched)
+
+        if(!report.failures.isEmpty()) {
+            report.failures.each { key, message -> project.logger.error("Failed to fetch ${key}: ${message}") }
+            throw new GradleException("${report.failures.size()} p2 artifacts could not be fetched, the next run continues the downloads")
+        }
+    }
+}
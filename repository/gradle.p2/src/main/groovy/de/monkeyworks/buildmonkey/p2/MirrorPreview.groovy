@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2
+
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactIndex
+import de.monkeyworks.buildmonkey.p2.metadata.InstallableUnit
+import de.monkeyworks.buildmonkey.p2.metadata.MetadataIndex
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.Slicer
+import org.gradle.api.Project
+
+/**
+ * Computes what mirrorP2Repository would copy from the metadata of the source repositories, without starting
+ * Eclipse, and compares it with the existing mirror.
+ */
+class MirrorPreview {
+
+    Set<InstallableUnit> units = new TreeSet<>()
+    ArtifactIndex artifacts = new ArtifactIndex()
+    Set<InstallableUnit> mirrored = new TreeSet<>()
+    List<String> missing = []
+
+    static MirrorPreview create(Project project) {
+        def mirror = project.eclipseMirror
+        def preview = new MirrorPreview()
+
+        mirror.targetPlatform.locations.each { location ->
+            URI uri = new URI(location.url.toString())
+            MetadataIndex index = RepositoryReader.readMetadata(uri)
+            List<InstallableUnit> roots = []
+            location.installableUnits.each { iu ->
+                InstallableUnit unit = index.find(iu.id.toString(), iu.version?.toString())
+                if(unit != null) {
+                    roots << unit
+                } else {
+                    preview.missing << "${iu.id}/${iu.version} in ${uri}".toString()
+                }
+            }
+
+            Slicer slicer = new Slicer(index)
+            slicer.followStrict = mirror.sliceStrict as boolean
+            slicer.includeFeatures = mirror.includeFeatures as boolean
+            slicer.latestVersionOnly = mirror.latestVersionOnly as boolean
+            preview.units.addAll(slicer.slice(roots))
+            preview.artifacts.addAll(RepositoryReader.readArtifacts(uri))
+        }
+
+        File target = project.file(mirror.target)
+        if(new File(target, 'content.jar').isFile() || new File(target, 'content.xml').isFile()) {
+            preview.mirrored.addAll(RepositoryReader.readMetadata(target.toURI()).units)
+        }
+        return preview
+    }
+
+    /**
+     * Writes the report to a file and logs its summary.
+     */
+    void report(Project project, File reportFile) {
+        long downloadSize = 0
+        int artifactCount = 0
+        int cached = 0
+        def cache = SharedArtifacts.isEnabled(project) ? SharedArtifacts.getCache(project) : null
+
+        reportFile.parentFile.mkdirs()
+        reportFile.withPrintWriter('UTF-8') { writer ->
+            writer.println("Installable units (+ not mirrored yet)")
+            units.each { unit ->
+                writer.println("${mirrored.contains(unit) ? ' ' : '+'} ${unit}")
+                unit.artifacts.each { key ->
+                    def descriptor = artifacts.get(key)
+                    if(descriptor == null) {
+                        return
+                    }
+                    artifactCount++
+                    if(descriptor.sha256 != null && cache?.find(key.path.split('/')[0], key.id, key.version.toString(), descriptor.sha256) != null) {
+                        cached++
+                    } else if(!mirrored.contains(unit) && descriptor.downloadSize > 0) {
+                        downloadSize += descriptor.downloadSize
+                    }
+                }
+            }
+
+            def removed = mirrored.findAll { !units.contains(it) }
+            if(!removed.isEmpty()) {
+                writer.println()
+                writer.println("Mirrored installable units not in the slice")
+                removed.each { writer.println("- ${it}") }
+            }
+            if(!missing.isEmpty()) {
+                writer.println()
+                writer.println("Installable units not found")
+                missing.each { writer.println("! ${it}") }
+            }
+        }
+
+        int added = units.count { !mirrored.contains(it) } as int
+        project.logger.lifecycle("Mirror holds ${units.size()} installable units (${added} new) with ${artifactCount} artifacts, " +
+                "${(downloadSize / (1024 * 1024)).setScale(1, BigDecimal.ROUND_HALF_UP)} MB to download" +
+                (cache != null ? ", ${cached} artifacts in the p2 cache" : "") + ", see ${reportFile}")
+        missing.each { project.logger.warn("Installable unit ${it} not found") }
+    }
+}
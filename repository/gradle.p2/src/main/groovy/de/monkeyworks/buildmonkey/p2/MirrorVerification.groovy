@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2
+
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactFetcher
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactIndex
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.FetchReport
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryVerifier
+import de.monkeyworks.buildmonkey.p2.metadata.VerifyReport
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+
+/**
+ * Checks the artifacts of the mirror against the checksums of its artifact repository and fetches corrupt or
+ * missing ones again from the repositories of the target definition.
+ */
+class MirrorVerification {
+
+    static void verify(Project project) {
+        def mirror = project.eclipseMirror
+        File target = project.file(mirror.target)
+        ArtifactIndex index = RepositoryReader.readArtifacts(target.toURI())
+
+        VerifyReport report = new RepositoryVerifier(Runtime.runtime.availableProcessors()).verify(index, target.toPath())
+        project.logger.lifecycle("Verified p2 mirror ${target}: ${report}")
+        if(report.intact) {
+            return
+        }
+
+        report.corrupt.each { key, message -> project.logger.warn("Corrupt artifact ${key}: ${message}") }
+        report.missing.each { key -> project.logger.warn("Missing artifact ${key}") }
+        if(!mirror.repair) {
+            throw new GradleException("${report.damaged.size()} artifacts of the p2 mirror are corrupt or missing")
+        }
+        repair(project, target, report.damaged)
+    }
+
+    private static void repair(Project project, File target, Set<ArtifactKey> damaged) {
+        def mirror = project.eclipseMirror
+        File runnable = project.file("${target}-mvn")
+
+        ArtifactIndex sources = new ArtifactIndex()
+        mirror.targetPlatform.locations.each { location ->
+            sources.addAll(RepositoryReader.readArtifacts(new URI(location.url.toString())))
+        }
+
+        def cache = SharedArtifacts.isEnabled(project) ? SharedArtifacts.getCache(project) : null
+        damaged.each { key ->
+            File file = new File(target, key.path)
+            cache?.invalidate(key.path.split('/')[0], key.id, key.version.toString(), file.toPath())
+            // the runnable copy is linked or extracted from the damaged file, it is created again below
+            File runnableFile = new File(runnable, key.path)
+            [runnableFile, new File(runnableFile.parentFile, runnableFile.name - ~/\.jar$/)].each {
+                it.isDirectory() ? it.deleteDir() : it.delete()
+            }
+        }
+
+        FetchReport report = new ArtifactFetcher(mirror.connections).fetch(sources, damaged, target.toPath())
+        project.logger.lifecycle("Repaired p2 mirror ${target}: ${report}")
+
+        if(runnable.isDirectory()) {
+            RunnableRepository.create(target, runnable, project.logger)
+        }
+        SharedArtifacts.share(project, target, runnable)
+
+        if(!report.failures.isEmpty()) {
+            report.failures.each { key, message -> project.logger.error("Failed to fetch ${key}: ${message}") }
+            throw new GradleException("${report.failures.size()} artifacts of the p2 mirror could not be repaired, run ${P2MirrorPlugin.TASK_NAME_MIRROR_P2} again")
+        }
+    }
+}
@@ -8,7 +8,10 @@
 package de.monkeyworks.buildmonkey.p2
 
 import de.monkeyworks.buildmonkey.eclipsesdk.DownloadHelper
+import de.monkeyworks.buildmonkey.eclipsesdk.EclipseApplication
 import de.monkeyworks.buildmonkey.eclipsesdk.EclipseConfiguration
+import de.monkeyworks.buildmonkey.eclipsesdk.cache.SharedArtifacts
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryWriter
 import groovy.xml.MarkupBuilder
 import org.gradle.api.Plugin
 import org.gradle.api.Project
@@ -23,6 +26,8 @@ class P2MirrorPlugin implements Plugin<Project> {
 	static final String TASK_NAME_CREATE_ANT = "createAntScript"
     static final String TASK_NAME_CREATE_TARGET_FILE = "createTargetPlatform"
     static final String TASK_NAME_CREATE_TARGET_FEATURE = "createTargetFeature"
+    static final String TASK_NAME_PREVIEW_MIRROR = "previewP2Mirror"
+    static final String TASK_NAME_VERIFY_MIRROR = "verifyP2Repository"
 
 	static class EclipseMirror {
 
@@ -35,12 +40,49 @@ class P2MirrorPlugin implements Plugin<Project> {
         def targetFeatureName
         def targetPlatform
         def targetFile
+        /**
+         * runs the mirror in an Equinox framework inside the build process instead of forking an Eclipse
+         */
+        def embedded
+        /**
+         * number of target definition locations mirrored at the same time, 1 mirrors all locations in one p2.mirror.
+         * With more, each location is sliced on its own, so requirements between units of different locations are
+         * not followed, and several p2.mirror tasks share the p2 agent of one process.
+         */
+        int concurrency
+        /**
+         * downloads the artifacts with checksum verification and resume before p2.mirror copies them
+         */
+        boolean prefetch
+        /**
+         * number of concurrent downloads of the prefetch
+         */
+        int connections
+        /**
+         * fetches corrupt or missing artifacts again when the mirror is verified, instead of failing
+         */
+        boolean repair
+        /**
+         * creates the runnable copy "<target>-mvn" next to the mirror, mavenize reads the mirror itself
+         */
+        boolean runnable
+        /**
+         * adds content.xml.xz and artifacts.xml.xz to the mirror
+         */
+        boolean xzMetadata
 
 	    EclipseMirror() {
 	        sliceStrict = true
             includeFeatures = true
             latestVersionOnly = false
             targetFile = 'p2.target'
+            embedded = false
+            concurrency = 1
+            prefetch = false
+            connections = 8
+            repair = true
+            runnable = true
+            xzMetadata = false
 	    }
 	}
 
@@ -80,6 +122,8 @@ class P2MirrorPlugin implements Plugin<Project> {
         addTaskToMirrorP2Repository(project)
         addTaskToCreateTargetFile(project)
         addTaskToCreateTargetFeature(project)
+        addTaskToPreviewP2Mirror(project)
+        addTaskToVerifyP2Mirror(project)
 
         project.gradle.taskGraph.whenReady {
             loadTargetFile(project)
@@ -176,9 +220,16 @@ class P2MirrorPlugin implements Plugin<Project> {
     }
 
     static void addTaskToMirrorP2Repository(Project project) {
+        // fingerprint of the source repositories the mirror was last updated from
+        File fingerprintFile = project.buildDir.toPath().resolve("p2-mirror-fingerprint").toFile()
+        String fingerprint = null
+
         project.task('cleanP2Repository') {
             doFirst {
+                fingerprintFile.delete()
                 project.buildDir.toPath().resolve("p2-repository").toFile().deleteDir()
+                project.buildDir.toPath().resolve("p2-mirror-staging").toFile().deleteDir()
+                ArtifactPrefetch.getPrefetchDir(project).deleteDir()
             }
         }
         if (project.tasks.findByPath('clean') == null) {project.tasks.create('clean')}
@@ -186,20 +237,67 @@ class P2MirrorPlugin implements Plugin<Project> {
 
         project.task(TASK_NAME_MIRROR_P2, dependsOn: [DownloadHelper.TASK_NAME_DOWNLOAD_ECLIPSE_SDK, TASK_NAME_CREATE_ANT]) {
             description = "Mirrors a p2 repository"
-            def targetDir = project.buildDir.toPath().resolve("p2-repository").toFile()            
-            outputs.upToDateWhen { 
-                return false 
+            project.afterEvaluate {
+                def mirror = project.eclipseMirror
+                inputs.file mirror.targetDefinition
+                inputs.property 'sliceStrict', mirror.sliceStrict
+                inputs.property 'includeFeatures', mirror.includeFeatures
+                inputs.property 'latestVersionOnly', mirror.latestVersionOnly
+                inputs.property 'targetFeatureName', mirror.targetFeatureName ?: ''
+                inputs.property 'xzMetadata', mirror.xzMetadata
+                inputs.property 'concurrency', mirror.concurrency
+                inputs.property 'prefetch', mirror.prefetch
+                inputs.property 'runnable', mirror.runnable
+                // only evaluated for the up-to-date check, after the target definition has been loaded
+                inputs.property 'sourceRepositories', {
+                    fingerprint = RepositoryFingerprint.digest(mirror.targetPlatform.locations*.url)
+                    if(fingerprint == null && project.file(mirror.target).isDirectory() && fingerprintFile.isFile()) {
+                        // offline, the existing mirror is used as it is
+                        project.logger.warn("Source repositories of ${mirror.target} are not reachable, the mirror is not updated")
+                        return fingerprintFile.text
+                    }
+                    return fingerprint ?: 'unavailable'
+                }
+                outputs.dir mirror.target
+                if(mirror.runnable) {
+                    outputs.dir "${mirror.target}-mvn"
+                }
             }
 
-            doLast { mirrorP2Repository(project) }
+            doLast {
+                fingerprintFile.delete()
+                mirrorP2Repository(project)
+                if(fingerprint != null) {
+                    fingerprintFile.text = fingerprint
+                }
+            }
+        }
+    }
+
+    static void addTaskToPreviewP2Mirror(Project project) {
+        project.task(TASK_NAME_PREVIEW_MIRROR) {
+            description = "Lists the installable units the mirror would hold, read from the source repositories without Eclipse"
+            doLast {
+                MirrorPreview.create(project).report(project, project.buildDir.toPath().resolve("p2-preview.txt").toFile())
+            }
+        }
+    }
+
+    static void addTaskToVerifyP2Mirror(Project project) {
+        project.task(TASK_NAME_VERIFY_MIRROR) {
+            description = "Verifies the checksums of the mirrored artifacts and fetches corrupt or missing ones again"
+            mustRunAfter TASK_NAME_MIRROR_P2
+            doLast { MirrorVerification.verify(project) }
         }
     }
 
     static void addTaskToCreateTargetFile(Project project) {
         project.task(TASK_NAME_CREATE_TARGET_FILE) {
             description = "Creates Target Platform file"    
-            outputs.upToDateWhen { 
-                return false 
+            project.afterEvaluate {
+                inputs.file project.eclipseMirror.targetDefinition
+                inputs.property 'updateURL', project.eclipseMirror.updateURL?.toString() ?: ''
+                outputs.file project.buildDir.toPath().resolve("${project.eclipseMirror.targetFile}").toFile()
             }
 
             doLast { 
@@ -253,22 +351,40 @@ class P2MirrorPlugin implements Plugin<Project> {
     }
 
     static void mirrorP2Repository(Project project) {
-    	project.exec {
-            environment['eclipse.p2.mirrors'] = "false"
-            // redirect the external process output to the logging
-            //standardOutput = new LogOutputStream(project.logger, LogLevel.INFO)
-            //errorOutput = new LogOutputStream(project.logger, LogLevel.INFO)
-            EclipseConfiguration config = project.eclipseConfiguration
-
-            commandLine("java",
-            		'-cp', config.getLauncherPath().toFile(),
-            		'org.eclipse.core.launcher.Main', 
-                    '-application', 'org.eclipse.ant.core.antRunner',
-                    '-consoleLog',
-                    '-nosplash',
-                    '-buildfile', project.buildDir.toPath().resolve('ant.xml')
-            )
+        if(project.eclipseMirror.prefetch) {
+            ArtifactPrefetch.prefetch(project)
         }
+
+        def target = project.file(project.eclipseMirror.target)
+        // p2.mirror appends to the jar files, xz files of an earlier run would be stale afterwards
+        if(['content.xml.xz', 'artifacts.xml.xz'].collect { new File(target, it).delete() }.any()) {
+            new File(target, 'p2.index').delete()
+        }
+
+        EclipseConfiguration config = project.eclipseConfiguration
+        EclipseApplication.run(project, config.eclipseHome, 'org.eclipse.ant.core.antRunner',
+                ['-buildfile', project.buildDir.toPath().resolve('ant.xml')], project.eclipseMirror.embedded as boolean)
+
+        if(project.eclipseMirror.xzMetadata) {
+            // p2.mirror cannot write xz files, both are compressed at the same time afterwards
+            new RepositoryWriter().writeXz(target.toPath())
+        }
+        def runnable = project.file("${target}-mvn")
+        if(project.eclipseMirror.runnable) {
+            RunnableRepository.create(target, runnable, project.logger)
+        } else {
+            runnable.deleteDir()
+        }
+        List<File> repositories = [target, runnable, ArtifactPrefetch.getPrefetchDir(project)]
+        repositories.addAll(project.buildDir.toPath().resolve("p2-mirror-staging").toFile().listFiles() ?: [])
+        SharedArtifacts.share(project, repositories as File[])
+    }
+
+    /**
+     * @return the staging mirror of the index-th repository of the target definition
+     */
+    static File getStagingDir(Project project, int index) {
+        return project.buildDir.toPath().resolve("p2-mirror-staging/${index}").toFile()
     }
 
     static void addTaskToCreateP2MirrorAntScript(Project project) {
@@ -291,25 +407,70 @@ class P2MirrorPlugin implements Plugin<Project> {
 					return builder
 				}
 
+				Closure<MarkupBuilder> buildP2Mirror = { MarkupBuilder builder, URI destination, List<Location> locations ->
+                    builder.'p2.mirror'(references: 'false', ignoreErrors: 'true', verbose:'true') {
+                        // an existing mirror is kept, only the missing artifacts are fetched
+                        builder.'destination'(location: destination, append: 'true')
+                        if(project.eclipseMirror.prefetch) {
+                            // the verified downloads are copied from here, p2 only fetches what is missing
+                            builder.'source'(location: ArtifactPrefetch.getPrefetchDir(project).toURI(), kind: 'artifact')
+                        }
+                        locations.each { location ->
+                            builder.'source'('location': location.url)
+                        }
+
+                        builder.'slicingOptions'(followStrict: project.eclipseMirror.sliceStrict,
+                            includeFeatures: project.eclipseMirror.includeFeatures,
+                            latestVersionOnly: project.eclipseMirror.latestVersionOnly)
+
+                        locations.each { location ->
+                            buildP2MirrorTask(builder, location)
+                        }
+                    }
+
+                    return builder
+				}
+
+				def locations = project.eclipseMirror.targetPlatform.locations
+				def targetURI = new File("${project.eclipseMirror.target}").toURI()
+
 				xmlMarkup.'project'(name :"Create Mirror", 'default' :"create-mirror", basedir:".") {
 					xmlMarkup.'target'(name:"create-mirror") {
-                        xmlMarkup.'p2.mirror'(destination: "${project.eclipseMirror.target}", references: 'false', ignoreErrors: 'true', verbose:'true') {
-                            project.eclipseMirror.targetPlatform.locations.each { location ->    
-                                xmlMarkup.'source'('location': location.url)
+                        // locations of the same repository share a staging mirror and are sliced one after the other
+                        List<List<Location>> repositoryLocations = locations.groupBy { it.url.toString() }.values() as List
+                        if(repositoryLocations.size() > 1 && project.eclipseMirror.concurrency > 1) {
+                            // each repository is sliced into its own staging mirror, like PDE resolves the locations
+                            // of a target definition, so a slow repository does not hold up the others
+                            def stagingDirs = (0..<repositoryLocations.size()).collect { i ->
+                                File stagingDir = getStagingDir(project, i)
+                                // a staging mirror left from another repository would leak its units into the mirror
+                                File repositoryFile = new File(stagingDir, 'repository.url')
+                                String url = repositoryLocations[i][0].url.toString()
+                                if(!repositoryFile.isFile() || repositoryFile.text != url) {
+                                    stagingDir.deleteDir()
+                                    stagingDir.mkdirs()
+                                    repositoryFile.text = url
+                                }
+                                stagingDir
+                            }
+                            xmlMarkup.'parallel'(threadCount: project.eclipseMirror.concurrency, failonany: 'true') {
+                                repositoryLocations.eachWithIndex { repositoryLocation, i ->
+                                    buildP2Mirror(xmlMarkup, stagingDirs[i].toURI(), repositoryLocation)
+                                }
                             }
 
-                            xmlMarkup.'slicingOptions'(followStrict: project.eclipseMirror.sliceStrict, 
-                                includeFeatures: project.eclipseMirror.includeFeatures, 
-                                latestVersionOnly: project.eclipseMirror.latestVersionOnly)
-
-                            project.eclipseMirror.targetPlatform.locations.each { location ->    
-                                buildP2MirrorTask(xmlMarkup, location)
+                            // artifacts found in several locations or already in the mirror are copied only once
+                            xmlMarkup.'p2.mirror'(references: 'false', ignoreErrors: 'true', verbose:'true') {
+                                xmlMarkup.'destination'(location: targetURI, append: 'true')
+                                stagingDirs.each { stagingDir ->
+                                    xmlMarkup.'source'('location': stagingDir.toURI())
+                                }
                             }
+                        } else {
+                            buildP2Mirror(xmlMarkup, targetURI, locations)
                         }
 
-                        xmlMarkup."p2.repo2runnable"(source: "file:${project.eclipseMirror.target}", destination:"${project.eclipseMirror.target}-mvn")
-
-                        xmlMarkup."p2.publish.featuresAndBundles"(metadataRepository:"file:${project.eclipseMirror.target}", artifactRepository:"file:${project.eclipseMirror.target}", source:"${project.eclipseMirror.target}", compress:"false", reusePackedFiles:"true")
+                        // the mirror already holds the metadata of the mirrored units, only the target feature is published
                         xmlMarkup."p2.publish.featuresAndBundles"(metadataRepository:"file:${project.eclipseMirror.target}", artifactRepository:"file:${project.eclipseMirror.target}", source:"${project.buildDir}/targetFeature", publishArtifacts:"true", compress:"true", append:"true")
 					}
 				}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2
+
+import org.xml.sax.SAXException
+
+import java.security.MessageDigest
+import java.util.zip.ZipInputStream
+
+/**
+ * Fingerprint of the index files of p2 repositories, used to find out whether a mirror is still up to date.
+ *
+ * Remote index files are only asked for their ETag, Last-Modified and Content-Length headers, the body is read only
+ * if the server sends none of them. Redirects are followed, also from http to https. Composite repositories are
+ * followed into their children.
+ */
+class RepositoryFingerprint {
+
+    static final List<String> INDEX_FILES = [
+            'p2.index',
+            'compositeContent.jar', 'compositeContent.xml',
+            'compositeArtifacts.jar', 'compositeArtifacts.xml',
+            'content.xml.xz', 'content.jar', 'content.xml',
+            'artifacts.xml.xz', 'artifacts.jar', 'artifacts.xml'
+    ]
+
+    private static final int MAX_DEPTH = 5
+    private static final int MAX_REDIRECTS = 5
+    private static final int TIMEOUT = 30000
+    private static final String UNAVAILABLE = 'unavailable'
+
+    /**
+     * @param locations URLs of the source repositories
+     * @return hex digest over the index files of all repositories, or <code>null</code> if a repository could not be
+     * reached
+     */
+    static String digest(Collection locations) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        Set<String> visited = new HashSet<>()
+        boolean available = true
+        locations.each { available &= add(digest, it.toString(), 0, visited) }
+        return available ? digest.digest().encodeHex().toString() : null
+    }
+
+    /**
+     * @return <code>false</code> if the repository or one of its children could not be reached
+     */
+    private static boolean add(MessageDigest digest, String location, int depth, Set<String> visited) {
+        URI base = new URI(location.endsWith('/') ? location : location + '/')
+        if(depth > MAX_DEPTH || !visited.add(base.toString())) {
+            return true
+        }
+
+        boolean available = true
+        digest.update("${base}\n".getBytes('UTF-8'))
+        for(String name : INDEX_FILES) {
+            URI index = base.resolve(name)
+            String stamp = stamp(index)
+            if(stamp == null) {
+                continue
+            }
+            if(stamp == UNAVAILABLE) {
+                // do not wait for the timeout of every index file of an unreachable server
+                return false
+            }
+            digest.update("${name}=${stamp}\n".getBytes('UTF-8'))
+            if(name.startsWith('composite')) {
+                children(index).each { child ->
+                    available &= add(digest, base.resolve(child).toString(), depth + 1, visited)
+                }
+            }
+        }
+        return available
+    }
+
+    /**
+     * @return a string that changes with the content of the file, <code>null</code> if it does not exist or
+     * {@link #UNAVAILABLE}
+     */
+    private static String stamp(URI index) {
+        if(index.scheme == 'file') {
+            File file = new File(index)
+            return file.isFile() ? "${file.length()}:${file.lastModified()}" : null
+        }
+
+        try {
+            HttpURLConnection connection = open(index, 'HEAD')
+            int status = connection.responseCode
+            if(status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                return null
+            }
+            if(status != HttpURLConnection.HTTP_OK) {
+                return "status:${status}"
+            }
+
+            def headers = [connection.getHeaderField('ETag'), connection.getHeaderField('Last-Modified'), connection.getHeaderField('Content-Length')]
+            if(headers.any { it != null }) {
+                return headers.join(':')
+            }
+            return open(index, 'GET').inputStream.withStream { InputStream stream ->
+                MessageDigest digest = MessageDigest.getInstance('SHA-256')
+                byte[] buffer = new byte[8192]
+                int read
+                while((read = stream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read)
+                }
+                return "sha256:" + digest.digest().encodeHex()
+            }
+        } catch(IOException e) {
+            return UNAVAILABLE
+        }
+    }
+
+    /**
+     * HttpURLConnection does not follow redirects to another protocol, e.g. from http to https, they are followed here.
+     *
+     * @return the connection to the final location
+     */
+    private static HttpURLConnection open(URI location, String method) throws IOException {
+        URL url = location.toURL()
+        for(int redirects = 0; ; redirects++) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection()
+            connection.instanceFollowRedirects = false
+            connection.requestMethod = method
+            connection.connectTimeout = TIMEOUT
+            connection.readTimeout = TIMEOUT
+            int status = connection.responseCode
+            String target = connection.getHeaderField('Location')
+            if(status < 300 || status >= 400 || status == HttpURLConnection.HTTP_NOT_MODIFIED || target == null || redirects == MAX_REDIRECTS) {
+                return connection
+            }
+            connection.disconnect()
+            url = new URL(url, target)
+        }
+    }
+
+    /**
+     * @return the child locations listed in a compositeContent or compositeArtifacts file
+     */
+    private static List<String> children(URI index) {
+        try {
+            InputStream input = index.scheme == 'file' ? index.toURL().openStream() : open(index, 'GET').inputStream
+            return input.withStream { InputStream stream ->
+                InputStream xml = stream
+                if(index.path.endsWith('.jar')) {
+                    def zip = new ZipInputStream(stream)
+                    def entry = zip.nextEntry
+                    while(entry != null && !entry.name.endsWith('.xml')) {
+                        entry = zip.nextEntry
+                    }
+                    xml = zip
+                }
+                def parser = new XmlSlurper()
+                parser.setFeature('http://apache.org/xml/features/nonvalidating/load-external-dtd', false)
+                return parser.parse(xml).children.child.collect { it.@location.text() }
+            }
+        } catch(IOException | SAXException e) {
+            return []
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2
+
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactIndex
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.MetadataIndex
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import groovy.xml.MarkupBuilder
+import org.gradle.api.logging.Logger
+
+import java.nio.file.FileSystemException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.zip.ZipFile
+
+/**
+ * Creates the runnable form of a p2 repository, like the p2.repo2runnable task, without copying every artifact.
+ *
+ * Bundle jars are hard links to the jars of the repository, only features and bundles installed unpacked are
+ * extracted. Artifacts already in the runnable repository are kept, the ones no longer in the repository are removed.
+ */
+class RunnableRepository {
+
+    static final List<String> METADATA_FILES = ['content.xml.xz', 'content.jar', 'content.xml']
+    static final List<String> ARTIFACT_FOLDERS = ['plugins', 'features', 'binary']
+
+    static void create(File repository, File runnable, Logger logger) {
+        long start = System.currentTimeMillis()
+        MetadataIndex metadata = RepositoryReader.readMetadata(repository.toURI())
+        ArtifactIndex artifacts = RepositoryReader.readArtifacts(repository.toURI())
+
+        Set<ArtifactKey> zipped = new HashSet<>()
+        metadata.units.each { unit ->
+            if(unit.zipped) {
+                zipped.addAll(unit.artifacts)
+            }
+        }
+
+        Map<ArtifactKey, Path> runnableArtifacts = [:]
+        Set<Path> expected = new HashSet<>()
+        int linked = 0
+        int extracted = 0
+        artifacts.keys.each { ArtifactKey key ->
+            Path source = repository.toPath().resolve(key.path)
+            if(!Files.isRegularFile(source)) {
+                return
+            }
+
+            Path target = runnable.toPath().resolve(key.path)
+            if(key.classifier == ArtifactKey.FEATURE || zipped.contains(key)) {
+                target = target.resolveSibling(target.fileName.toString() - ~/\.jar$/)
+                if(!Files.isDirectory(target)) {
+                    extract(source, target)
+                    extracted++
+                }
+            } else if(link(source, target)) {
+                linked++
+            }
+            runnableArtifacts[key] = target
+            expected << target
+        }
+
+        ARTIFACT_FOLDERS.each { folder ->
+            runnable.toPath().resolve(folder).toFile().listFiles()?.each { file ->
+                if(!expected.contains(file.toPath())) {
+                    file.isDirectory() ? file.deleteDir() : file.delete()
+                }
+            }
+        }
+
+        METADATA_FILES.each { name ->
+            File file = new File(repository, name)
+            File copy = new File(runnable, name)
+            if(file.isFile()) {
+                Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            } else {
+                copy.delete()
+            }
+        }
+        // the runnable artifacts are only described by the xml file, p2 finds the metadata without an index as well
+        ['p2.index', 'artifacts.xml.xz', 'artifacts.jar'].each { new File(runnable, it).delete() }
+        writeArtifacts(new File(runnable, 'artifacts.xml'), 'runnable', runnableArtifacts.collectEntries { key, path ->
+            [(key): Files.isDirectory(path) ? ['artifact.folder': 'true'] : ['artifact.size': Files.size(path).toString()]]
+        } as Map<ArtifactKey, Map<String, String>>)
+
+        logger.info("Runnable repository ${runnable} created in ${System.currentTimeMillis() - start} ms: ${linked} jars linked, ${extracted} artifacts extracted")
+    }
+
+    /**
+     * Links a file, or copies it if the file system does not support links.
+     *
+     * @return whether the target has been created or replaced
+     */
+    static boolean link(Path source, Path target) {
+        if(Files.exists(target) && Files.isSameFile(source, target)) {
+            return false
+        }
+        Files.createDirectories(target.parent)
+        Files.deleteIfExists(target)
+        try {
+            Files.createLink(target, source)
+        } catch(UnsupportedOperationException | FileSystemException e) {
+            Files.copy(source, target)
+        }
+        return true
+    }
+
+    private static void extract(Path jar, Path target) {
+        Path temp = target.resolveSibling(target.fileName.toString() + '.tmp')
+        temp.toFile().deleteDir()
+        Files.createDirectories(temp)
+        new ZipFile(jar.toFile()).withCloseable { ZipFile zip ->
+            zip.entries().each { entry ->
+                Path file = temp.resolve(entry.name).normalize()
+                if(!file.startsWith(temp)) {
+                    throw new IOException("Invalid entry ${entry.name} in ${jar}")
+                }
+                if(entry.directory) {
+                    Files.createDirectories(file)
+                } else {
+                    Files.createDirectories(file.parent)
+                    zip.getInputStream(entry).withStream { Files.copy(it, file) }
+                }
+            }
+        }
+        Files.move(temp, target)
+    }
+
+    /**
+     * Writes the artifacts.xml of a simple artifact repository in the default layout.
+     *
+     * @param artifacts the artifacts with their properties
+     */
+    static void writeArtifacts(File file, String name, Map<ArtifactKey, Map<String, String>> artifacts) {
+        file.withWriter('UTF-8') { writer ->
+            def xml = new MarkupBuilder(writer)
+            xml.mkp.xmlDeclaration(version: '1.0', encoding: 'UTF-8')
+            xml.mkp.pi(artifactRepository: [version: '1.1.0'])
+            xml.repository(name: name, type: 'org.eclipse.equinox.p2.artifact.repository.simpleRepository', version: '1') {
+                delegate.properties(size: 1) {
+                    property(name: 'p2.timestamp', value: System.currentTimeMillis())
+                }
+                mappings(size: 3) {
+                    rule(filter: '(& (classifier=osgi.bundle))', output: '${repoUrl}/plugins/${id}_${version}.jar')
+                    rule(filter: '(& (classifier=binary))', output: '${repoUrl}/binary/${id}_${version}')
+                    rule(filter: '(& (classifier=org.eclipse.update.feature))', output: '${repoUrl}/features/${id}_${version}.jar')
+                }
+                delegate.artifacts(size: artifacts.size()) {
+                    artifacts.each { key, properties ->
+                        artifact(classifier: key.classifier, id: key.id, version: key.version) {
+                            delegate.properties(size: properties.size()) {
+                                properties.each { property(name: it.key, value: it.value) }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
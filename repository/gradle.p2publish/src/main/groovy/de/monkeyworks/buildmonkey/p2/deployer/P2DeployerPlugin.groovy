@@ -7,9 +7,13 @@
  */
 package de.monkeyworks.buildmonkey.p2.deployer
 
+import de.monkeyworks.buildmonkey.osgi.FeatureXmlReader
+import de.monkeyworks.buildmonkey.osgi.JarManifestRewriter
+import de.monkeyworks.buildmonkey.p2.metadata.CompositePublisher
+import de.monkeyworks.buildmonkey.p2.metadata.Publisher
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryWriter
 import de.monkeyworks.buildmonkey.p2.deployer.util.FeatureHelper
-import groovy.xml.StreamingMarkupBuilder
-import groovy.xml.XmlUtil
+import org.gradle.api.GradleException
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.Task
@@ -17,13 +21,13 @@ import org.gradle.api.tasks.Delete
 import org.gradle.api.tasks.bundling.Jar
 
 import java.nio.file.Files
+import java.nio.file.Path
 import java.nio.file.StandardCopyOption
 
 import de.monkeyworks.buildmonkey.eclipsesdk.DownloadHelper
+import de.monkeyworks.buildmonkey.eclipsesdk.EclipseApplication
 import de.monkeyworks.buildmonkey.eclipsesdk.EclipseConfiguration
 
-import java.util.jar.JarFile
-
 /**
  * Gradle plugin to bundle all build artifacts into one p2 repository
  *
@@ -52,10 +56,15 @@ public class P2DeployerPlugin implements Plugin<Project> {
             cleanTask = rootProject.tasks.create("cleanP2", Delete)
             cleanTask.doLast {
                 delete rootProject.p2Deployment.targetRepository
+                delete getPublishStateFile(rootProject)
+                delete getShardStateDirectory(rootProject)
+                delete getStagingRepository(rootProject.p2Deployment)
             }
 
             rootProject.ext.sourceTasks = new HashSet<Jar>();
             rootProject.ext.bundleTasks = new HashSet<Jar>();
+            // the jars the copy tasks stage in this build
+            rootProject.ext.stagedJars = new ArrayList<Closure<File>>();
 
             bundleTask.doLast {
 
@@ -67,6 +76,7 @@ public class P2DeployerPlugin implements Plugin<Project> {
 
                 // deploy source repository
                 if (sourceDir == null) {
+                    Set<File> stagedJars = rootProject.ext.stagedJars.collect { it() } as Set
 
                     if (config.generateFeature) {
                         def version = config.version
@@ -79,7 +89,8 @@ public class P2DeployerPlugin implements Plugin<Project> {
                         }
 
                         // create feature
-                        def featureJar = config.targetRepository.toPath().resolve("features/${config.featureId}_${version}.jar")
+                        def featureJar = getStagingRepository(config).toPath().resolve("features/${config.featureId}_${version}.jar")
+                        stagedJars.add(featureJar.toFile())
                         FeatureHelper.createJar(config.featureId,
                                 config.featureLabel,
                                 version, "provider",
@@ -88,7 +99,8 @@ public class P2DeployerPlugin implements Plugin<Project> {
                                 featureJar.toFile())
 
                         if (rootProject.ext.sourceTasks.size() > 0) {
-                            featureJar = config.targetRepository.toPath().resolve("features/${config.featureId}.source_${version}.jar")
+                            featureJar = getStagingRepository(config).toPath().resolve("features/${config.featureId}.source_${version}.jar")
+                            stagedJars.add(featureJar.toFile())
                             FeatureHelper.createJar(config.featureId,
                                     config.featureLabel + " - Sources",
                                     version, "provider",
@@ -98,7 +110,10 @@ public class P2DeployerPlugin implements Plugin<Project> {
                         }
                     }
 
-                    doBuildP2Repository(rootProject, eclipseHome, config.targetRepository.getAbsolutePath(), repoDirUri, false)
+                    if (config.incremental || config.shardBy) {
+                        pruneStagingRepository(getStagingRepository(config), stagedJars)
+                    }
+                    doBuildP2Repository(rootProject, eclipseHome, getStagingRepository(config).getAbsolutePath(), repoDirUri, false)
                 } else {
                     doBuildP2Repository(rootProject, eclipseHome, sourceDir, repoDirUri, true)
                 }
@@ -125,7 +140,12 @@ public class P2DeployerPlugin implements Plugin<Project> {
         bundleTasks.removeIf { it -> it == null }
 
         copyArtefactsTasks.forEach {
-            it.dependsOn cleanTask
+            // an incremental or sharded build keeps the staged jars, cleanP2 only runs if it is called
+            it.dependsOn {
+                P2DeploymentExtension config = rootProject.p2Deployment
+                config.incremental || config.shardBy ? [] : cleanTask
+            }
+            it.mustRunAfter cleanTask
         }
 
         if (copyArtefactsTasks.size() > 0) {
@@ -141,7 +161,18 @@ public class P2DeployerPlugin implements Plugin<Project> {
         if (rootProject.extensions.findByName(extensionName) == null) {
             rootProject.extensions.create(extensionName, P2DeploymentExtension, rootProject)
 
-            rootProject.p2Deployment.qualifier = ".v" + new Date().format('yyyyMMddHHmm')
+            String timestamp = ".v" + new Date().format('yyyyMMddHHmm')
+            rootProject.p2Deployment.qualifier = timestamp
+
+            // the timestamp changes the version of every jar, so an incremental or sharded build would publish
+            // everything again on every build and keep the jars of each earlier build in the repository history
+            rootProject.gradle.taskGraph.whenReady { graph ->
+                P2DeploymentExtension config = rootProject.p2Deployment
+                if ((config.incremental || config.shardBy) && config.sourceRepository == null
+                        && config.qualifier == timestamp && graph.hasTask(rootProject.tasks.getByName(taskName))) {
+                    throw new GradleException("p2Deployment.incremental and p2Deployment.shardBy need a fixed qualifier, set p2Deployment.qualifier instead of the default build timestamp")
+                }
+            }
         }
     }
 
@@ -172,38 +203,37 @@ public class P2DeployerPlugin implements Plugin<Project> {
 
         def classifier = task.classifier.contains("source") ? ".source" : ""
 
-        Jar deployTask = task.project.tasks.create("p2" + task.name.capitalize(), Jar)
-        deployTask.configure {
-            with task.rootSpec
-        }
-        deployTask.dependsOn(task)
-
-        deployTask.doFirst {
-
-            def pluginsDir = new File(config.targetRepository, "plugins")
-            if (!pluginsDir.exists())
-                pluginsDir.mkdirs()
-
-            String finalVersion = config.version
-            finalVersion = finalVersion.replaceAll(".qualifier", "")
+        def finalVersion = {
+            String version = config.version
+            version = version.replaceAll(".qualifier", "")
 
-            if(!finalVersion || finalVersion == "unspecified") {
-                finalVersion = task.manifest.effectiveManifest.attributes.get('Bundle-Version')
+            if(!version || version == "unspecified") {
+                version = task.manifest.effectiveManifest.attributes.get('Bundle-Version')
             }
             if (config.qualifier ) {
-                finalVersion += config.qualifier
+                version += config.qualifier
             }
+            return version
+        }
+        def targetJar = {
+            new File(new File(getStagingRepository(config), "plugins"), "${task.project.name}${classifier}_${finalVersion()}.jar")
+        }
 
-            manifest {
-                attributes(task.manifest.effectiveManifest.getAttributes())
-                getAttributes().put('Bundle-Version', finalVersion)
+        // the bundle is copied with the raw zip entries, only the manifest is compressed again
+        Task deployTask = task.project.tasks.create("p2" + task.name.capitalize())
+        deployTask.dependsOn(task)
+        deployTask.inputs.file({ task.archivePath })
+        deployTask.outputs.file(targetJar)
+        rootProject.ext.stagedJars.add(targetJar)
 
-                if(classifier.endsWith("source")) {
-                    getAttributes().put('Eclipse-SourceBundle', "${task.project.name};version=\"${finalVersion}\";roots:=\".\"")
-                }
+        deployTask.doLast {
+            String version = finalVersion()
+
+            Map<String, String> attributes = ['Bundle-Version': version]
+            if(classifier.endsWith("source")) {
+                attributes.put('Eclipse-SourceBundle', "${task.project.name};version=\"${version}\";roots:=\".\"".toString())
             }
-            destinationDir = pluginsDir
-            archiveName = "${task.project.name}${classifier}_${finalVersion}.jar"
+            JarManifestRewriter.rewrite(task.archivePath, targetJar(), attributes)
         }
         return deployTask
     }
@@ -215,9 +245,7 @@ public class P2DeployerPlugin implements Plugin<Project> {
         }
 
         String finalVersion
-
-        def parsedXML
-        def featurexmlStream
+        File featureSource
 
         Task p2FeatureCreation = task.project.tasks.create("createP2FeatureXML") {
             doFirst {
@@ -225,17 +253,13 @@ public class P2DeployerPlugin implements Plugin<Project> {
                 finalVersion = config.version
 
                 if (!task.archivePath.exists()) {
-                    featurexmlStream = new File(task.project.getProjectDir(), "feature.xml").newInputStream()
+                    featureSource = new File(task.project.getProjectDir(), "feature.xml")
                 } else {
-                    JarFile jarFile = new JarFile(task.archivePath)
-                    featurexmlStream = jarFile.getInputStream(jarFile.getEntry("feature.xml"))
+                    featureSource = task.archivePath
                 }
 
-                parsedXML = new XmlSlurper().parse(featurexmlStream)
-                featurexmlStream.close()
-
                 if(!finalVersion || finalVersion == "unspecified") {
-                    finalVersion = parsedXML['@version'].toString()
+                    finalVersion = FeatureXmlReader.read(featureSource).version
                 }
 
                 finalVersion = finalVersion.replace(".qualifier", "")
@@ -253,13 +277,9 @@ public class P2DeployerPlugin implements Plugin<Project> {
                     finalVersion += config.qualifier
                 }
 
-                parsedXML['@version'] = finalVersion
-
-                def writer = new FileWriter(modifiedFile)
-                writer.withWriter { outWriter ->
-                    XmlUtil.serialize(new StreamingMarkupBuilder().bind { mkp.yield parsedXML }, outWriter)
+                modifiedFile.withOutputStream { out ->
+                    FeatureXmlReader.writeWithVersion(featureSource, out, finalVersion)
                 }
-                writer.close()
 
             }
         }
@@ -271,25 +291,129 @@ public class P2DeployerPlugin implements Plugin<Project> {
         deployTask.doFirst {
             from "${task.project.buildDir}/p2-tmp/feature.xml"
 
-            def featureDir = new File(config.targetRepository, "features")
+            def featureDir = new File(getStagingRepository(config), "features")
             if (!featureDir.exists())
                 featureDir.mkdirs()
 
             destinationDir = featureDir
             archiveName = "${task.project.name}_${finalVersion}.jar"
         }
+        // the version is known once createP2FeatureXML has run, which is before the repository is published
+        rootProject.ext.stagedJars.add({ new File(new File(getStagingRepository(config), "features"), "${task.project.name}_${finalVersion}.jar") })
         return deployTask
     }
 
+    /**
+     * @return the jars published into the repository by the last incremental build
+     */
+    static File getPublishStateFile(Project project) {
+        return new File(project.buildDir, "p2-publish-state.properties")
+    }
+
+    /**
+     * Deletes the jars of earlier builds from the staging repository, e.g. the bundles with an older qualifier or of
+     * removed projects, so only the jars of this build are published.
+     */
+    static void pruneStagingRepository(File staging, Set<File> stagedJars) {
+        Set<File> keep = stagedJars*.absoluteFile as Set
+        ["plugins", "features"].each { folder ->
+            new File(staging, folder).listFiles({ File file -> file.name.endsWith(".jar") } as FileFilter)?.each { File jar ->
+                if (!keep.contains(jar.absoluteFile)) {
+                    jar.delete()
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the folder the bundles and features are copied to before they are published, the target repository
+     * itself unless it is sharded
+     */
+    static File getStagingRepository(P2DeploymentExtension config) {
+        return config.shardBy ? new File(config.project.buildDir, "p2-staging") : config.targetRepository
+    }
+
+    /**
+     * @return fingerprints and publish state of the shards of the last build
+     */
+    static File getShardStateDirectory(Project project) {
+        return new File(project.buildDir, "p2-shard-state")
+    }
+
+    /**
+     * Assigns the jars copied by the p2 tasks to the shard of the project that built them, the generated features
+     * get a shard of their own.
+     */
+    private Map<String, List<Path>> shardByProject(Project project, Path source) {
+        P2DeploymentExtension config = project.p2Deployment
+
+        Map<String, String> shardOfName = [:]
+        shardOfName[config.featureId] = config.featureId
+        shardOfName[config.featureId + ".source"] = config.featureId
+        (project.ext.bundleTasks + project.ext.sourceTasks)*.project.unique().each { Project bundleProject ->
+            String shard = config.shardOf(bundleProject)
+            shardOfName[bundleProject.name] = shard
+            shardOfName[bundleProject.name + ".source"] = shard
+        }
+
+        Map<String, List<Path>> shards = new TreeMap<>()
+        ["plugins", "features"].each { folder ->
+            source.resolve(folder).toFile().listFiles({ File file -> file.name.endsWith(".jar") } as FileFilter)?.each { File jar ->
+                // jars are named <project>[.source]_<version>.jar
+                int separator = jar.name.lastIndexOf('_')
+                String shard = separator > 0 ? shardOfName[jar.name.substring(0, separator)] : null
+                shards.computeIfAbsent(shard ?: CompositePublisher.DEFAULT_SHARD, { new ArrayList<Path>() }).add(jar.toPath())
+            }
+        }
+        return shards
+    }
+
     private void doBuildP2Repository(Project project, EclipseConfiguration eclipseHome, String sourceDir, URI targetURI, boolean publishArtifacts) {
-        project.exec {
-            commandLine 'java', '-jar', eclipseHome.getLauncherPath().toFile(),
-                    '-application', 'org.eclipse.equinox.p2.publisher.FeaturesAndBundlesPublisher',
-                    '-metadataRepository', targetURI,
+        P2DeploymentExtension config = project.p2Deployment
+        if (config.shardBy) {
+            def source = project.file(sourceDir).toPath()
+            def publisher = new CompositePublisher(Runtime.runtime.availableProcessors(), getShardStateDirectory(project).toPath())
+            Map<String, List<Path>> shards
+            if (config.shardBy == "feature") {
+                shards = publisher.shardByFeature(source)
+            } else if (config.shardBy == "project") {
+                shards = shardByProject(project, source)
+            } else {
+                throw new GradleException("Unknown p2Deployment.shardBy '${config.shardBy}', use 'feature' or 'project'")
+            }
+            publisher.xz = config.xzMetadata
+            publisher.xzOnly = config.xzOnly
+            def reports = publisher.publish(source, new File(targetURI).toPath(), project.name, shards, true)
+            project.logger.info("Published ${reports.size()} of ${shards.size()} shards of ${targetURI}")
+            reports.each { shard, report -> project.logger.info("  ${shard}: ${report}") }
+            return
+        }
+        if (config.nativePublisher || config.incremental) {
+            def publisher = new Publisher(Runtime.runtime.availableProcessors())
+            publisher.xz = config.xzMetadata
+            publisher.xzOnly = config.xzOnly
+            if (config.incremental) {
+                publisher.stateFile = getPublishStateFile(project).toPath()
+            }
+            def report = publisher.publish(project.file(sourceDir).toPath(), new File(targetURI).toPath(), project.name, publishArtifacts, true)
+            project.logger.info("Published p2 repository ${targetURI}: ${report}")
+            return
+        }
+
+        def args = ['-metadataRepository', targetURI,
                     '-artifactRepository', targetURI,
                     '-source', sourceDir,
-                    '-compress',
-                    publishArtifacts ? '-publishArtifacts' : ''
+                    '-compress']
+        if (publishArtifacts) {
+            args << '-publishArtifacts'
+        }
+        EclipseApplication.run(project, eclipseHome.eclipseHome, 'org.eclipse.equinox.p2.publisher.FeaturesAndBundlesPublisher', args)
+
+        if (config.xzMetadata || config.xzOnly) {
+            // the p2 publisher only writes the jar files
+            def writer = new RepositoryWriter()
+            writer.xzOnly = config.xzOnly
+            writer.writeXz(new File(targetURI).toPath())
         }
     }
 }
@@ -37,6 +37,27 @@ class P2DeploymentExtension {
 
     String sourceRepository
 
+    // publish the metadata inside the build instead of forking the p2 publisher of an Eclipse SDK
+    boolean nativePublisher
+
+    // keep the repository between builds and only read added or changed jars, implies the native publisher,
+    // needs a fixed qualifier as the default build timestamp changes the version of every jar
+    boolean incremental
+
+    // publish into child repositories of a composite repository, one per 'feature' or per 'project',
+    // only changed shards are written again, implies the native publisher and keeps the repository between builds,
+    // needs a fixed qualifier as the default build timestamp changes the version of every jar
+    String shardBy
+
+    // shard of a project with shardBy 'project', e.g. { it.parent.name } to group the projects by their parent
+    Closure<String> shardOf = { Project project -> project.name }
+
+    // also write content.xml.xz and artifacts.xml.xz, which are much smaller than the jar files
+    boolean xzMetadata
+
+    // only write the xz metadata, p2 reads it since Eclipse Oxygen
+    boolean xzOnly
+
     // default constructor
     P2DeploymentExtension(Project project) {
         this.project = project
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.Map;
+
+/**
+ * Artifact of an artifact repository with its properties, like sizes and checksums.
+ */
+public final class ArtifactDescriptor {
+
+    public static final String DOWNLOAD_SIZE = "download.size";
+    public static final String ARTIFACT_SIZE = "artifact.size";
+    public static final String DOWNLOAD_MD5 = "download.md5";
+    public static final String DOWNLOAD_SHA256 = "download.checksum.sha-256";
+    public static final String FORMAT = "format";
+
+    private final ArtifactKey key;
+    private final Map<String, String> properties;
+
+    public ArtifactDescriptor(ArtifactKey key, Map<String, String> properties) {
+        this.key = key;
+        this.properties = properties;
+    }
+
+    public ArtifactKey getKey() {
+        return key;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @return the number of bytes to download or -1 if the repository does not tell
+     */
+    public long getDownloadSize() {
+        try {
+            String size = properties.get(DOWNLOAD_SIZE);
+            return size != null ? Long.parseLong(size) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the SHA-256 checksum of the download or <code>null</code> if the repository does not tell
+     */
+    public String getSha256() {
+        return properties.get(DOWNLOAD_SHA256);
+    }
+
+    /**
+     * @return whether this is the artifact itself and not a processed form of it, like pack200
+     */
+    public boolean isCanonical() {
+        return properties.get(FORMAT) == null;
+    }
+
+    @Override
+    public String toString() {
+        return key + (isCanonical() ? "" : " (" + properties.get(FORMAT) + ")");
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the artifacts of an {@link ArtifactIndex} into the layout of a simple artifact repository.
+ *
+ * Downloads run on a bounded number of connections. They are written to a <code>.part</code> file first, which a
+ * later run continues with an HTTP range request, and are only moved into place once they match the checksum of
+ * their descriptor, see {@link Checksums#verify(ArtifactDescriptor, Path)}.
+ * Artifacts are looked up in the default layout of their repository, custom mapping rules are not supported.
+ */
+public class ArtifactFetcher {
+
+    private static final String PART = ".part";
+
+    private final int connections;
+    private int retries = 3;
+    private int timeout = 30000;
+
+    /**
+     * @param connections number of downloads running at the same time
+     */
+    public ArtifactFetcher(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * @param retries number of further attempts after a failed download
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * @param timeout connect and read timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Fetches artifacts which are not in the destination yet. Failures do not stop the other downloads, they are
+     * collected in the report.
+     *
+     * @param index descriptors and repositories of the artifacts
+     * @param keys the artifacts to fetch, keys not in the index are reported as failed
+     * @param destination root of the simple artifact repository
+     */
+    public FetchReport fetch(ArtifactIndex index, Collection<ArtifactKey> keys, Path destination) throws InterruptedException {
+        FetchReport report = new FetchReport();
+        long start = System.currentTimeMillis();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threads = runnable -> {
+            Thread thread = new Thread(runnable, "p2 fetcher " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(connections, threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (ArtifactKey key : keys) {
+                ArtifactDescriptor descriptor = index.get(key);
+                URI location = index.getLocation(key);
+                if (descriptor == null || location == null) {
+                    report.failed(key, "not in any artifact repository");
+                    continue;
+                }
+                futures.add(executor.submit(() -> fetch(descriptor, location, destination, report)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // fetch reports its failures itself
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report.finished(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private void fetch(ArtifactDescriptor descriptor, URI location, Path destination, FetchReport report) {
+        ArtifactKey key = descriptor.getKey();
+        Path target = destination.resolve(key.getPath());
+        Path part = target.resolveSibling(target.getFileName() + PART);
+        URI source = directory(location).resolve(key.getPath());
+
+        try {
+            if (Files.isRegularFile(target) && Checksums.verify(descriptor, target) == null) {
+                report.present();
+                return;
+            }
+            Files.createDirectories(target.getParent());
+
+            String error = null;
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                try {
+                    boolean resumed = download(source, part, report);
+                    error = Checksums.verify(descriptor, part);
+                    if (error == null) {
+                        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        report.fetched(resumed);
+                        return;
+                    }
+                    // a corrupt partial file must not be continued
+                    Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                }
+            }
+            report.failed(key, error + " (" + source + ")");
+        } catch (IOException | RuntimeException e) {
+            report.failed(key, e + " (" + source + ")");
+        }
+    }
+
+    /**
+     * Downloads a file, continuing an existing partial file if the server supports range requests.
+     *
+     * @return whether a partial download has been continued
+     */
+    private boolean download(URI source, Path part, FetchReport report) throws IOException {
+        long offset = Files.isRegularFile(part) ? Files.size(part) : 0;
+        if ("file".equals(source.getScheme())) {
+            Files.copy(new File(source).toPath(), part, StandardCopyOption.REPLACE_EXISTING);
+            report.transferred(Files.size(part));
+            return false;
+        }
+
+        URLConnection connection = source.toURL().openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+
+        boolean append = false;
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int status = http.getResponseCode();
+            if (status == 416) {
+                // the partial file is complete already, or longer than the artifact and fails the checksum
+                http.disconnect();
+                return true;
+            }
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                String range = http.getHeaderField("Content-Range");
+                if (range == null || !range.startsWith("bytes " + offset + "-")) {
+                    http.disconnect();
+                    Files.deleteIfExists(part);
+                    throw new IOException("Unexpected Content-Range " + range);
+                }
+                append = true;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("HTTP " + status);
+            }
+        }
+
+        try (InputStream in = connection.getInputStream();
+             OutputStream out = new FileOutputStream(part.toFile(), append)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                report.transferred(read);
+            }
+        }
+        return append;
+    }
+
+    private static URI directory(URI location) {
+        String uri = location.toString();
+        return uri.endsWith("/") ? location : URI.create(uri + "/");
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Artifact descriptors of one or more artifact repositories, indexed by artifact key.
+ */
+public class ArtifactIndex {
+
+    private final Map<ArtifactKey, List<ArtifactDescriptor>> descriptors = new LinkedHashMap<>();
+    private final Map<ArtifactKey, URI> locations = new LinkedHashMap<>();
+
+    /**
+     * @param location the repository holding the artifact
+     */
+    public void add(ArtifactDescriptor descriptor, URI location) {
+        descriptors.computeIfAbsent(descriptor.getKey(), key -> new ArrayList<>(1)).add(descriptor);
+        locations.putIfAbsent(descriptor.getKey(), location);
+    }
+
+    public void addAll(ArtifactIndex index) {
+        for (List<ArtifactDescriptor> list : index.descriptors.values()) {
+            for (ArtifactDescriptor descriptor : list) {
+                add(descriptor, index.locations.get(descriptor.getKey()));
+            }
+        }
+    }
+
+    public int size() {
+        return descriptors.size();
+    }
+
+    public Collection<ArtifactKey> getKeys() {
+        return Collections.unmodifiableSet(descriptors.keySet());
+    }
+
+    public boolean contains(ArtifactKey key) {
+        return descriptors.containsKey(key);
+    }
+
+    /**
+     * @return the canonical descriptor of an artifact, or any if there is none, or <code>null</code>
+     */
+    public ArtifactDescriptor get(ArtifactKey key) {
+        List<ArtifactDescriptor> list = descriptors.get(key);
+        if (list == null) {
+            return null;
+        }
+        for (ArtifactDescriptor descriptor : list) {
+            if (descriptor.isCanonical()) {
+                return descriptor;
+            }
+        }
+        return list.get(0);
+    }
+
+    public List<ArtifactDescriptor> getAll(ArtifactKey key) {
+        return descriptors.getOrDefault(key, Collections.<ArtifactDescriptor>emptyList());
+    }
+
+    /**
+     * @return the repository the artifact was found in first or <code>null</code>
+     */
+    public URI getLocation(ArtifactKey key) {
+        return locations.get(key);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * Key of an artifact: its classifier (<code>osgi.bundle</code>, <code>org.eclipse.update.feature</code>,
+ * <code>binary</code>), id and version.
+ */
+public final class ArtifactKey {
+
+    public static final String BUNDLE = "osgi.bundle";
+    public static final String FEATURE = "org.eclipse.update.feature";
+    public static final String BINARY = "binary";
+
+    private final String classifier;
+    private final String id;
+    private final Version version;
+
+    public ArtifactKey(String classifier, String id, Version version) {
+        this.classifier = classifier;
+        this.id = id;
+        this.version = version;
+    }
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return path of the artifact file in a simple artifact repository
+     */
+    public String getPath() {
+        String name = id + "_" + version;
+        if (BUNDLE.equals(classifier)) {
+            return "plugins/" + name + ".jar";
+        } else if (FEATURE.equals(classifier)) {
+            return "features/" + name + ".jar";
+        } else if (BINARY.equals(classifier)) {
+            return "binary/" + name;
+        }
+        return classifier + "/" + name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ArtifactKey)) {
+            return false;
+        }
+        ArtifactKey key = (ArtifactKey) other;
+        return classifier.equals(key.classifier) && id.equals(key.id) && version.equals(key.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return (classifier.hashCode() * 31 + id.hashCode()) * 31 + version.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return classifier + "/" + id + "/" + version;
+    }
+}
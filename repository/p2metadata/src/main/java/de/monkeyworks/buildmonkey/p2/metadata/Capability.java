@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * Capability provided by an installable unit, e.g. a bundle (<code>osgi.bundle</code>) or an exported package
+ * (<code>java.package</code>).
+ */
+public final class Capability {
+
+    private final String namespace;
+    private final String name;
+    private final Version version;
+
+    public Capability(String namespace, String name, Version version) {
+        this.namespace = namespace;
+        this.name = name;
+        this.version = version;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return namespace + "/" + name + "/" + version;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checks artifact files against the checksums of their descriptors.
+ */
+public final class Checksums {
+
+    /**
+     * direct buffer each thread reads files through. Mapped files are only unmapped by the garbage collector, which
+     * keeps them locked on Windows and uses up address space.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1024 * 1024));
+
+    private Checksums() {
+    }
+
+    /**
+     * Compares a file with the <code>download.checksum.sha-256</code> of the descriptor, else its
+     * <code>download.md5</code>, else its <code>download.size</code>.
+     *
+     * @return why the file does not match the descriptor or <code>null</code> if it does
+     */
+    public static String verify(ArtifactDescriptor descriptor, Path file) throws IOException {
+        String sha256 = descriptor.getSha256();
+        if (sha256 != null) {
+            String actual = digest("SHA-256", file);
+            return actual.equalsIgnoreCase(sha256) ? null : "SHA-256 " + actual + " instead of " + sha256;
+        }
+        String md5 = descriptor.getProperty(ArtifactDescriptor.DOWNLOAD_MD5);
+        if (md5 != null) {
+            String actual = digest("MD5", file);
+            return actual.equalsIgnoreCase(md5) ? null : "MD5 " + actual + " instead of " + md5;
+        }
+        long size = descriptor.getDownloadSize();
+        if (size >= 0 && Files.size(file) != size) {
+            return "size " + Files.size(file) + " instead of " + size;
+        }
+        return null;
+    }
+
+    /**
+     * @return the hex digest of a file
+     */
+    public static String digest(String algorithm, Path file) throws IOException {
+        return digest(file, algorithm)[0];
+    }
+
+    /**
+     * Reads a file once for several digests.
+     *
+     * @return the hex digests of a file in the order of the algorithms
+     */
+    public static String[] digest(Path file, String... algorithms) throws IOException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        try {
+            for (int i = 0; i < algorithms.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    buffer.rewind();
+                    digest.update(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        String[] hex = new String[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digests[i].digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            hex[i] = builder.toString();
+        }
+        return hex;
+    }
+}
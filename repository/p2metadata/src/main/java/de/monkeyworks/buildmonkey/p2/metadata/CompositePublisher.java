@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Publishes jars into child repositories (shards) of a composite repository.
+ *
+ * Every shard is a simple repository of its own in a folder of the composite repository. A fingerprint of the jars of
+ * each shard is kept in the state directory, shards whose jars have not changed since the last run are not written
+ * again, so they need not be uploaded again either. The composite files are only rewritten if shards are added or
+ * removed or the compression changes. Plugin and feature references of the features are resolved against the jars of all shards, so a feature
+ * may reference a bundle of another shard with the version <code>0.0.0</code> or a <code>.qualifier</code>.
+ *
+ * The shards are only stable if the versions of unchanged jars stay the same, so the jars should be built with a
+ * fixed qualifier rather than a build timestamp.
+ */
+public class CompositePublisher {
+
+    /** shard of the bundles which are not assigned to any other shard */
+    public static final String DEFAULT_SHARD = "bundles";
+
+    private static final String SHARDS_FILE = "shards.properties";
+    // format of the composite files in the shards file, shard folders never start with a dot
+    private static final String COMPOSITE_KEY = ".composite";
+
+    private final int threads;
+    private final Path stateDirectory;
+    private boolean xz;
+    private boolean xzOnly;
+    // main attributes of the bundle manifests read by shardByFeature, publish reads them again for the references
+    private final Map<Path, Attributes> manifests = new HashMap<>();
+
+    /**
+     * @param threads number of jars read at the same time
+     * @param stateDirectory keeps the fingerprints of the shards and the publish state of each shard
+     */
+    public CompositePublisher(int threads, Path stateDirectory) {
+        this.threads = threads;
+        this.stateDirectory = stateDirectory;
+    }
+
+    /**
+     * @see RepositoryWriter#setXz(boolean)
+     */
+    public void setXz(boolean xz) {
+        this.xz = xz;
+    }
+
+    /**
+     * @see RepositoryWriter#setXzOnly(boolean)
+     */
+    public void setXzOnly(boolean xzOnly) {
+        this.xzOnly = xzOnly;
+    }
+
+    /**
+     * Assigns each feature and the bundles it contains to a shard named after the feature. Features with fewer
+     * bundles are assigned first, so a feature containing the whole product does not take the bundles of the more
+     * specific ones. Bundles not contained in any feature go into {@link #DEFAULT_SHARD}.
+     *
+     * @param source folder with <code>plugins</code> and <code>features</code>
+     * @return jars by shard name
+     */
+    public Map<String, List<Path>> shardByFeature(Path source) throws IOException {
+        manifests.clear();
+        List<Publisher.Feature> features = new ArrayList<>();
+        for (Path jar : Publisher.listJars(source.resolve("features"))) {
+            features.add(Publisher.readFeature(jar));
+        }
+        features.sort(Comparator.comparingInt((Publisher.Feature feature) -> feature.plugins.size())
+                .thenComparing(feature -> feature.id));
+
+        Map<String, String> shardOfBundle = new HashMap<>();
+        Map<String, List<Path>> shards = new TreeMap<>();
+        for (Publisher.Feature feature : features) {
+            shards.computeIfAbsent(feature.id, id -> new ArrayList<>()).add(feature.file);
+            for (Publisher.Feature.Plugin plugin : feature.plugins) {
+                shardOfBundle.putIfAbsent(plugin.id, feature.id);
+            }
+        }
+        for (Path jar : Publisher.listJars(source.resolve("plugins"))) {
+            String shard = shardOfBundle.getOrDefault(symbolicName(jar), DEFAULT_SHARD);
+            shards.computeIfAbsent(shard, id -> new ArrayList<>()).add(jar);
+        }
+        return shards;
+    }
+
+    /**
+     * Publishes the shards into child repositories of <code>repository</code> and writes the composite files.
+     * Shards of an earlier run which are no longer given are deleted.
+     *
+     * @param source folder the jars are located in, jars in a <code>features</code> folder are published as features
+     * @param shards jars by shard name, the name is used as folder of the child repository
+     * @return reports of the shards which have been published again, by shard name
+     */
+    public Map<String, PublishReport> publish(Path source, Path repository, String name, Map<String, List<Path>> shards,
+                                              boolean compress) throws IOException, InterruptedException {
+        Map<String, List<Path>> children = new TreeMap<>();
+        for (Map.Entry<String, List<Path>> shard : shards.entrySet()) {
+            children.computeIfAbsent(folderName(shard.getKey()), folder -> new ArrayList<>()).addAll(shard.getValue());
+        }
+
+        Files.createDirectories(stateDirectory);
+        Path shardsFile = stateDirectory.resolve(SHARDS_FILE);
+        Properties previous = load(shardsFile);
+        Properties fingerprints = new Properties();
+
+        // features may reference bundles and features of other shards, they are resolved against all staged jars
+        MetadataIndex staged = stagedUnits(children.values());
+        manifests.clear();
+        String stagedDigest = MetadataIndex.digest(staged.getUnits());
+
+        Map<String, PublishReport> reports = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Path>> child : children.entrySet()) {
+            String folder = child.getKey();
+            Path childRepository = repository.resolve(folder);
+            List<Path> bundles = new ArrayList<>();
+            List<Path> features = new ArrayList<>();
+            for (Path jar : child.getValue()) {
+                if (isFeature(jar)) {
+                    features.add(jar);
+                } else {
+                    bundles.add(jar);
+                }
+            }
+            String format = compress + "," + xz + "," + xzOnly + (features.isEmpty() ? "" : "," + stagedDigest);
+            String fingerprint = fingerprint(source, child.getValue(), format);
+            fingerprints.setProperty(folder, fingerprint);
+            if (fingerprint.equals(previous.getProperty(folder)) && hasMetadata(childRepository, "content")) {
+                continue;
+            }
+
+            Publisher publisher = new Publisher(threads);
+            publisher.setStateFile(stateDirectory.resolve(folder + ".properties"));
+            publisher.setXz(xz);
+            publisher.setXzOnly(xzOnly);
+            publisher.setReferences(staged);
+            PublishReport report = publisher.publish(source, bundles, features, childRepository,
+                    name + " - " + folder, true, compress);
+            deleteUnpublished(childRepository, report.getUnits());
+            reports.put(folder, report);
+        }
+
+        for (String folder : previous.stringPropertyNames()) {
+            if (!folder.equals(COMPOSITE_KEY) && !children.containsKey(folder)) {
+                deleteRecursively(repository.resolve(folder));
+                Files.deleteIfExists(stateDirectory.resolve(folder + ".properties"));
+            }
+        }
+
+        fingerprints.setProperty(COMPOSITE_KEY, String.valueOf(compress));
+        if (!previous.stringPropertyNames().equals(fingerprints.stringPropertyNames())
+                || !fingerprints.getProperty(COMPOSITE_KEY).equals(previous.getProperty(COMPOSITE_KEY))
+                || !hasMetadata(repository, "compositeContent")) {
+            RepositoryWriter writer = new RepositoryWriter();
+            writer.setCompress(compress);
+            writer.writeComposite(repository, name, children.keySet());
+        }
+        save(fingerprints, shardsFile);
+        return reports;
+    }
+
+    private static String folderName(String shard) {
+        String folder = shard.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (folder.isEmpty() || folder.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid shard name '" + shard + "'");
+        }
+        return folder;
+    }
+
+    /**
+     * @return a checksum over the names and contents of the jars
+     */
+    private static String fingerprint(Path source, List<Path> jars, String format) throws IOException {
+        Map<String, String> checksums = new TreeMap<>();
+        for (Path jar : jars) {
+            checksums.put(source.relativize(jar).toString().replace('\\', '/'), Checksums.digest("SHA-256", jar));
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((format + "\n").getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+                digest.update((checksum.getKey() + "=" + checksum.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String symbolicName(Path jar) throws IOException {
+        String name = manifest(jar).getValue("Bundle-SymbolicName");
+        return name != null ? name.split(";")[0].trim() : null;
+    }
+
+    /**
+     * @return the main attributes of the manifest of a bundle jar, empty if it has none
+     */
+    private Attributes manifest(Path jar) throws IOException {
+        Attributes attributes = manifests.get(jar);
+        if (attributes == null) {
+            try (JarFile file = new JarFile(jar.toFile(), false)) {
+                Manifest manifest = file.getManifest();
+                attributes = manifest != null ? manifest.getMainAttributes() : new Attributes();
+            }
+            manifests.put(jar, attributes);
+        }
+        return attributes;
+    }
+
+    private static boolean isFeature(Path jar) {
+        Path parent = jar.getParent();
+        return parent != null && parent.getFileName().toString().equals("features");
+    }
+
+    /**
+     * @return a unit with the id and version of each staged bundle and feature, enough to resolve the references
+     * of the features
+     */
+    private MetadataIndex stagedUnits(Collection<List<Path>> jars) throws IOException {
+        MetadataIndex index = new MetadataIndex();
+        for (List<Path> list : jars) {
+            for (Path jar : list) {
+                if (isFeature(jar)) {
+                    Publisher.Feature feature = Publisher.readFeature(jar);
+                    index.add(reference(feature.id + ".feature.group", feature.version));
+                    continue;
+                }
+                String name = symbolicName(jar);
+                if (name != null) {
+                    String version = manifest(jar).getValue("Bundle-Version");
+                    index.add(reference(name, Version.parse(version != null ? version.trim() : "0.0.0")));
+                }
+            }
+        }
+        return index;
+    }
+
+    private static InstallableUnit reference(String id, Version version) {
+        return new InstallableUnit(id, version, false, null, Collections.<String, String>emptyMap(),
+                Collections.<Capability>emptyList(), Collections.<Requirement>emptyList(),
+                Collections.<ArtifactKey>emptyList(), null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Deletes the jars of earlier runs from a child repository which are no longer part of its metadata.
+     */
+    private static void deleteUnpublished(Path repository, MetadataIndex published) throws IOException {
+        Set<Path> artifacts = new HashSet<>();
+        for (InstallableUnit unit : published.getUnits()) {
+            for (ArtifactKey key : unit.getArtifacts()) {
+                artifacts.add(repository.resolve(key.getPath()));
+            }
+        }
+        for (String folder : new String[]{"plugins", "features"}) {
+            for (Path jar : Publisher.listJars(repository.resolve(folder))) {
+                if (!artifacts.contains(jar)) {
+                    Files.delete(jar);
+                }
+            }
+        }
+    }
+
+    private static boolean hasMetadata(Path repository, String name) {
+        return Files.isRegularFile(repository.resolve(name + ".jar")) || Files.isRegularFile(repository.resolve(name + ".xml"))
+                || Files.isRegularFile(repository.resolve(name + ".xml.xz"));
+    }
+
+    private static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void save(Properties properties, Path file) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), SHARDS_FILE, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(folder)) {
+            walk.forEach(paths::add);
+        }
+        paths.sort(Comparator.reverseOrder());
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
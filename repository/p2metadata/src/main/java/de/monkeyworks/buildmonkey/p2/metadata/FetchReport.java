@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of an {@link ArtifactFetcher} run.
+ */
+public class FetchReport {
+
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final AtomicInteger present = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<String, String> failures = Collections.synchronizedMap(new TreeMap<>());
+    private volatile long millis;
+
+    void fetched(boolean resumedDownload) {
+        fetched.incrementAndGet();
+        if (resumedDownload) {
+            resumed.incrementAndGet();
+        }
+    }
+
+    void present() {
+        present.incrementAndGet();
+    }
+
+    void transferred(long count) {
+        bytes.addAndGet(count);
+    }
+
+    void failed(ArtifactKey key, String message) {
+        failures.put(key.toString(), message);
+    }
+
+    void finished(long elapsed) {
+        millis = elapsed;
+    }
+
+    /**
+     * @return number of artifacts downloaded
+     */
+    public int getFetched() {
+        return fetched.get();
+    }
+
+    /**
+     * @return number of downloads continued from a partial file
+     */
+    public int getResumed() {
+        return resumed.get();
+    }
+
+    /**
+     * @return number of artifacts which were already there with the right checksum
+     */
+    public int getPresent() {
+        return present.get();
+    }
+
+    /**
+     * @return the artifacts which could not be fetched and why
+     */
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return number of bytes received
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return bytes received per second
+     */
+    public double getThroughput() {
+        return millis > 0 ? bytes.get() * 1000.0 / millis : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d artifacts fetched (%d resumed), %d present, %d failed, %.1f MB in %d ms (%.2f MB/s)",
+                getFetched(), getResumed(), getPresent(), failures.size(), bytes.get() / (1024.0 * 1024.0), millis,
+                getThroughput() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Installable unit of a p2 metadata repository, reduced to what is needed to slice, compare and publish
+ * repositories. Update descriptors, licenses and copyrights are left out.
+ */
+public final class InstallableUnit implements Comparable<InstallableUnit> {
+
+    public static final String PROPERTY_TYPE_GROUP = "org.eclipse.equinox.p2.type.group";
+    public static final String TOUCHPOINT_OSGI = "org.eclipse.equinox.p2.osgi";
+    public static final String INSTRUCTION_MANIFEST = "manifest";
+    public static final String INSTRUCTION_ZIPPED = "zipped";
+
+    private final String id;
+    private final Version version;
+    private final boolean singleton;
+    private final String filter;
+    private final Map<String, String> properties;
+    private final Capability[] provides;
+    private final Requirement[] requires;
+    private final ArtifactKey[] artifacts;
+    private final String touchpoint;
+    private final Map<String, String> instructions;
+
+    /**
+     * @param touchpoint id of the touchpoint type or <code>null</code> for units without one, like feature groups
+     * @param instructions touchpoint instructions by their key
+     */
+    public InstallableUnit(String id, Version version, boolean singleton, String filter, Map<String, String> properties,
+                           List<Capability> provides, List<Requirement> requires, List<ArtifactKey> artifacts,
+                           String touchpoint, Map<String, String> instructions) {
+        this.id = id;
+        this.version = version;
+        this.singleton = singleton;
+        this.filter = filter;
+        this.properties = properties.isEmpty() ? Collections.<String, String>emptyMap() : properties;
+        this.provides = provides.toArray(new Capability[provides.size()]);
+        this.requires = requires.toArray(new Requirement[requires.size()]);
+        this.artifacts = artifacts.toArray(new ArtifactKey[artifacts.size()]);
+        this.touchpoint = touchpoint;
+        this.instructions = instructions.isEmpty() ? Collections.<String, String>emptyMap() : instructions;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return whether only one version of the unit can be installed at a time
+     */
+    public boolean isSingleton() {
+        return singleton;
+    }
+
+    /**
+     * @return LDAP filter on the platform the unit applies to or <code>null</code> if it always applies
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    public List<Capability> getProvides() {
+        return Collections.unmodifiableList(Arrays.asList(provides));
+    }
+
+    public List<Requirement> getRequires() {
+        return Collections.unmodifiableList(Arrays.asList(requires));
+    }
+
+    public List<ArtifactKey> getArtifacts() {
+        return Collections.unmodifiableList(Arrays.asList(artifacts));
+    }
+
+    /**
+     * @return id of the touchpoint type or <code>null</code>
+     */
+    public String getTouchpoint() {
+        return touchpoint;
+    }
+
+    public Map<String, String> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return whether the artifacts of the unit are installed unpacked, like bundles with
+     * <code>Eclipse-BundleShape: dir</code>
+     */
+    public boolean isZipped() {
+        return Boolean.parseBoolean(instructions.get(INSTRUCTION_ZIPPED));
+    }
+
+    /**
+     * @return whether the unit is a feature group, which is what target definitions and the director install
+     */
+    public boolean isGroup() {
+        return Boolean.parseBoolean(properties.get(PROPERTY_TYPE_GROUP));
+    }
+
+    @Override
+    public int compareTo(InstallableUnit other) {
+        int result = id.compareTo(other.id);
+        return result != 0 ? result : version.compareTo(other.version);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof InstallableUnit && id.equals(((InstallableUnit) other).id)
+                && version.equals(((InstallableUnit) other).version);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode() * 31 + version.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return id + "/" + version;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.Map;
+
+/**
+ * Evaluates the LDAP filters of installable units and requirements, like
+ * <code>(&amp;(osgi.os=linux)(osgi.ws=gtk))</code>, against the properties of a platform.
+ *
+ * Supports <code>&amp;</code>, <code>|</code>, <code>!</code>, equality with <code>*</code> wildcards, presence and
+ * the ordering operators, which compare versions if both sides are versions and text otherwise.
+ */
+public final class LdapFilter {
+
+    private final String filter;
+    private final boolean optimistic;
+    private int position;
+
+    private LdapFilter(String filter, boolean optimistic) {
+        this.filter = filter;
+        this.optimistic = optimistic;
+    }
+
+    /**
+     * @param filter the filter or <code>null</code>, which matches everything
+     * @param properties the platform properties
+     * @throws IllegalArgumentException if the filter is invalid
+     */
+    public static boolean matches(String filter, Map<String, String> properties) {
+        return evaluate(filter, properties, false);
+    }
+
+    /**
+     * Like {@link #matches(String, Map)}, but a term on a property which is not given does not decide the result,
+     * the filter matches if it may match for some value of the missing properties.
+     *
+     * @param filter the filter or <code>null</code>, which matches everything
+     * @param properties the known platform properties
+     * @throws IllegalArgumentException if the filter is invalid
+     */
+    public static boolean mayMatch(String filter, Map<String, String> properties) {
+        return evaluate(filter, properties, true);
+    }
+
+    private static boolean evaluate(String filter, Map<String, String> properties, boolean optimistic) {
+        if (filter == null || filter.trim().isEmpty()) {
+            return true;
+        }
+        LdapFilter parser = new LdapFilter(filter.trim(), optimistic);
+        boolean result = parser.parseFilter(properties, false);
+        if (parser.position != parser.filter.length()) {
+            throw parser.error();
+        }
+        return result;
+    }
+
+    /**
+     * @param negated whether the result is negated by the enclosing filters
+     */
+    private boolean parseFilter(Map<String, String> properties, boolean negated) {
+        expect('(');
+        boolean result;
+        char operator = peek();
+        if (operator == '&' || operator == '|') {
+            position++;
+            boolean and = operator == '&';
+            result = and;
+            do {
+                boolean operand = parseFilter(properties, negated);
+                result = and ? result && operand : result || operand;
+            } while (peek() == '(');
+        } else if (operator == '!') {
+            position++;
+            result = !parseFilter(properties, !negated);
+        } else {
+            result = parseItem(properties, negated);
+        }
+        expect(')');
+        return result;
+    }
+
+    private boolean parseItem(Map<String, String> properties, boolean negated) {
+        int start = position;
+        while (position < filter.length() && "=<>~()".indexOf(filter.charAt(position)) < 0) {
+            position++;
+        }
+        String attribute = filter.substring(start, position).trim();
+
+        String operator;
+        if (filter.startsWith("=", position)) {
+            operator = "=";
+        } else if (filter.startsWith(">=", position) || filter.startsWith("<=", position) || filter.startsWith("~=", position)) {
+            operator = filter.substring(position, position + 2);
+        } else {
+            throw error();
+        }
+        position += operator.length();
+
+        StringBuilder value = new StringBuilder();
+        // wildcards are marked with \u0000 to keep them apart from escaped asterisks
+        while (position < filter.length() && filter.charAt(position) != ')') {
+            char c = filter.charAt(position++);
+            if (c == '\\' && position < filter.length()) {
+                value.append(filter.charAt(position++));
+            } else {
+                value.append(c == '*' ? '\u0000' : c);
+            }
+        }
+
+        String actual = properties.get(attribute);
+        if (actual == null) {
+            // optimistically the term has the value that lets the whole filter match
+            return optimistic && !negated;
+        }
+        String expected = value.toString();
+        if (operator.equals("=")) {
+            if (expected.equals("\u0000")) {
+                return true;
+            }
+            return wildcardMatches(expected, actual);
+        } else if (operator.equals("~=")) {
+            return actual.trim().equalsIgnoreCase(expected.replace('\u0000', '*').trim());
+        }
+
+        int comparison = compare(actual, expected.replace('\u0000', '*'));
+        return operator.equals(">=") ? comparison >= 0 : comparison <= 0;
+    }
+
+    private static boolean wildcardMatches(String pattern, String value) {
+        String[] parts = pattern.split("\u0000", -1);
+        if (parts.length == 1) {
+            return value.equals(pattern);
+        }
+        if (!value.startsWith(parts[0])) {
+            return false;
+        }
+        int index = parts[0].length();
+        for (int i = 1; i < parts.length - 1; i++) {
+            index = value.indexOf(parts[i], index);
+            if (index < 0) {
+                return false;
+            }
+            index += parts[i].length();
+        }
+        String last = parts[parts.length - 1];
+        return value.length() - last.length() >= index && value.endsWith(last);
+    }
+
+    private static int compare(String actual, String expected) {
+        if (Character.isDigit(actual.isEmpty() ? ' ' : actual.charAt(0)) && Character.isDigit(expected.isEmpty() ? ' ' : expected.charAt(0))) {
+            return Version.parse(actual).compareTo(Version.parse(expected));
+        }
+        return actual.compareTo(expected);
+    }
+
+    private char peek() {
+        while (position < filter.length() && Character.isWhitespace(filter.charAt(position))) {
+            position++;
+        }
+        return position < filter.length() ? filter.charAt(position) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error();
+        }
+        position++;
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException("Invalid filter " + filter + " at position " + position);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clause of an OSGi manifest header like <code>Import-Package</code>: one or more values followed by attributes
+ * (<code>version="1.0"</code>) and directives (<code>resolution:=optional</code>).
+ */
+final class ManifestHeader {
+
+    private final List<String> values = new ArrayList<>();
+    private final Map<String, String> attributes = new HashMap<>();
+    private final Map<String, String> directives = new HashMap<>();
+
+    private ManifestHeader() {
+    }
+
+    /**
+     * @return the clauses of a header, none if the header is <code>null</code>
+     */
+    static List<ManifestHeader> parse(String header) {
+        if (header == null || header.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ManifestHeader> clauses = new ArrayList<>();
+        for (String text : split(header, ',')) {
+            ManifestHeader clause = new ManifestHeader();
+            for (String part : split(text, ';')) {
+                int directive = indexOutsideQuotes(part, ":=");
+                int attribute = indexOutsideQuotes(part, "=");
+                if (directive > 0 && directive < attribute) {
+                    clause.directives.put(part.substring(0, directive).trim(), unquote(part.substring(directive + 2)));
+                } else if (attribute > 0) {
+                    clause.attributes.put(part.substring(0, attribute).trim(), unquote(part.substring(attribute + 1)));
+                } else if (!part.trim().isEmpty()) {
+                    clause.values.add(part.trim());
+                }
+            }
+            if (!clause.values.isEmpty()) {
+                clauses.add(clause);
+            }
+        }
+        return clauses;
+    }
+
+    List<String> getValues() {
+        return values;
+    }
+
+    String getValue() {
+        return values.get(0);
+    }
+
+    String getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    String getDirective(String name) {
+        return directives.get(name);
+    }
+
+    private static List<String> split(String text, char separator) {
+        List<String> parts = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == separator && !quoted) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private static int indexOutsideQuotes(String text, String token) {
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                quoted = !quoted;
+            } else if (!quoted && text.startsWith(token, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(String value) {
+        String trimmed = value.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+}
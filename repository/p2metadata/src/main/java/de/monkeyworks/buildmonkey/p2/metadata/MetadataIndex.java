@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Installable units of one or more metadata repositories, indexed by id and by provided capability.
+ */
+public class MetadataIndex {
+
+    private final Map<String, List<InstallableUnit>> unitsById = new HashMap<>();
+    private final Map<String, List<InstallableUnit>> providers = new HashMap<>();
+    private int size;
+
+    /**
+     * Adds a unit, unless the index holds a unit with the same id and version already.
+     */
+    public void add(InstallableUnit unit) {
+        List<InstallableUnit> units = unitsById.computeIfAbsent(unit.getId(), id -> new ArrayList<>(1));
+        if (units.contains(unit)) {
+            return;
+        }
+        units.add(unit);
+        size++;
+
+        for (Capability capability : unit.getProvides()) {
+            List<InstallableUnit> list = providers.computeIfAbsent(key(capability.getNamespace(), capability.getName()), k -> new ArrayList<>(1));
+            if (list.isEmpty() || list.get(list.size() - 1) != unit) {
+                list.add(unit);
+            }
+        }
+    }
+
+    public void addAll(MetadataIndex index) {
+        for (List<InstallableUnit> units : index.unitsById.values()) {
+            for (InstallableUnit unit : units) {
+                add(unit);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all units sorted by id and version
+     */
+    public Collection<InstallableUnit> getUnits() {
+        TreeSet<InstallableUnit> units = new TreeSet<>();
+        for (List<InstallableUnit> list : unitsById.values()) {
+            units.addAll(list);
+        }
+        return units;
+    }
+
+    /**
+     * @return the units with the given id in a version range
+     */
+    public List<InstallableUnit> getUnits(String id, VersionRange range) {
+        List<InstallableUnit> result = new ArrayList<>();
+        for (InstallableUnit unit : unitsById.getOrDefault(id, Collections.<InstallableUnit>emptyList())) {
+            if (range.includes(unit.getVersion())) {
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the unit with the given id and version or <code>null</code>
+     */
+    public InstallableUnit getUnit(String id, Version version) {
+        for (InstallableUnit unit : unitsById.getOrDefault(id, Collections.<InstallableUnit>emptyList())) {
+            if (unit.getVersion().equals(version)) {
+                return unit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the highest version of a unit or <code>null</code> if the index does not hold it
+     */
+    public InstallableUnit getLatest(String id) {
+        InstallableUnit latest = null;
+        for (InstallableUnit unit : unitsById.getOrDefault(id, Collections.<InstallableUnit>emptyList())) {
+            if (latest == null || unit.getVersion().compareTo(latest.getVersion()) > 0) {
+                latest = unit;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Finds a unit the way target definitions name them: version <code>0.0.0</code> or none stands for the latest.
+     *
+     * @return the unit or <code>null</code> if the index does not hold it
+     */
+    public InstallableUnit find(String id, String version) {
+        Version parsed = Version.parse(version);
+        return parsed.equals(Version.EMPTY) ? getLatest(id) : getUnit(id, parsed);
+    }
+
+    /**
+     * @return the units satisfying a requirement
+     */
+    public List<InstallableUnit> getProviders(Requirement requirement) {
+        List<InstallableUnit> result = new ArrayList<>();
+        for (InstallableUnit unit : providers.getOrDefault(key(requirement.getNamespace(), requirement.getName()), Collections.<InstallableUnit>emptyList())) {
+            for (Capability capability : unit.getProvides()) {
+                if (requirement.isSatisfiedBy(capability)) {
+                    result.add(unit);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return hex SHA-256 over the ids and versions of the given units, independent of their order
+     */
+    public static String digest(Collection<InstallableUnit> units) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (InstallableUnit unit : new TreeSet<>(units)) {
+                digest.update((unit + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String namespace, String name) {
+        return namespace + '\u0000' + name;
+    }
+}
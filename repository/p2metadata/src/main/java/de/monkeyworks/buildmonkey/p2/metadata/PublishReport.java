@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * Outcome of a {@link Publisher} run.
+ */
+public class PublishReport {
+
+    private final MetadataIndex units;
+    private final int read;
+    private final int unchanged;
+    private final long millis;
+
+    PublishReport(MetadataIndex units, int read, int unchanged, long millis) {
+        this.units = units;
+        this.read = read;
+        this.unchanged = unchanged;
+        this.millis = millis;
+    }
+
+    /**
+     * @return the published units
+     */
+    public MetadataIndex getUnits() {
+        return units;
+    }
+
+    /**
+     * @return number of jars whose manifest or feature.xml has been read
+     */
+    public int getRead() {
+        return read;
+    }
+
+    /**
+     * @return number of bundles whose units have been taken over from the previous publish
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d installable units, %d jars read, %d bundles unchanged, in %d ms",
+                units.size(), read, unchanged, millis);
+    }
+}
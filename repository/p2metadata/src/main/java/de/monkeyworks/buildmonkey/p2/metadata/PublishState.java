@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Size, modification time, SHA-256 and artifact key of the jars of a previous {@link Publisher} run, by their path
+ * relative to the source folder.
+ */
+final class PublishState {
+
+    private static final String UNPACKED = "#unpacked";
+
+    private final Properties entries = new Properties();
+
+    static PublishState load(Path file) throws IOException {
+        PublishState state = new PublishState();
+        try (InputStream in = Files.newInputStream(file)) {
+            state.entries.load(in);
+        } catch (NoSuchFileException e) {
+            // first incremental run
+        }
+        return state;
+    }
+
+    void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                entries.store(out, "published jars: size,modified,sha-256,artifact key");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the bundles the features want unpacked, the units of all bundles depend on it
+     */
+    String getUnpacked() {
+        return entries.getProperty(UNPACKED);
+    }
+
+    void setUnpacked(String unpacked) {
+        entries.setProperty(UNPACKED, unpacked);
+    }
+
+    /**
+     * @return the artifact key the jar had when it was published last time, or <code>null</code> if it has been
+     * added or changed since. Jars with a new modification time are compared by their checksum.
+     */
+    ArtifactKey findUnchanged(String path, Path jar) throws IOException {
+        String entry = entries.getProperty(path);
+        if (entry == null) {
+            return null;
+        }
+        String[] fields = entry.split(",", 4);
+        String[] key = fields.length == 4 ? fields[3].split("/", 3) : new String[0];
+        if (key.length != 3 || Files.size(jar) != Long.parseLong(fields[0])) {
+            return null;
+        }
+        if (Files.getLastModifiedTime(jar).toMillis() != Long.parseLong(fields[1])
+                && !Checksums.digest("SHA-256", jar).equalsIgnoreCase(fields[2])) {
+            return null;
+        }
+        return new ArtifactKey(key[0], key[1], Version.parse(key[2]));
+    }
+
+    void put(String path, Path jar, ArtifactDescriptor descriptor) throws IOException {
+        entries.setProperty(path, Files.size(jar) + "," + Files.getLastModifiedTime(jar).toMillis() + ","
+                + descriptor.getSha256() + "," + descriptor.getKey());
+    }
+}
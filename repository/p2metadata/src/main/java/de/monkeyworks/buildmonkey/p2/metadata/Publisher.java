@@ -0,0 +1,694 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Publishes the bundle and feature jars of a folder into a simple p2 repository, like the
+ * <code>FeaturesAndBundlesPublisher</code> application of p2 does, but without Eclipse.
+ *
+ * Bundles get their capabilities and requirements from the manifest (exported and imported packages, required
+ * bundles, fragment hosts), features a <code>.feature.jar</code> and a <code>.feature.group</code> unit from their
+ * <code>feature.xml</code>. Plugin and feature references with the version <code>0.0.0</code> or a
+ * <code>.qualifier</code> suffix are resolved against the published jars. Bundle folders, licenses, update sites
+ * and <code>Require-Capability</code> headers are not supported.
+ *
+ * With a state file the publisher works incrementally: bundles which have not changed since the last run keep
+ * their units from the existing metadata of the repository and only added or changed jars are read.
+ */
+public class Publisher {
+
+    public static final String PROPERTY_NAME = "org.eclipse.equinox.p2.name";
+    public static final String PROPERTY_PROVIDER = "org.eclipse.equinox.p2.provider";
+    public static final String PROPERTY_DESCRIPTION = "org.eclipse.equinox.p2.description";
+
+    static final String NAMESPACE_IU = "org.eclipse.equinox.p2.iu";
+    static final String NAMESPACE_BUNDLE = "osgi.bundle";
+    static final String NAMESPACE_FRAGMENT = "osgi.fragment";
+    static final String NAMESPACE_PACKAGE = "java.package";
+    static final String NAMESPACE_FEATURE = "org.eclipse.update.feature";
+    static final String NAMESPACE_TYPE = "org.eclipse.equinox.p2.eclipse.type";
+    static final String FEATURE_JAR_FILTER = "(org.eclipse.update.install.features=true)";
+
+    private static final Version TYPE_VERSION = Version.parse("1.0.0");
+
+    private final int threads;
+    private Path stateFile;
+    private boolean xz;
+    private boolean xzOnly;
+    private MetadataIndex references;
+
+    /**
+     * @param threads number of jars read at the same time
+     */
+    public Publisher(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param stateFile keeps size, modification time and checksum of the published jars between runs, or
+     *                  <code>null</code> to read all jars every time
+     */
+    public void setStateFile(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @see RepositoryWriter#setXz(boolean)
+     */
+    public void setXz(boolean xz) {
+        this.xz = xz;
+    }
+
+    /**
+     * @see RepositoryWriter#setXzOnly(boolean)
+     */
+    public void setXzOnly(boolean xzOnly) {
+        this.xzOnly = xzOnly;
+    }
+
+    /**
+     * @param references units the plugin and feature references of the features are resolved against in addition to
+     *                   the published ones, e.g. the bundles published into the other children of a composite repository
+     */
+    public void setReferences(MetadataIndex references) {
+        this.references = references;
+    }
+
+    /**
+     * Replaces the metadata of a repository with the units of the jars in <code>plugins</code> and
+     * <code>features</code> of a folder.
+     *
+     * @param source folder with the jars, may be the repository itself
+     * @param publishArtifacts whether the jars are copied into the repository
+     */
+    public PublishReport publish(Path source, Path repository, String name, boolean publishArtifacts, boolean compress)
+            throws IOException, InterruptedException {
+        return publish(source, listJars(source.resolve("plugins")), listJars(source.resolve("features")), repository,
+                name, publishArtifacts, compress);
+    }
+
+    /**
+     * Replaces the metadata of a repository with the units of the given bundle and feature jars.
+     *
+     * @param source folder the jars are kept in the state file relative to
+     */
+    public PublishReport publish(Path source, List<Path> bundleJars, List<Path> featureJars, Path repository, String name,
+                                 boolean publishArtifacts, boolean compress) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+
+        // the features are read first, they tell which bundles are installed unpacked
+        List<Feature> features = new ArrayList<>();
+        Set<String> unpacked = new HashSet<>();
+        for (Path jar : featureJars) {
+            Feature feature = readFeature(jar);
+            features.add(feature);
+            for (Feature.Plugin plugin : feature.plugins) {
+                if (plugin.unpack) {
+                    unpacked.add(plugin.id);
+                }
+            }
+        }
+
+        PublishState state = stateFile != null ? PublishState.load(stateFile) : null;
+        List<Bundle> bundles = new ArrayList<>();
+        List<Path> changed = new ArrayList<>(bundleJars);
+        String unpackedIds = String.join(",", new TreeSet<>(unpacked));
+        if (state != null && unpackedIds.equals(state.getUnpacked())) {
+            changed = findUnchanged(state, source, repository, bundleJars, bundles);
+        }
+        Set<ArtifactKey> unchanged = new HashSet<>();
+        for (Bundle bundle : bundles) {
+            unchanged.add(bundle.descriptor.getKey());
+        }
+        bundles.addAll(readBundles(changed, unpacked));
+
+        Map<ArtifactKey, Path> files = new HashMap<>();
+        List<ArtifactDescriptor> descriptors = new ArrayList<>();
+        MetadataIndex units = new MetadataIndex();
+        for (Bundle bundle : bundles) {
+            units.add(bundle.unit);
+            descriptors.add(bundle.descriptor);
+            files.put(bundle.descriptor.getKey(), bundle.file);
+        }
+        MetadataIndex scope = units;
+        if (references != null) {
+            scope = new MetadataIndex();
+            scope.addAll(references);
+            scope.addAll(units);
+        }
+        for (Feature feature : features) {
+            ArtifactKey key = new ArtifactKey(ArtifactKey.FEATURE, feature.id, feature.version);
+            InstallableUnit featureJar = createFeatureJarUnit(feature, key);
+            InstallableUnit group = createGroupUnit(feature, scope);
+            units.add(featureJar);
+            units.add(group);
+            if (scope != units) {
+                scope.add(featureJar);
+                scope.add(group);
+            }
+            descriptors.add(describe(key, feature.file));
+            files.put(key, feature.file);
+        }
+
+        RepositoryWriter writer = new RepositoryWriter();
+        writer.setCompress(compress);
+        writer.setXz(xz);
+        writer.setXzOnly(xzOnly);
+        // the metadata does not depend on the copies, it is compressed while the artifacts are copied
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "p2 publisher metadata");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<Void> metadata = executor.submit(() -> {
+                writer.writeMetadata(repository, name, units.getUnits());
+                writer.writeArtifacts(repository, name, descriptors);
+                return null;
+            });
+            if (publishArtifacts) {
+                for (Map.Entry<ArtifactKey, Path> file : files.entrySet()) {
+                    Path target = repository.resolve(file.getKey().getPath());
+                    if (!Files.exists(target) || !unchanged.contains(file.getKey()) && !Files.isSameFile(file.getValue(), target)) {
+                        Files.createDirectories(target.getParent());
+                        Files.copy(file.getValue(), target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            try {
+                metadata.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (state != null) {
+            PublishState published = new PublishState();
+            published.setUnpacked(unpackedIds);
+            for (Bundle bundle : bundles) {
+                published.put(relativePath(source, bundle.file), bundle.file, bundle.descriptor);
+            }
+            published.save(stateFile);
+        }
+        return new PublishReport(units, changed.size() + featureJars.size(), unchanged.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Takes the units and artifacts of unchanged bundles from the existing repository.
+     *
+     * @param unchanged receives the bundles which have not changed
+     * @return the jars which have to be read
+     */
+    private static List<Path> findUnchanged(PublishState state, Path source, Path repository, List<Path> jars,
+                                            List<Bundle> unchanged) throws IOException {
+        MetadataIndex existing;
+        ArtifactIndex existingArtifacts;
+        try {
+            existing = RepositoryReader.readMetadata(repository.toUri());
+            existingArtifacts = RepositoryReader.readArtifacts(repository.toUri());
+        } catch (FileNotFoundException e) {
+            // the repository has been deleted since the last run
+            return jars;
+        }
+        Map<ArtifactKey, InstallableUnit> unitsByArtifact = new HashMap<>();
+        for (InstallableUnit unit : existing.getUnits()) {
+            for (ArtifactKey key : unit.getArtifacts()) {
+                unitsByArtifact.put(key, unit);
+            }
+        }
+
+        List<Path> changed = new ArrayList<>();
+        for (Path jar : jars) {
+            ArtifactKey key = state.findUnchanged(relativePath(source, jar), jar);
+            InstallableUnit unit = key != null ? unitsByArtifact.get(key) : null;
+            ArtifactDescriptor descriptor = key != null ? existingArtifacts.get(key) : null;
+            if (unit != null && descriptor != null) {
+                unchanged.add(new Bundle(unit, descriptor, jar));
+            } else {
+                changed.add(jar);
+            }
+        }
+        return changed;
+    }
+
+    private static String relativePath(Path source, Path file) {
+        return source.relativize(file).toString().replace('\\', '/');
+    }
+
+    private List<Bundle> readBundles(List<Path> jars, Set<String> unpacked) throws IOException, InterruptedException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "p2 publisher " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads, factory);
+        try {
+            List<Future<Bundle>> futures = new ArrayList<>();
+            for (Path jar : jars) {
+                futures.add(executor.submit(() -> readBundle(jar, unpacked)));
+            }
+            List<Bundle> bundles = new ArrayList<>();
+            for (Future<Bundle> future : futures) {
+                try {
+                    Bundle bundle = future.get();
+                    if (bundle != null) {
+                        bundles.add(bundle);
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+            return bundles;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the unit and artifact of a bundle or <code>null</code> if the jar is no bundle
+     */
+    private static Bundle readBundle(Path jar, Set<String> unpacked) throws IOException {
+        Attributes manifest;
+        Properties localization;
+        try (JarFile file = new JarFile(jar.toFile())) {
+            Manifest jarManifest = file.getManifest();
+            if (jarManifest == null || jarManifest.getMainAttributes().getValue("Bundle-SymbolicName") == null) {
+                return null;
+            }
+            manifest = jarManifest.getMainAttributes();
+            String base = manifest.getValue("Bundle-Localization");
+            localization = readProperties(file, (base != null ? base : "OSGI-INF/l10n/bundle") + ".properties");
+        }
+
+        ManifestHeader symbolicName = ManifestHeader.parse(manifest.getValue("Bundle-SymbolicName")).get(0);
+        String id = symbolicName.getValue();
+        String versionText = manifest.getValue("Bundle-Version");
+        Version version = Version.parse(versionText != null ? versionText.trim() : "0.0.0");
+        boolean source = manifest.getValue("Eclipse-SourceBundle") != null;
+
+        Map<String, String> properties = new HashMap<>();
+        putLocalized(properties, PROPERTY_NAME, manifest.getValue("Bundle-Name"), localization);
+        putLocalized(properties, PROPERTY_PROVIDER, manifest.getValue("Bundle-Vendor"), localization);
+
+        List<Capability> provides = new ArrayList<>();
+        provides.add(new Capability(NAMESPACE_IU, id, version));
+        provides.add(new Capability(NAMESPACE_BUNDLE, id, version));
+        for (ManifestHeader export : ManifestHeader.parse(manifest.getValue("Export-Package"))) {
+            String exportVersion = export.getAttribute("version");
+            if (exportVersion == null) {
+                exportVersion = export.getAttribute("specification-version");
+            }
+            for (String packageName : export.getValues()) {
+                provides.add(new Capability(NAMESPACE_PACKAGE, packageName,
+                        exportVersion != null ? Version.parse(exportVersion) : Version.EMPTY));
+            }
+        }
+        provides.add(new Capability(NAMESPACE_TYPE, source ? "source" : "bundle", TYPE_VERSION));
+
+        List<Requirement> requires = new ArrayList<>();
+        for (ManifestHeader required : ManifestHeader.parse(manifest.getValue("Require-Bundle"))) {
+            requires.add(requirement(NAMESPACE_BUNDLE, required.getValue(), required.getAttribute("bundle-version"), required));
+        }
+        for (ManifestHeader imported : ManifestHeader.parse(manifest.getValue("Import-Package"))) {
+            String range = imported.getAttribute("version");
+            if (range == null) {
+                range = imported.getAttribute("specification-version");
+            }
+            for (String packageName : imported.getValues()) {
+                requires.add(requirement(NAMESPACE_PACKAGE, packageName, range, imported));
+            }
+        }
+        List<ManifestHeader> host = ManifestHeader.parse(manifest.getValue("Fragment-Host"));
+        if (!host.isEmpty()) {
+            String hostId = host.get(0).getValue();
+            String hostRange = host.get(0).getAttribute("bundle-version");
+            provides.add(new Capability(NAMESPACE_FRAGMENT, hostId, version));
+            requires.add(new Requirement(NAMESPACE_BUNDLE, hostId,
+                    hostRange != null ? VersionRange.parse(hostRange) : VersionRange.ALL, null, false, true));
+        }
+
+        StringBuilder touchpointManifest = new StringBuilder()
+                .append("Bundle-SymbolicName: ").append(manifest.getValue("Bundle-SymbolicName").trim()).append('\n')
+                .append("Bundle-Version: ").append(version).append('\n');
+        if (manifest.getValue("Fragment-Host") != null) {
+            touchpointManifest.append("Fragment-Host: ").append(manifest.getValue("Fragment-Host").trim()).append('\n');
+        }
+        Map<String, String> instructions = new HashMap<>();
+        instructions.put(InstallableUnit.INSTRUCTION_MANIFEST, touchpointManifest.toString());
+        String shape = manifest.getValue("Eclipse-BundleShape");
+        if (shape != null ? shape.trim().equals("dir") : unpacked.contains(id)) {
+            instructions.put(InstallableUnit.INSTRUCTION_ZIPPED, "true");
+        }
+
+        ArtifactKey key = new ArtifactKey(ArtifactKey.BUNDLE, id, version);
+        InstallableUnit unit = new InstallableUnit(id, version, "true".equals(symbolicName.getDirective("singleton")),
+                manifest.getValue("Eclipse-PlatformFilter"), properties, provides, requires,
+                Collections.singletonList(key), InstallableUnit.TOUCHPOINT_OSGI, instructions);
+        return new Bundle(unit, describe(key, jar), jar);
+    }
+
+    private static Requirement requirement(String namespace, String name, String range, ManifestHeader clause) {
+        boolean optional = "optional".equals(clause.getDirective("resolution"));
+        return new Requirement(namespace, name, range != null ? VersionRange.parse(range) : VersionRange.ALL, null,
+                optional, !optional);
+    }
+
+    private static InstallableUnit createFeatureJarUnit(Feature feature, ArtifactKey key) {
+        String id = feature.id + ".feature.jar";
+        List<Capability> provides = new ArrayList<>();
+        provides.add(new Capability(NAMESPACE_IU, id, feature.version));
+        provides.add(new Capability(NAMESPACE_TYPE, "feature", TYPE_VERSION));
+        provides.add(new Capability(NAMESPACE_FEATURE, feature.id, feature.version));
+        return new InstallableUnit(id, feature.version, false, FEATURE_JAR_FILTER, feature.properties(false), provides,
+                Collections.<Requirement>emptyList(), Collections.singletonList(key), InstallableUnit.TOUCHPOINT_OSGI,
+                Collections.singletonMap(InstallableUnit.INSTRUCTION_ZIPPED, "true"));
+    }
+
+    private static InstallableUnit createGroupUnit(Feature feature, MetadataIndex published) {
+        String id = feature.id + ".feature.group";
+        List<Requirement> requires = new ArrayList<>();
+        for (Feature.Plugin plugin : feature.plugins) {
+            requires.add(new Requirement(NAMESPACE_IU, plugin.id, resolve(plugin.id, plugin.version, published),
+                    plugin.filter, false, true));
+        }
+        for (Feature.Plugin include : feature.includes) {
+            String includeId = include.id + ".feature.group";
+            requires.add(new Requirement(NAMESPACE_IU, includeId, resolve(includeId, include.version, published),
+                    include.filter, include.optional, true));
+        }
+        requires.addAll(feature.imports);
+        requires.add(new Requirement(NAMESPACE_IU, feature.id + ".feature.jar", VersionRange.exactly(feature.version),
+                FEATURE_JAR_FILTER, false, true));
+
+        return new InstallableUnit(id, feature.version, false, feature.filter, feature.properties(true),
+                Collections.singletonList(new Capability(NAMESPACE_IU, id, feature.version)), requires,
+                Collections.<ArtifactKey>emptyList(), null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @return the exact range of a referenced version, resolved against the published units if it is
+     * <code>0.0.0</code> or ends with <code>.qualifier</code>
+     */
+    private static VersionRange resolve(String id, String versionText, MetadataIndex published) {
+        if (versionText == null || versionText.equals("0.0.0")) {
+            InstallableUnit latest = published.getLatest(id);
+            return latest != null ? VersionRange.exactly(latest.getVersion()) : VersionRange.ALL;
+        }
+        if (versionText.endsWith(".qualifier")) {
+            Version base = Version.parse(versionText.substring(0, versionText.length() - ".qualifier".length()));
+            InstallableUnit match = null;
+            for (InstallableUnit unit : published.getUnits(id, VersionRange.ALL)) {
+                Version version = unit.getVersion();
+                if (version.getMajor() == base.getMajor() && version.getMinor() == base.getMinor()
+                        && version.getMicro() == base.getMicro()
+                        && (match == null || version.compareTo(match.getVersion()) > 0)) {
+                    match = unit;
+                }
+            }
+            return match != null ? VersionRange.exactly(match.getVersion()) : VersionRange.parse(base.toString());
+        }
+        return VersionRange.exactly(Version.parse(versionText));
+    }
+
+    private static ArtifactDescriptor describe(ArtifactKey key, Path file) throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        String size = Long.toString(Files.size(file));
+        properties.put(ArtifactDescriptor.ARTIFACT_SIZE, size);
+        properties.put(ArtifactDescriptor.DOWNLOAD_SIZE, size);
+        String[] checksums = Checksums.digest(file, "MD5", "SHA-256");
+        properties.put(ArtifactDescriptor.DOWNLOAD_MD5, checksums[0]);
+        properties.put(ArtifactDescriptor.DOWNLOAD_SHA256, checksums[1]);
+        return new ArtifactDescriptor(key, properties);
+    }
+
+    static Feature readFeature(Path jar) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            ZipEntry entry = file.getEntry("feature.xml");
+            if (entry == null) {
+                throw new IOException("No feature.xml in " + jar);
+            }
+            Properties localization = readProperties(file, "feature.properties");
+            try (InputStream in = file.getInputStream(entry)) {
+                return Feature.read(in, jar, localization);
+            } catch (XMLStreamException | IllegalArgumentException e) {
+                throw new IOException("Invalid feature.xml in " + jar + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Properties readProperties(JarFile file, String name) throws IOException {
+        Properties properties = new Properties();
+        ZipEntry entry = file.getEntry(name);
+        if (entry != null) {
+            try (InputStream in = file.getInputStream(entry)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void putLocalized(Map<String, String> properties, String name, String value, Properties localization) {
+        String localized = localize(value, localization);
+        if (localized != null) {
+            properties.put(name, localized);
+        }
+    }
+
+    private static String localize(String value, Properties localization) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.startsWith("%") ? localization.getProperty(trimmed.substring(1), trimmed) : trimmed;
+    }
+
+    static List<Path> listJars(Path folder) throws IOException {
+        List<Path> jars = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return jars;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.jar")) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    jars.add(file);
+                }
+            }
+        }
+        Collections.sort(jars);
+        return jars;
+    }
+
+    /**
+     * @return LDAP filter for the os, ws and arch attributes of a feature or feature entry, or <code>null</code>
+     */
+    static String platformFilter(String os, String ws, String arch) {
+        List<String> terms = new ArrayList<>();
+        addFilterTerm(terms, "osgi.os", os);
+        addFilterTerm(terms, "osgi.ws", ws);
+        addFilterTerm(terms, "osgi.arch", arch);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return terms.size() == 1 ? terms.get(0) : "(&" + String.join("", terms) + ")";
+    }
+
+    private static void addFilterTerm(List<String> terms, String key, String values) {
+        if (values == null || values.trim().isEmpty()) {
+            return;
+        }
+        List<String> alternatives = new ArrayList<>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) {
+                alternatives.add("(" + key + "=" + value.trim() + ")");
+            }
+        }
+        terms.add(alternatives.size() == 1 ? alternatives.get(0) : "(|" + String.join("", alternatives) + ")");
+    }
+
+    private static final class Bundle {
+        final InstallableUnit unit;
+        final ArtifactDescriptor descriptor;
+        final Path file;
+
+        Bundle(InstallableUnit unit, ArtifactDescriptor descriptor, Path file) {
+            this.unit = unit;
+            this.descriptor = descriptor;
+            this.file = file;
+        }
+    }
+
+    /**
+     * What the publisher needs from a <code>feature.xml</code>.
+     */
+    static final class Feature {
+        String id;
+        Version version;
+        String label;
+        String provider;
+        String description;
+        String filter;
+        Path file;
+        final List<Plugin> plugins = new ArrayList<>();
+        final List<Plugin> includes = new ArrayList<>();
+        final List<Requirement> imports = new ArrayList<>();
+
+        static final class Plugin {
+            String id;
+            String version;
+            String filter;
+            boolean unpack;
+            boolean optional;
+        }
+
+        static Feature read(InputStream in, Path file, Properties localization) throws XMLStreamException {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+            Feature feature = new Feature();
+            feature.file = file;
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "feature":
+                            feature.id = reader.getAttributeValue(null, "id");
+                            feature.version = Version.parse(reader.getAttributeValue(null, "version"));
+                            feature.label = localize(reader.getAttributeValue(null, "label"), localization);
+                            feature.provider = localize(reader.getAttributeValue(null, "provider-name"), localization);
+                            feature.filter = filter(reader);
+                            break;
+                        case "description":
+                            feature.description = localize(reader.getElementText(), localization);
+                            break;
+                        case "plugin":
+                            Plugin plugin = plugin(reader);
+                            plugin.unpack = Boolean.parseBoolean(reader.getAttributeValue(null, "unpack"));
+                            feature.plugins.add(plugin);
+                            break;
+                        case "includes":
+                            Plugin include = plugin(reader);
+                            include.optional = Boolean.parseBoolean(reader.getAttributeValue(null, "optional"));
+                            feature.includes.add(include);
+                            break;
+                        case "import":
+                            feature.imports.add(importRequirement(reader));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (feature.id == null || feature.version == null) {
+                throw new XMLStreamException("feature id or version missing");
+            }
+            return feature;
+        }
+
+        Map<String, String> properties(boolean group) {
+            Map<String, String> properties = new HashMap<>();
+            if (label != null) {
+                properties.put(PROPERTY_NAME, label);
+            }
+            if (provider != null) {
+                properties.put(PROPERTY_PROVIDER, provider);
+            }
+            if (description != null && !description.trim().isEmpty()) {
+                properties.put(PROPERTY_DESCRIPTION, description.trim());
+            }
+            if (group) {
+                properties.put(InstallableUnit.PROPERTY_TYPE_GROUP, "true");
+            }
+            return properties;
+        }
+
+        private static Plugin plugin(XMLStreamReader reader) {
+            Plugin plugin = new Plugin();
+            plugin.id = reader.getAttributeValue(null, "id");
+            plugin.version = reader.getAttributeValue(null, "version");
+            plugin.filter = filter(reader);
+            return plugin;
+        }
+
+        private static String filter(XMLStreamReader reader) {
+            return platformFilter(reader.getAttributeValue(null, "os"), reader.getAttributeValue(null, "ws"),
+                    reader.getAttributeValue(null, "arch"));
+        }
+
+        /**
+         * @return the requirement of an <code>&lt;import plugin="..."/&gt;</code> or
+         * <code>&lt;import feature="..."/&gt;</code> with the range of its match rule
+         */
+        private static Requirement importRequirement(XMLStreamReader reader) {
+            String plugin = reader.getAttributeValue(null, "plugin");
+            String name = plugin != null ? plugin : reader.getAttributeValue(null, "feature") + ".feature.group";
+            String versionText = reader.getAttributeValue(null, "version");
+            Version version = versionText != null ? Version.parse(versionText) : Version.EMPTY;
+            String match = reader.getAttributeValue(null, "match");
+
+            VersionRange range;
+            if (version.equals(Version.EMPTY) || "greaterOrEqual".equals(match)) {
+                range = VersionRange.parse(version.toString());
+            } else if ("perfect".equals(match)) {
+                range = VersionRange.exactly(version);
+            } else if ("equivalent".equals(match)) {
+                range = new VersionRange(version, true, Version.parse(version.getMajor() + "." + (version.getMinor() + 1) + ".0"), false);
+            } else {
+                range = new VersionRange(version, true, Version.parse((version.getMajor() + 1) + ".0.0"), false);
+            }
+            return new Requirement(NAMESPACE_IU, name, range, null, false, true);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import org.tukaani.xz.XZInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads p2 metadata and artifact repositories without Eclipse.
+ *
+ * The index files are found like p2 finds them: in the order given by <code>p2.index</code>, or xz, jar and xml
+ * files of simple repositories before composite repositories. Composite repositories are followed into their
+ * children. The XML is streamed with StAX, repeated names and versions are shared between the units.
+ */
+public class RepositoryReader {
+
+    private static final List<String> DEFAULT_METADATA_ORDER = Arrays.asList("content.xml.xz", "content.xml", "compositeContent.xml");
+    private static final List<String> DEFAULT_ARTIFACT_ORDER = Arrays.asList("artifacts.xml.xz", "artifacts.xml", "compositeArtifacts.xml");
+    private static final int MAX_DEPTH = 5;
+    private static final int TIMEOUT = 30000;
+
+    private final XMLInputFactory factory;
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Version> versions = new HashMap<>();
+    private final Map<String, VersionRange> ranges = new HashMap<>();
+
+    public RepositoryReader() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * @param location URI of a simple or composite metadata repository
+     * @return the installable units of the repository and its children
+     * @throws IOException if there is no metadata repository at the location
+     */
+    public static MetadataIndex readMetadata(URI location) throws IOException {
+        MetadataIndex index = new MetadataIndex();
+        new RepositoryReader().readMetadata(location, index, 0, new HashSet<>());
+        return index;
+    }
+
+    /**
+     * @param location URI of a simple or composite artifact repository
+     * @return the artifact descriptors of the repository and its children
+     * @throws IOException if there is no artifact repository at the location
+     */
+    public static ArtifactIndex readArtifacts(URI location) throws IOException {
+        ArtifactIndex index = new ArtifactIndex();
+        new RepositoryReader().readArtifacts(location, index, 0, new HashSet<>());
+        return index;
+    }
+
+    private void readMetadata(URI location, MetadataIndex index, int depth, Set<URI> visited) throws IOException {
+        URI base = directory(location);
+        if (depth > MAX_DEPTH || !visited.add(base)) {
+            return;
+        }
+
+        for (String name : factoryOrder(base, "metadata.repository.factory.order", DEFAULT_METADATA_ORDER)) {
+            try (InputStream in = openIndexFile(base, name)) {
+                if (in == null) {
+                    continue;
+                }
+                if (name.startsWith("composite")) {
+                    for (URI child : readChildren(in, base)) {
+                        readMetadata(child, index, depth + 1, visited);
+                    }
+                } else {
+                    readContent(in, index);
+                }
+                return;
+            }
+        }
+        throw new FileNotFoundException("No p2 metadata repository found at " + base);
+    }
+
+    private void readArtifacts(URI location, ArtifactIndex index, int depth, Set<URI> visited) throws IOException {
+        URI base = directory(location);
+        if (depth > MAX_DEPTH || !visited.add(base)) {
+            return;
+        }
+
+        for (String name : factoryOrder(base, "artifact.repository.factory.order", DEFAULT_ARTIFACT_ORDER)) {
+            try (InputStream in = openIndexFile(base, name)) {
+                if (in == null) {
+                    continue;
+                }
+                if (name.startsWith("composite")) {
+                    for (URI child : readChildren(in, base)) {
+                        readArtifacts(child, index, depth + 1, visited);
+                    }
+                } else {
+                    readArtifacts(in, base, index);
+                }
+                return;
+            }
+        }
+        throw new FileNotFoundException("No p2 artifact repository found at " + base);
+    }
+
+    /**
+     * Reads the units of a <code>content.xml</code> into an index.
+     */
+    public void readContent(InputStream in, MetadataIndex index) throws IOException {
+        XMLStreamReader reader = createReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("unit")) {
+                    index.add(readUnit(reader));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid p2 metadata: " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Reads the artifact descriptors of an <code>artifacts.xml</code> into an index.
+     *
+     * @param location the repository the artifacts belong to
+     */
+    public void readArtifacts(InputStream in, URI location, ArtifactIndex index) throws IOException {
+        XMLStreamReader reader = createReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("artifact")) {
+                    index.add(readArtifact(reader), location);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid p2 artifact metadata: " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * @return the resolved child locations of a <code>compositeContent.xml</code> or
+     * <code>compositeArtifacts.xml</code>
+     */
+    public List<URI> readChildren(InputStream in, URI base) throws IOException {
+        List<URI> children = new ArrayList<>();
+        XMLStreamReader reader = createReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("child")) {
+                    String location = reader.getAttributeValue(null, "location");
+                    if (location != null) {
+                        children.add(base.resolve(location.trim()));
+                    }
+                }
+            }
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Invalid p2 composite repository: " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+        return children;
+    }
+
+    private InstallableUnit readUnit(XMLStreamReader reader) throws XMLStreamException {
+        String id = intern(reader.getAttributeValue(null, "id"));
+        Version version = version(reader.getAttributeValue(null, "version"));
+        boolean singleton = Boolean.parseBoolean(reader.getAttributeValue(null, "singleton"));
+        String filter = null;
+        Map<String, String> properties = new HashMap<>();
+        List<Capability> provides = new ArrayList<>();
+        List<Requirement> requires = new ArrayList<>();
+        List<ArtifactKey> artifacts = new ArrayList<>();
+        String touchpoint = null;
+        Map<String, String> instructions = new HashMap<>();
+
+        // only direct children of the unit and its lists count, patches have requirements in other places too
+        Deque<String> path = new ArrayDeque<>();
+        Map<String, String> requirement = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                String parent = path.peek();
+                if (parent == null && name.equals("filter")) {
+                    filter = reader.getElementText().trim();
+                    continue;
+                } else if ("properties".equals(parent) && path.size() == 1 && name.equals("property")) {
+                    properties.put(intern(reader.getAttributeValue(null, "name")), reader.getAttributeValue(null, "value"));
+                } else if ("provides".equals(parent) && path.size() == 1 && name.equals("provided")) {
+                    provides.add(new Capability(intern(reader.getAttributeValue(null, "namespace")),
+                            intern(reader.getAttributeValue(null, "name")), version(reader.getAttributeValue(null, "version"))));
+                } else if ("requires".equals(parent) && path.size() == 1 && name.equals("required")) {
+                    requirement = new HashMap<>();
+                    for (String attribute : Arrays.asList("namespace", "name", "range", "optional", "greedy")) {
+                        requirement.put(attribute, reader.getAttributeValue(null, attribute));
+                    }
+                } else if ("required".equals(parent) && requirement != null && path.size() == 2 && name.equals("filter")) {
+                    requirement.put("filter", reader.getElementText().trim());
+                    continue;
+                } else if (parent == null && name.equals("touchpoint")) {
+                    touchpoint = intern(reader.getAttributeValue(null, "id"));
+                    if ("null".equals(touchpoint)) {
+                        touchpoint = null;
+                    }
+                } else if ("instructions".equals(parent) && path.size() == 2 && name.equals("instruction")) {
+                    String key = intern(reader.getAttributeValue(null, "key"));
+                    String text = reader.getElementText();
+                    instructions.put(key, key.equals(InstallableUnit.INSTRUCTION_ZIPPED) ? intern(text.trim()) : text);
+                    continue;
+                } else if ("artifacts".equals(parent) && path.size() == 1 && name.equals("artifact")) {
+                    artifacts.add(new ArtifactKey(intern(reader.getAttributeValue(null, "classifier")),
+                            intern(reader.getAttributeValue(null, "id")), version(reader.getAttributeValue(null, "version"))));
+                }
+                path.push(name);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (path.isEmpty()) {
+                    break;
+                }
+                String name = path.pop();
+                if (name.equals("required") && path.size() == 1 && requirement != null) {
+                    // requirements with match expressions instead of a name are left out
+                    if (requirement.get("namespace") != null && requirement.get("name") != null) {
+                        requires.add(requirement(requirement));
+                    }
+                    requirement = null;
+                }
+            }
+        }
+        return new InstallableUnit(id, version, singleton, filter, properties, provides, requires, artifacts, touchpoint, instructions);
+    }
+
+    private Requirement requirement(Map<String, String> attributes) {
+        return new Requirement(intern(attributes.get("namespace")), intern(attributes.get("name")),
+                range(attributes.get("range")), attributes.get("filter"),
+                Boolean.parseBoolean(attributes.get("optional")),
+                attributes.get("greedy") == null || Boolean.parseBoolean(attributes.get("greedy")));
+    }
+
+    private ArtifactDescriptor readArtifact(XMLStreamReader reader) throws XMLStreamException {
+        ArtifactKey key = new ArtifactKey(intern(reader.getAttributeValue(null, "classifier")),
+                intern(reader.getAttributeValue(null, "id")), version(reader.getAttributeValue(null, "version")));
+        Map<String, String> properties = new HashMap<>();
+
+        Deque<String> path = new ArrayDeque<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("properties".equals(path.peek()) && path.size() == 1 && name.equals("property")) {
+                    properties.put(intern(reader.getAttributeValue(null, "name")), reader.getAttributeValue(null, "value"));
+                }
+                path.push(name);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (path.isEmpty()) {
+                    break;
+                }
+                path.pop();
+            }
+        }
+        return new ArtifactDescriptor(key, properties);
+    }
+
+    private XMLStreamReader createReader(InputStream in) throws IOException {
+        try {
+            return factory.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // the stream is closed by the caller
+        }
+    }
+
+    private String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String interned = strings.putIfAbsent(value, value);
+        return interned != null ? interned : value;
+    }
+
+    private Version version(String text) {
+        return versions.computeIfAbsent(text != null ? text : "", Version::parse);
+    }
+
+    private VersionRange range(String text) {
+        return ranges.computeIfAbsent(text != null ? text : "", VersionRange::parse);
+    }
+
+    /**
+     * @return the index files to look for, from <code>p2.index</code> or the defaults
+     */
+    private static List<String> factoryOrder(URI base, String key, List<String> defaults) throws IOException {
+        try (InputStream in = open(base.resolve("p2.index"))) {
+            if (in == null) {
+                return defaults;
+            }
+            Properties properties = new Properties();
+            properties.load(in);
+            String order = properties.getProperty(key);
+            if (order == null) {
+                return defaults;
+            }
+            List<String> names = new ArrayList<>();
+            for (String name : order.split(",")) {
+                name = name.trim();
+                if (name.equals("!")) {
+                    break;
+                }
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Opens the XML of an index file given as <code>content.xml</code>, which may also be stored as jar, or as
+     * <code>content.xml.xz</code>.
+     *
+     * @return the XML or <code>null</code> if the file does not exist
+     */
+    private static InputStream openIndexFile(URI base, String name) throws IOException {
+        if (name.endsWith(".xz")) {
+            InputStream in = open(base.resolve(name));
+            return in != null ? new XZInputStream(in) : null;
+        }
+
+        String xml = name.endsWith(".xml") ? name : name + ".xml";
+        InputStream jar = open(base.resolve(xml.substring(0, xml.length() - ".xml".length()) + ".jar"));
+        if (jar != null) {
+            ZipInputStream zip = new ZipInputStream(jar);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(xml)) {
+                    return zip;
+                }
+            }
+            zip.close();
+            throw new IOException("No " + xml + " found in " + base.resolve(xml.replace(".xml", ".jar")));
+        }
+        return open(base.resolve(xml));
+    }
+
+    /**
+     * @return the content or <code>null</code> if the file does not exist
+     */
+    static InputStream open(URI uri) throws IOException {
+        if ("file".equals(uri.getScheme())) {
+            File file = new File(uri);
+            return file.isFile() ? new BufferedInputStream(new FileInputStream(file), 65536) : null;
+        }
+
+        URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+        }
+        try {
+            return new BufferedInputStream(connection.getInputStream(), 65536);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static URI directory(URI location) {
+        String uri = location.toString();
+        return uri.endsWith("/") ? location : URI.create(uri + "/");
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the artifacts of a simple artifact repository against the checksums of its <code>artifacts.xml</code>.
+ *
+ * Only canonical artifacts are checked, packed variants are not stored under the path of their key.
+ */
+public class RepositoryVerifier {
+
+    private final int threads;
+
+    /**
+     * @param threads number of artifacts hashed at the same time
+     */
+    public RepositoryVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param index descriptors of the artifacts, usually read from the repository itself
+     * @param repository root of the simple artifact repository
+     */
+    public VerifyReport verify(ArtifactIndex index, Path repository) throws InterruptedException {
+        VerifyReport report = new VerifyReport();
+        long start = System.currentTimeMillis();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "p2 verifier " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads, factory);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (ArtifactKey key : index.getKeys()) {
+                ArtifactDescriptor descriptor = index.get(key);
+                if (descriptor.isCanonical()) {
+                    futures.add(executor.submit(() -> verify(descriptor, repository.resolve(key.getPath()), report)));
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // verify reports its failures itself
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report.finished(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    private static void verify(ArtifactDescriptor descriptor, Path file, VerifyReport report) {
+        ArtifactKey key = descriptor.getKey();
+        if (!Files.isRegularFile(file)) {
+            report.missing(key);
+            return;
+        }
+        try {
+            String error = Checksums.verify(descriptor, file);
+            if (error == null) {
+                report.verified(Files.size(file));
+            } else {
+                report.corrupt(key, error);
+            }
+        } catch (IOException | RuntimeException e) {
+            report.corrupt(key, e.toString());
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes simple p2 metadata and artifact repositories in the format of the p2 publisher.
+ *
+ * Each file is written to a temporary file first and moved into place, so readers never see a partial repository
+ * file. Units and artifacts are sorted, the same input always gives the same files apart from the timestamp.
+ */
+public class RepositoryWriter {
+
+    static final String METADATA_TYPE = "org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository";
+    static final String ARTIFACT_TYPE = "org.eclipse.equinox.p2.artifact.repository.simpleRepository";
+    static final String COMPOSITE_METADATA_TYPE = "org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository";
+    static final String COMPOSITE_ARTIFACT_TYPE = "org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository";
+
+    private static final String[][] MAPPING_RULES = {
+            {"(& (classifier=osgi.bundle))", "${repoUrl}/plugins/${id}_${version}.jar"},
+            {"(& (classifier=binary))", "${repoUrl}/binary/${id}_${version}"},
+            {"(& (classifier=org.eclipse.update.feature))", "${repoUrl}/features/${id}_${version}.jar"}
+    };
+
+    private boolean compress;
+    private boolean xz;
+    private boolean xzOnly;
+
+    /**
+     * @param compress whether <code>content.jar</code> and <code>artifacts.jar</code> are written instead of the
+     *                 xml files
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @param xz whether <code>content.xml.xz</code> and <code>artifacts.xml.xz</code> are written alongside the
+     *           jar or xml files. They are compressed at the same time as the other form.
+     */
+    public void setXz(boolean xz) {
+        this.xz = xz;
+    }
+
+    /**
+     * @param xzOnly whether only the xz files are written, which p2 reads since Eclipse Oxygen
+     */
+    public void setXzOnly(boolean xzOnly) {
+        this.xzOnly = xzOnly;
+    }
+
+    /**
+     * Replaces the metadata of a repository.
+     */
+    public void writeMetadata(Path repository, String name, Collection<InstallableUnit> units) throws IOException {
+        List<InstallableUnit> sorted = new ArrayList<>(units);
+        sorted.sort(Comparator.naturalOrder());
+
+        write(repository, "content", true, out -> {
+            XmlWriter xml = new XmlWriter(out, "metadataRepository", "1.1.0");
+            xml.start("repository", "name", name, "type", METADATA_TYPE, "version", "1");
+            writeRepositoryProperties(xml, false);
+            xml.start("units", "size", sorted.size());
+            for (InstallableUnit unit : sorted) {
+                writeUnit(xml, unit);
+            }
+            xml.end();
+            xml.end();
+            xml.close();
+        });
+        writeIndex(repository, factoryOrder("content", xz), factoryOrder("artifacts", xz));
+    }
+
+    /**
+     * Replaces the artifact descriptors of a repository. The artifacts are expected in the default layout.
+     */
+    public void writeArtifacts(Path repository, String name, Collection<ArtifactDescriptor> descriptors) throws IOException {
+        List<ArtifactDescriptor> sorted = new ArrayList<>(descriptors);
+        sorted.sort(Comparator.comparing((ArtifactDescriptor descriptor) -> descriptor.getKey().toString())
+                .thenComparing(descriptor -> descriptor.isCanonical() ? "" : descriptor.getProperty(ArtifactDescriptor.FORMAT)));
+
+        write(repository, "artifacts", true, out -> {
+            XmlWriter xml = new XmlWriter(out, "artifactRepository", "1.1.0");
+            xml.start("repository", "name", name, "type", ARTIFACT_TYPE, "version", "1");
+            writeRepositoryProperties(xml, true);
+            xml.start("mappings", "size", MAPPING_RULES.length);
+            for (String[] rule : MAPPING_RULES) {
+                xml.empty("rule", "filter", rule[0], "output", rule[1]);
+            }
+            xml.end();
+            xml.start("artifacts", "size", sorted.size());
+            for (ArtifactDescriptor descriptor : sorted) {
+                ArtifactKey key = descriptor.getKey();
+                xml.start("artifact", "classifier", key.getClassifier(), "id", key.getId(), "version", key.getVersion());
+                writeProperties(xml, new TreeMap<>(descriptor.getProperties()));
+                xml.end();
+            }
+            xml.end();
+            xml.end();
+            xml.close();
+        });
+        writeIndex(repository, factoryOrder("content", xz), factoryOrder("artifacts", xz));
+    }
+
+    /**
+     * Writes <code>compositeContent</code> and <code>compositeArtifacts</code>, which combine the child
+     * repositories into one. The simple metadata of the repository itself is removed.
+     *
+     * @param children locations of the children relative to the repository
+     */
+    public void writeComposite(Path repository, String name, Collection<String> children) throws IOException {
+        List<String> sorted = new ArrayList<>(children);
+        sorted.sort(Comparator.naturalOrder());
+
+        writeComposite(repository, "compositeContent", "compositeMetadataRepository", COMPOSITE_METADATA_TYPE, name, sorted);
+        writeComposite(repository, "compositeArtifacts", "compositeArtifactRepository", COMPOSITE_ARTIFACT_TYPE, name, sorted);
+        for (String simple : new String[]{"content", "artifacts"}) {
+            Files.deleteIfExists(repository.resolve(simple + ".xml"));
+            Files.deleteIfExists(repository.resolve(simple + ".jar"));
+            Files.deleteIfExists(repository.resolve(simple + ".xml.xz"));
+        }
+        writeIndex(repository, "compositeContent.xml", "compositeArtifacts.xml");
+    }
+
+    private void writeComposite(Path repository, String fileName, String repositoryType, String type, String name,
+                                List<String> children) throws IOException {
+        // p2 has no xz form of composite repositories
+        write(repository, fileName, false, out -> {
+            XmlWriter xml = new XmlWriter(out, repositoryType, "1.0.0");
+            xml.start("repository", "name", name, "type", type, "version", "1.0.0");
+            Map<String, String> properties = new LinkedHashMap<>();
+            properties.put("p2.timestamp", Long.toString(System.currentTimeMillis()));
+            // fail instead of silently using only some of the children
+            properties.put("p2.atomic.composite.loading", "true");
+            if (compress) {
+                properties.put("p2.compressed", "true");
+            }
+            writeProperties(xml, properties);
+            xml.start("children", "size", children.size());
+            for (String child : children) {
+                xml.empty("child", "location", child);
+            }
+            xml.end();
+            xml.end();
+            xml.close();
+        });
+    }
+
+    private void writeRepositoryProperties(XmlWriter xml, boolean artifacts) throws XMLStreamException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("p2.timestamp", Long.toString(System.currentTimeMillis()));
+        if (compress) {
+            properties.put("p2.compressed", "true");
+        }
+        if (artifacts) {
+            properties.put("publishPackFilesAsSiblings", "true");
+        }
+        writeProperties(xml, properties);
+    }
+
+    private static void writeUnit(XmlWriter xml, InstallableUnit unit) throws XMLStreamException {
+        xml.start("unit", "id", unit.getId(), "version", unit.getVersion(), "singleton", unit.isSingleton());
+        xml.empty("update", "id", unit.getId(), "range", "[0.0.0," + unit.getVersion() + ")", "severity", 0);
+        writeProperties(xml, new TreeMap<>(unit.getProperties()));
+
+        xml.start("provides", "size", unit.getProvides().size());
+        for (Capability capability : unit.getProvides()) {
+            xml.empty("provided", "namespace", capability.getNamespace(), "name", capability.getName(),
+                    "version", capability.getVersion());
+        }
+        xml.end();
+
+        if (!unit.getRequires().isEmpty()) {
+            xml.start("requires", "size", unit.getRequires().size());
+            for (Requirement requirement : unit.getRequires()) {
+                List<Object> attributes = new ArrayList<>();
+                attributes.add("namespace");
+                attributes.add(requirement.getNamespace());
+                attributes.add("name");
+                attributes.add(requirement.getName());
+                attributes.add("range");
+                attributes.add(requirement.getRange());
+                if (requirement.isOptional()) {
+                    attributes.add("optional");
+                    attributes.add(true);
+                }
+                if (!requirement.isGreedy()) {
+                    attributes.add("greedy");
+                    attributes.add(false);
+                }
+                if (requirement.getFilter() == null) {
+                    xml.empty("required", attributes.toArray());
+                } else {
+                    xml.start("required", attributes.toArray());
+                    xml.text("filter", requirement.getFilter());
+                    xml.end();
+                }
+            }
+            xml.end();
+        }
+
+        if (unit.getFilter() != null) {
+            xml.text("filter", unit.getFilter());
+        }
+
+        if (!unit.getArtifacts().isEmpty()) {
+            xml.start("artifacts", "size", unit.getArtifacts().size());
+            for (ArtifactKey key : unit.getArtifacts()) {
+                xml.empty("artifact", "classifier", key.getClassifier(), "id", key.getId(), "version", key.getVersion());
+            }
+            xml.end();
+        }
+
+        if (unit.getTouchpoint() != null) {
+            xml.empty("touchpoint", "id", unit.getTouchpoint(), "version", "1.0.0");
+        } else {
+            xml.empty("touchpoint", "id", "null", "version", "0.0.0");
+        }
+        if (!unit.getInstructions().isEmpty()) {
+            Map<String, String> instructions = new TreeMap<>(unit.getInstructions());
+            xml.start("touchpointData", "size", 1);
+            xml.start("instructions", "size", instructions.size());
+            for (Map.Entry<String, String> instruction : instructions.entrySet()) {
+                xml.text("instruction", instruction.getValue(), "key", instruction.getKey());
+            }
+            xml.end();
+            xml.end();
+        }
+        xml.end();
+    }
+
+    private static void writeProperties(XmlWriter xml, Map<String, String> properties) throws XMLStreamException {
+        if (properties.isEmpty()) {
+            return;
+        }
+        xml.start("properties", "size", properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            xml.empty("property", "name", property.getKey(), "value", property.getValue());
+        }
+        xml.end();
+    }
+
+    /**
+     * Adds the xz files to a simple repository written by p2 itself, e.g. by the p2 publisher or <code>p2.mirror</code>,
+     * which cannot write them. Both files are compressed at the same time. The jar or xml files are removed if only xz
+     * files are written.
+     */
+    public void writeXz(Path repository) throws IOException {
+        List<IoTask> tasks = new ArrayList<>();
+        for (String name : new String[]{"content", "artifacts"}) {
+            String xmlName = name + ".xml";
+            Path jar = repository.resolve(name + ".jar");
+            Path xml = repository.resolve(xmlName);
+            if (!Files.isRegularFile(jar) && !Files.isRegularFile(xml)) {
+                throw new FileNotFoundException("No " + xmlName + " or " + name + ".jar in " + repository);
+            }
+            tasks.add(() -> writeFile(repository, xmlName + ".xz", RepositoryWriter::xzStream, out -> {
+                if (Files.isRegularFile(jar)) {
+                    try (ZipFile zip = new ZipFile(jar.toFile())) {
+                        ZipEntry entry = zip.getEntry(xmlName);
+                        if (entry == null) {
+                            throw new IOException("No " + xmlName + " in " + jar);
+                        }
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            copy(in, out);
+                        }
+                    }
+                } else {
+                    try (InputStream in = Files.newInputStream(xml)) {
+                        copy(in, out);
+                    }
+                }
+            }));
+        }
+        inParallel(tasks);
+
+        if (xzOnly) {
+            for (String name : new String[]{"content", "artifacts"}) {
+                Files.deleteIfExists(repository.resolve(name + ".jar"));
+                Files.deleteIfExists(repository.resolve(name + ".xml"));
+            }
+        }
+        writeIndex(repository, factoryOrder("content", true), factoryOrder("artifacts", true));
+    }
+
+    /**
+     * @return the files of a simple repository in the order p2 should try them
+     */
+    private String factoryOrder(String name, boolean withXz) {
+        if (xzOnly) {
+            return name + ".xml.xz";
+        }
+        return withXz ? name + ".xml.xz," + name + ".xml" : name + ".xml";
+    }
+
+    /**
+     * Writes <code>p2.index</code>, which lets p2 find the metadata without probing for other formats.
+     */
+    private static void writeIndex(Path repository, String metadata, String artifacts) throws IOException {
+        String index = "version=1\n"
+                + "metadata.repository.factory.order=" + metadata + ",\\!\n"
+                + "artifact.repository.factory.order=" + artifacts + ",\\!\n";
+        Path temp = Files.createTempFile(repository, "p2.index", ".tmp");
+        Files.write(temp, index.getBytes(StandardCharsets.ISO_8859_1));
+        Files.move(temp, repository.resolve("p2.index"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes <code>name.xml</code> or <code>name.jar</code>, and <code>name.xml.xz</code> if wanted, and removes the
+     * other forms, which p2 would prefer or fall back to. Several forms are compressed in parallel from the same
+     * document.
+     */
+    private void write(Path repository, String name, boolean xzAllowed, XmlContent content) throws IOException {
+        Files.createDirectories(repository);
+        String xmlName = name + ".xml";
+        String jarName = name + ".jar";
+        String xzName = xmlName + ".xz";
+
+        Map<String, Encoder> forms = new LinkedHashMap<>();
+        if (!xzAllowed || !xzOnly) {
+            forms.put(compress ? jarName : xmlName, compress ? out -> jarStream(out, xmlName) : out -> out);
+        }
+        if (xzAllowed && (xz || xzOnly)) {
+            forms.put(xzName, RepositoryWriter::xzStream);
+        }
+
+        if (forms.size() == 1) {
+            Map.Entry<String, Encoder> form = forms.entrySet().iterator().next();
+            writeFile(repository, form.getKey(), form.getValue(), content);
+        } else {
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            writeContent(content, document);
+            List<IoTask> tasks = new ArrayList<>();
+            for (Map.Entry<String, Encoder> form : forms.entrySet()) {
+                tasks.add(() -> writeFile(repository, form.getKey(), form.getValue(), document::writeTo));
+            }
+            inParallel(tasks);
+        }
+
+        for (String form : new String[]{xmlName, jarName, xzName}) {
+            if (!forms.containsKey(form)) {
+                Files.deleteIfExists(repository.resolve(form));
+            }
+        }
+    }
+
+    private static void writeFile(Path repository, String fileName, Encoder encoder, XmlContent content) throws IOException {
+        Path temp = Files.createTempFile(repository, fileName, ".tmp");
+        try {
+            try (OutputStream out = encoder.open(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+                writeContent(content, out);
+            }
+            Files.move(temp, repository.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeContent(XmlContent content, OutputStream out) throws IOException {
+        try {
+            content.write(out);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static OutputStream jarStream(OutputStream out, String entryName) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry(entryName));
+        return zip;
+    }
+
+    private static OutputStream xzStream(OutputStream out) throws IOException {
+        return new XZOutputStream(out, new LZMA2Options());
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Runs the tasks on threads of their own and waits for all of them.
+     */
+    private static void inParallel(List<IoTask> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), runnable -> {
+            Thread thread = new Thread(runnable, "p2 metadata writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (IoTask task : tasks) {
+                futures.add(executor.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private interface Encoder {
+        OutputStream open(OutputStream out) throws IOException;
+    }
+
+    private interface XmlContent {
+        void write(OutputStream out) throws XMLStreamException, IOException;
+    }
+
+    /**
+     * Indenting StAX writer for attribute lists given as name-value pairs.
+     */
+    private static final class XmlWriter {
+
+        private final XMLStreamWriter writer;
+        private int depth;
+
+        XmlWriter(OutputStream out, String repositoryType, String version) throws XMLStreamException {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            newLine();
+            writer.writeProcessingInstruction(repositoryType, "version='" + version + "'");
+        }
+
+        void start(String name, Object... attributes) throws XMLStreamException {
+            newLine();
+            writer.writeStartElement(name);
+            attributes(attributes);
+            depth++;
+        }
+
+        void empty(String name, Object... attributes) throws XMLStreamException {
+            newLine();
+            writer.writeEmptyElement(name);
+            attributes(attributes);
+        }
+
+        void text(String name, String text, Object... attributes) throws XMLStreamException {
+            newLine();
+            writer.writeStartElement(name);
+            attributes(attributes);
+            writer.writeCharacters(text);
+            writer.writeEndElement();
+        }
+
+        void end() throws XMLStreamException {
+            depth--;
+            newLine();
+            writer.writeEndElement();
+        }
+
+        void close() throws XMLStreamException {
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.flush();
+        }
+
+        private void attributes(Object[] attributes) throws XMLStreamException {
+            for (int i = 0; i < attributes.length; i += 2) {
+                writer.writeAttribute(attributes[i].toString(), String.valueOf(attributes[i + 1]));
+            }
+        }
+
+        private void newLine() throws XMLStreamException {
+            StringBuilder indent = new StringBuilder("\n");
+            for (int i = 0; i < depth; i++) {
+                indent.append("  ");
+            }
+            writer.writeCharacters(indent.toString());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * Requirement of an installable unit on a capability in a version range.
+ */
+public final class Requirement {
+
+    private final String namespace;
+    private final String name;
+    private final VersionRange range;
+    private final String filter;
+    private final boolean optional;
+    private final boolean greedy;
+
+    public Requirement(String namespace, String name, VersionRange range, String filter, boolean optional, boolean greedy) {
+        this.namespace = namespace;
+        this.name = name;
+        this.range = range;
+        this.filter = filter;
+        this.optional = optional;
+        this.greedy = greedy;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public VersionRange getRange() {
+        return range;
+    }
+
+    /**
+     * @return LDAP filter on the platform the requirement applies to or <code>null</code> if it always applies
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public boolean isOptional() {
+        return optional;
+    }
+
+    public boolean isGreedy() {
+        return greedy;
+    }
+
+    public boolean isSatisfiedBy(Capability capability) {
+        return namespace.equals(capability.getNamespace()) && name.equals(capability.getName())
+                && range.includes(capability.getVersion());
+    }
+
+    @Override
+    public String toString() {
+        return namespace + "/" + name + "/" + range + (optional ? " (optional)" : "");
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Computes the installable units a p2 mirror with slicing options copies, following the requirements of the root
+ * units like the p2 slicer does. Unlike the director's planner it does not pick one solution, all units satisfying a
+ * requirement are part of the slice.
+ */
+public class Slicer {
+
+    static final String INSTALL_FEATURES = "org.eclipse.update.install.features";
+
+    private final MetadataIndex index;
+    private Map<String, String> platform;
+    private boolean followStrict;
+    private boolean includeOptional = true;
+    private boolean includeNonGreedy = true;
+    private boolean includeFeatures = true;
+    private boolean latestVersionOnly;
+
+    public Slicer(MetadataIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param platform properties like <code>osgi.os</code>, <code>osgi.ws</code> and <code>osgi.arch</code> the
+     * filters are evaluated against, or <code>null</code> to match the units of all platforms
+     */
+    public void setPlatform(Map<String, String> platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * @param followStrict only follow requirements on exactly one version, like those of features on their bundles
+     */
+    public void setFollowStrict(boolean followStrict) {
+        this.followStrict = followStrict;
+    }
+
+    public void setIncludeOptional(boolean includeOptional) {
+        this.includeOptional = includeOptional;
+    }
+
+    public void setIncludeNonGreedy(boolean includeNonGreedy) {
+        this.includeNonGreedy = includeNonGreedy;
+    }
+
+    /**
+     * @param includeFeatures include the feature jars of the feature groups
+     */
+    public void setIncludeFeatures(boolean includeFeatures) {
+        this.includeFeatures = includeFeatures;
+    }
+
+    /**
+     * @param latestVersionOnly only take the highest version of the units satisfying a requirement
+     */
+    public void setLatestVersionOnly(boolean latestVersionOnly) {
+        this.latestVersionOnly = latestVersionOnly;
+    }
+
+    /**
+     * @param roots the units to start from
+     * @return the roots and all units they need, sorted by id and version
+     */
+    public Set<InstallableUnit> slice(Collection<InstallableUnit> roots) {
+        Map<String, String> context = null;
+        if (platform != null || !includeFeatures) {
+            context = new HashMap<>();
+            if (platform != null) {
+                context.putAll(platform);
+            }
+            context.put(INSTALL_FEATURES, Boolean.toString(includeFeatures));
+        }
+
+        Set<InstallableUnit> slice = new TreeSet<>();
+        Deque<InstallableUnit> queue = new ArrayDeque<>();
+        for (InstallableUnit root : roots) {
+            if (matches(root.getFilter(), context) && slice.add(root)) {
+                queue.add(root);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            InstallableUnit unit = queue.poll();
+            for (Requirement requirement : unit.getRequires()) {
+                if (!follow(requirement, context)) {
+                    continue;
+                }
+                List<InstallableUnit> providers = index.getProviders(requirement);
+                if (latestVersionOnly && providers.size() > 1) {
+                    providers.sort(null);
+                    providers = providers.subList(providers.size() - 1, providers.size());
+                }
+                for (InstallableUnit provider : providers) {
+                    if (matches(provider.getFilter(), context) && slice.add(provider)) {
+                        queue.add(provider);
+                    }
+                }
+            }
+        }
+        return slice;
+    }
+
+    private boolean follow(Requirement requirement, Map<String, String> context) {
+        if (requirement.isOptional() && !includeOptional) {
+            return false;
+        }
+        if (!requirement.isGreedy() && !includeNonGreedy) {
+            return false;
+        }
+        if (followStrict && !requirement.getRange().isExact()) {
+            return false;
+        }
+        return matches(requirement.getFilter(), context);
+    }
+
+    private boolean matches(String filter, Map<String, String> context) {
+        if (context == null) {
+            return true;
+        }
+        // without a platform only the feature term of a filter decides, the platform terms match any platform
+        return platform != null ? LdapFilter.matches(filter, context) : LdapFilter.mayMatch(filter, context);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a {@link RepositoryVerifier} run.
+ */
+public class VerifyReport {
+
+    private final AtomicInteger verified = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<ArtifactKey, String> corrupt = new ConcurrentHashMap<>();
+    private final Set<ArtifactKey> missing = ConcurrentHashMap.newKeySet();
+    private volatile long millis;
+
+    void verified(long size) {
+        verified.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    void corrupt(ArtifactKey key, String message) {
+        corrupt.put(key, message);
+    }
+
+    void missing(ArtifactKey key) {
+        missing.add(key);
+    }
+
+    void finished(long elapsed) {
+        millis = elapsed;
+    }
+
+    /**
+     * @return number of artifacts matching their descriptor
+     */
+    public int getVerified() {
+        return verified.get();
+    }
+
+    /**
+     * @return number of bytes hashed for the matching artifacts
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the artifacts which do not match their descriptor and why
+     */
+    public Map<ArtifactKey, String> getCorrupt() {
+        return Collections.unmodifiableMap(corrupt);
+    }
+
+    /**
+     * @return the artifacts which are described but not in the repository
+     */
+    public Set<ArtifactKey> getMissing() {
+        return Collections.unmodifiableSet(missing);
+    }
+
+    /**
+     * @return the corrupt and the missing artifacts
+     */
+    public Set<ArtifactKey> getDamaged() {
+        Set<ArtifactKey> damaged = new LinkedHashSet<>(corrupt.keySet());
+        damaged.addAll(missing);
+        return damaged;
+    }
+
+    public boolean isIntact() {
+        return corrupt.isEmpty() && missing.isEmpty();
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d artifacts verified, %d corrupt, %d missing, %.1f MB in %d ms",
+                getVerified(), corrupt.size(), missing.size(), bytes.get() / (1024.0 * 1024.0), millis);
+    }
+}
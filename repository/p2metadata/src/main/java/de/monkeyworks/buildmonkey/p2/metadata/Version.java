@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * OSGi version <code>major.minor.micro.qualifier</code> of an installable unit or artifact.
+ *
+ * p2 raw and formatted versions are kept as they are and ordered after all OSGi versions by their text.
+ */
+public final class Version implements Comparable<Version> {
+
+    public static final Version EMPTY = new Version(0, 0, 0, "", null);
+    public static final Version MAX = new Version(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, "", null);
+
+    private final int major;
+    private final int minor;
+    private final int micro;
+    private final String qualifier;
+    /** text of a version which is not an OSGi version */
+    private final String raw;
+
+    private Version(int major, int minor, int micro, String qualifier, String raw) {
+        this.major = major;
+        this.minor = minor;
+        this.micro = micro;
+        this.qualifier = qualifier;
+        this.raw = raw;
+    }
+
+    public static Version parse(String text) {
+        if (text == null) {
+            return EMPTY;
+        }
+        String version = text.trim();
+        if (version.isEmpty()) {
+            return EMPTY;
+        }
+
+        String[] segments = version.split("\\.", 4);
+        try {
+            int major = Integer.parseInt(segments[0]);
+            int minor = segments.length > 1 ? Integer.parseInt(segments[1]) : 0;
+            int micro = segments.length > 2 ? Integer.parseInt(segments[2]) : 0;
+            String qualifier = segments.length > 3 ? segments[3] : "";
+            return new Version(major, minor, micro, qualifier, null);
+        } catch (NumberFormatException e) {
+            return new Version(0, 0, 0, "", version);
+        }
+    }
+
+    public int getMajor() {
+        return major;
+    }
+
+    public int getMinor() {
+        return minor;
+    }
+
+    public int getMicro() {
+        return micro;
+    }
+
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    @Override
+    public int compareTo(Version other) {
+        if (raw != null || other.raw != null) {
+            if (raw == null) {
+                return -1;
+            }
+            if (other.raw == null) {
+                return 1;
+            }
+            return raw.compareTo(other.raw);
+        }
+        if (major != other.major) {
+            return Integer.compare(major, other.major);
+        }
+        if (minor != other.minor) {
+            return Integer.compare(minor, other.minor);
+        }
+        if (micro != other.micro) {
+            return Integer.compare(micro, other.micro);
+        }
+        return qualifier.compareTo(other.qualifier);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Version && compareTo((Version) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return raw != null ? raw.hashCode() : ((major * 31 + minor) * 31 + micro) * 31 + qualifier.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (raw != null) {
+            return raw;
+        }
+        String version = major + "." + minor + "." + micro;
+        return qualifier.isEmpty() ? version : version + "." + qualifier;
+    }
+}
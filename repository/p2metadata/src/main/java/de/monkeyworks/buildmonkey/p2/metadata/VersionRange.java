@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata;
+
+/**
+ * OSGi version range like <code>[1.0.0,2.0.0)</code>. A single version <code>1.0.0</code> stands for all versions
+ * from 1.0.0 on.
+ */
+public final class VersionRange {
+
+    public static final VersionRange ALL = new VersionRange(Version.EMPTY, true, Version.MAX, true);
+
+    private final Version minimum;
+    private final boolean includeMinimum;
+    private final Version maximum;
+    private final boolean includeMaximum;
+
+    public VersionRange(Version minimum, boolean includeMinimum, Version maximum, boolean includeMaximum) {
+        this.minimum = minimum;
+        this.includeMinimum = includeMinimum;
+        this.maximum = maximum;
+        this.includeMaximum = includeMaximum;
+    }
+
+    public static VersionRange parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return ALL;
+        }
+        String range = text.trim();
+        char first = range.charAt(0);
+        if (first != '[' && first != '(') {
+            return new VersionRange(Version.parse(range), true, Version.MAX, true);
+        }
+
+        int comma = range.indexOf(',');
+        char last = range.charAt(range.length() - 1);
+        if (comma < 0 || (last != ']' && last != ')')) {
+            throw new IllegalArgumentException("Invalid version range " + text);
+        }
+        return new VersionRange(Version.parse(range.substring(1, comma)), first == '[',
+                Version.parse(range.substring(comma + 1, range.length() - 1)), last == ']');
+    }
+
+    /**
+     * @return the range holding only the given version
+     */
+    public static VersionRange exactly(Version version) {
+        return new VersionRange(version, true, version, true);
+    }
+
+    public boolean includes(Version version) {
+        int min = version.compareTo(minimum);
+        if (min < 0 || (min == 0 && !includeMinimum)) {
+            return false;
+        }
+        int max = version.compareTo(maximum);
+        return max < 0 || (max == 0 && includeMaximum);
+    }
+
+    /**
+     * @return whether the range holds exactly one version, as in the requirements of a feature on its bundles
+     */
+    public boolean isExact() {
+        return includeMinimum && includeMaximum && minimum.equals(maximum);
+    }
+
+    public Version getMinimum() {
+        return minimum;
+    }
+
+    public Version getMaximum() {
+        return maximum;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof VersionRange)) {
+            return false;
+        }
+        VersionRange range = (VersionRange) other;
+        return minimum.equals(range.minimum) && includeMinimum == range.includeMinimum
+                && maximum.equals(range.maximum) && includeMaximum == range.includeMaximum;
+    }
+
+    @Override
+    public int hashCode() {
+        return minimum.hashCode() * 31 + maximum.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (maximum.equals(Version.MAX) && includeMinimum) {
+            return minimum.toString();
+        }
+        return (includeMinimum ? "[" : "(") + minimum + "," + maximum + (includeMaximum ? "]" : ")");
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata.test
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactDescriptor
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactFetcher
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactIndex
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.Version
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.security.MessageDigest
+
+import static org.junit.Assert.*
+
+/**
+ * Fetches from a local HTTP server standing in for an update site.
+ */
+class ArtifactFetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private HttpServer server
+    private Map<String, byte[]> files = [:]
+    private List<String> ranges = Collections.synchronizedList([])
+
+    @Before
+    void startServer() {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+        server.createContext('/site/') { HttpExchange exchange ->
+            byte[] content = files[exchange.requestURI.path - '/site/']
+            if(content == null) {
+                exchange.sendResponseHeaders(404, -1)
+                exchange.close()
+                return
+            }
+            String range = exchange.requestHeaders.getFirst('Range')
+            int offset = 0
+            if(range != null) {
+                ranges << range
+                offset = (range - 'bytes=' - '-') as int
+                exchange.responseHeaders.add('Content-Range', "bytes ${offset}-${content.length - 1}/${content.length}")
+                exchange.sendResponseHeaders(206, content.length - offset)
+            } else {
+                exchange.sendResponseHeaders(200, content.length)
+            }
+            exchange.responseBody.write(content, offset, content.length - offset)
+            exchange.close()
+        }
+        server.start()
+    }
+
+    @After
+    void stopServer() {
+        server.stop(0)
+    }
+
+    private ArtifactKey addArtifact(ArtifactIndex index, String id, byte[] content, String checksum = null) {
+        def key = new ArtifactKey(ArtifactKey.BUNDLE, id, Version.parse('1.0.0'))
+        files[key.path] = content
+        String sha256 = checksum ?: MessageDigest.getInstance('SHA-256').digest(content).encodeHex().toString()
+        index.add(new ArtifactDescriptor(key, [(ArtifactDescriptor.DOWNLOAD_SHA256): sha256,
+                                               (ArtifactDescriptor.DOWNLOAD_SIZE): content.length.toString()]),
+                new URI("http://localhost:${server.address.port}/site"))
+        return key
+    }
+
+    @Test
+    void testFetchInParallel() {
+        def index = new ArtifactIndex()
+        def keys = (1..6).collect { addArtifact(index, "org.example.b${it}", ("bundle ${it} " * 1000).bytes) }
+        def destination = folder.newFolder('mirror').toPath()
+
+        def report = new ArtifactFetcher(3).fetch(index, keys, destination)
+
+        assertEquals(report.toString(), 6, report.fetched)
+        assertTrue(report.failures.isEmpty())
+        assertEquals(('bundle 4 ' * 1000), destination.resolve('plugins/org.example.b4_1.0.0.jar').text)
+        assertTrue(report.bytes > 0)
+
+        def again = new ArtifactFetcher(3).fetch(index, keys, destination)
+        assertEquals("verified artifacts should not be fetched again", 6, again.present)
+        assertEquals(0, again.bytes)
+    }
+
+    @Test
+    void testResumePartialDownload() {
+        def index = new ArtifactIndex()
+        byte[] content = ('0123456789' * 500).bytes
+        def key = addArtifact(index, 'org.example.large', content)
+        def destination = folder.newFolder('mirror').toPath()
+        def part = destination.resolve(key.path + '.part').toFile()
+        part.parentFile.mkdirs()
+        part.bytes = Arrays.copyOf(content, 1234)
+
+        def report = new ArtifactFetcher(1).fetch(index, [key], destination)
+
+        assertEquals(1, report.resumed)
+        assertEquals(['bytes=1234-'], ranges)
+        assertEquals(content.length - 1234, report.bytes)
+        assertArrayEquals(content, destination.resolve(key.path).bytes)
+        assertFalse(part.exists())
+    }
+
+    @Test
+    void testChecksumMismatchIsReported() {
+        def index = new ArtifactIndex()
+        def key = addArtifact(index, 'org.example.corrupt', 'content'.bytes, 'ff' * 32)
+        def missing = new ArtifactKey(ArtifactKey.BUNDLE, 'org.example.missing', Version.parse('1.0.0'))
+        index.add(new ArtifactDescriptor(missing, [:]), new URI("http://localhost:${server.address.port}/site"))
+        def destination = folder.newFolder('mirror').toPath()
+
+        def fetcher = new ArtifactFetcher(2)
+        fetcher.retries = 1
+        def report = fetcher.fetch(index, [key, missing], destination)
+
+        assertEquals(0, report.fetched)
+        assertTrue(report.failures[key.toString()].startsWith('SHA-256'))
+        assertTrue(report.failures[missing.toString()].contains('HTTP 404'))
+        assertFalse("corrupt artifact should not be kept", destination.resolve(key.path).toFile().exists())
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata.test
+
+import de.monkeyworks.buildmonkey.p2.metadata.CompositePublisher
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryVerifier
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import java.util.zip.ZipEntry
+
+import static org.junit.Assert.*
+
+/**
+ * Publishes bundles sharded by feature into a composite repository and publishes it again after changes.
+ */
+class CompositePublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private static void bundle(File source, String id, Map<String, String> headers = [:]) {
+        File file = new File(source, "plugins/${id}_1.0.0.jar")
+        file.parentFile.mkdirs()
+        def manifest = new Manifest()
+        manifest.mainAttributes.putValue('Manifest-Version', '1.0')
+        manifest.mainAttributes.putValue('Bundle-SymbolicName', id)
+        manifest.mainAttributes.putValue('Bundle-Version', '1.0.0')
+        headers.each { name, value -> manifest.mainAttributes.putValue(name, value) }
+        new JarOutputStream(new FileOutputStream(file), manifest).close()
+    }
+
+    private static void feature(File source, String id, List<String> plugins, String pluginVersion = '1.0.0') {
+        File file = new File(source, "features/${id}_1.0.0.jar")
+        file.parentFile.mkdirs()
+        new JarOutputStream(new FileOutputStream(file)).withStream { out ->
+            out.putNextEntry(new ZipEntry('feature.xml'))
+            out << "<feature id=\"${id}\" version=\"1.0.0\">${plugins.collect { "<plugin id=\"${it}\" version=\"${pluginVersion}\"/>" }.join('')}</feature>"
+            out.closeEntry()
+        }
+    }
+
+    @Test
+    void testShardByFeature() {
+        def source = folder.newFolder('source')
+        bundle(source, 'org.example.ui')
+        bundle(source, 'org.example.core')
+        bundle(source, 'org.example.extra')
+        feature(source, 'org.example.core.feature', ['org.example.core'])
+        feature(source, 'org.example.product', ['org.example.core', 'org.example.ui'])
+
+        def publisher = new CompositePublisher(2, new File(folder.root, 'state').toPath())
+        def shards = publisher.shardByFeature(source.toPath())
+        assertEquals(['bundles', 'org.example.core.feature', 'org.example.product'], shards.keySet() as List)
+        assertEquals("the smaller feature should get the shared bundle",
+                ['org.example.core.feature_1.0.0.jar', 'org.example.core_1.0.0.jar'],
+                shards['org.example.core.feature']*.fileName*.toString().sort())
+
+        def repository = folder.newFolder('repository')
+        def reports = publisher.publish(source.toPath(), repository.toPath(), 'example', shards, true)
+        assertEquals(3, reports.size())
+        assertTrue(new File(repository, 'compositeContent.jar').isFile())
+        assertTrue(new File(repository, 'org.example.product/plugins/org.example.ui_1.0.0.jar').isFile())
+
+        def index = RepositoryReader.readMetadata(repository.toURI())
+        assertNotNull(index.find('org.example.extra', null))
+        assertNotNull(index.find('org.example.product.feature.group', null))
+        shards.keySet().each { shard ->
+            def child = new File(repository, shard)
+            assertTrue(new RepositoryVerifier(2).verify(RepositoryReader.readArtifacts(child.toURI()), child.toPath()).intact)
+        }
+
+        long compositeModified = new File(repository, 'compositeContent.jar').lastModified()
+        long coreModified = new File(repository, 'org.example.core.feature/content.jar').lastModified()
+        bundle(source, 'org.example.ui', ['Export-Package': 'org.example.ui'])
+        reports = publisher.publish(source.toPath(), repository.toPath(), 'example', publisher.shardByFeature(source.toPath()), true)
+        assertEquals("only the changed shard should be published", ['org.example.product'], reports.keySet() as List)
+        assertEquals(coreModified, new File(repository, 'org.example.core.feature/content.jar').lastModified())
+        assertEquals(compositeModified, new File(repository, 'compositeContent.jar').lastModified())
+
+        new File(source, 'plugins/org.example.extra_1.0.0.jar').delete()
+        publisher.publish(source.toPath(), repository.toPath(), 'example', publisher.shardByFeature(source.toPath()), true)
+        assertFalse("removed shards should be deleted", new File(repository, 'bundles').exists())
+        assertNull(RepositoryReader.readMetadata(repository.toURI()).find('org.example.extra', null))
+
+        publisher.publish(source.toPath(), repository.toPath(), 'example', publisher.shardByFeature(source.toPath()), false)
+        assertTrue("the composite should follow the compression", new File(repository, 'compositeContent.xml').isFile())
+        assertFalse(new File(repository, 'compositeContent.jar').exists())
+    }
+
+    @Test
+    void testReferencesToOtherShards() {
+        def source = folder.newFolder('source')
+        bundle(source, 'org.example.core')
+        bundle(source, 'org.example.ui')
+        feature(source, 'org.example.core.feature', ['org.example.core'])
+        feature(source, 'org.example.product', ['org.example.core', 'org.example.ui'], '0.0.0')
+
+        def repository = folder.newFolder('repository')
+        def publisher = new CompositePublisher(2, new File(folder.root, 'state').toPath())
+        publisher.publish(source.toPath(), repository.toPath(), 'example', publisher.shardByFeature(source.toPath()), true)
+
+        def product = RepositoryReader.readMetadata(new File(repository, 'org.example.product').toURI())
+                .find('org.example.product.feature.group', null)
+        def core = product.requires.find { it.name == 'org.example.core' }
+        assertTrue("the bundle of the other shard should be referenced exactly", core.range.exact)
+        assertEquals('1.0.0', core.range.minimum.toString())
+    }
+}
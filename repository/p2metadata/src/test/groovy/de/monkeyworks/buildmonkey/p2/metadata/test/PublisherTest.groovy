@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata.test
+
+import de.monkeyworks.buildmonkey.p2.metadata.InstallableUnit
+import de.monkeyworks.buildmonkey.p2.metadata.Publisher
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryVerifier
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryWriter
+import de.monkeyworks.buildmonkey.p2.metadata.Slicer
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import java.util.zip.ZipEntry
+
+import static org.junit.Assert.*
+
+/**
+ * Publishes bundles and a feature and reads the repository back.
+ */
+class PublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private static void jar(File file, Map<String, String> headers, Map<String, String> entries = [:]) {
+        file.parentFile.mkdirs()
+        def manifest = new Manifest()
+        manifest.mainAttributes.putValue('Manifest-Version', '1.0')
+        headers.each { name, value -> manifest.mainAttributes.putValue(name, value) }
+        new JarOutputStream(new FileOutputStream(file), manifest).withStream { out ->
+            entries.each { name, content ->
+                out.putNextEntry(new ZipEntry(name))
+                out << content
+                out.closeEntry()
+            }
+        }
+    }
+
+    @Test
+    void testPublishBundlesAndFeature() {
+        def source = folder.newFolder('source')
+        jar(new File(source, 'plugins/org.example.api_1.0.0.v1.jar'), [
+                'Bundle-SymbolicName': 'org.example.api;singleton:=true',
+                'Bundle-Version': '1.0.0.v1',
+                'Bundle-Name': '%name',
+                'Export-Package': 'org.example.api;version="1.0.0",org.example.api.spi;org.example.api.util;version=1.1'],
+                ['OSGI-INF/l10n/bundle.properties': 'name=Example API'])
+        jar(new File(source, 'plugins/org.example.core_1.0.0.v2.jar'), [
+                'Bundle-SymbolicName': 'org.example.core',
+                'Bundle-Version': '1.0.0.v2',
+                'Import-Package': 'org.example.api;version="[1.0,2.0)",org.example.missing;resolution:=optional',
+                'Require-Bundle': 'org.example.api;bundle-version="1.0.0"',
+                'Eclipse-BundleShape': 'dir'])
+        jar(new File(source, 'plugins/org.example.win32_1.0.0.jar'), [
+                'Bundle-SymbolicName': 'org.example.win32',
+                'Bundle-Version': '1.0.0',
+                'Fragment-Host': 'org.example.core;bundle-version="[1.0.0,2.0.0)"'])
+        jar(new File(source, 'plugins/plain.jar'), [:])
+        jar(new File(source, 'features/org.example.feature_1.0.0.v3.jar'), [:], ['feature.xml': '''<?xml version="1.0"?>
+<feature id="org.example.feature" label="%label" version="1.0.0.v3" provider-name="Example">
+   <description>An example</description>
+   <requires><import plugin="org.example.base" version="2.1.0" match="equivalent"/></requires>
+   <plugin id="org.example.api" version="0.0.0" unpack="false"/>
+   <plugin id="org.example.core" version="1.0.0.qualifier"/>
+   <plugin id="org.example.win32" version="1.0.0" os="win32" ws="win32"/>
+</feature>''', 'feature.properties': 'label=Example Feature'])
+
+        def repository = folder.newFolder('repository')
+        def published = new Publisher(2).publish(source.toPath(), repository.toPath(), 'example', true, true).units
+        assertEquals(5, published.size())
+        assertTrue(new File(repository, 'content.jar').isFile())
+        assertTrue(new File(repository, 'plugins/org.example.core_1.0.0.v2.jar').isFile())
+
+        def index = RepositoryReader.readMetadata(repository.toURI())
+        assertEquals(published.units*.toString(), index.units*.toString())
+
+        InstallableUnit api = index.find('org.example.api', '1.0.0.v1')
+        assertTrue(api.singleton)
+        assertEquals('Example API', api.getProperty(Publisher.PROPERTY_NAME))
+        assertEquals(['org.example.api/1.0.0', 'org.example.api.spi/1.1.0', 'org.example.api.util/1.1.0'],
+                api.provides.findAll { it.namespace == 'java.package' }.collect { "${it.name}/${it.version}".toString() })
+        assertEquals('Bundle-SymbolicName: org.example.api;singleton:=true\nBundle-Version: 1.0.0.v1\n',
+                api.instructions[InstallableUnit.INSTRUCTION_MANIFEST])
+
+        InstallableUnit core = index.find('org.example.core', null)
+        assertTrue(core.zipped)
+        assertTrue(core.requires.find { it.name == 'org.example.missing' }.optional)
+        assertEquals('[1.0.0,2.0.0)', core.requires.find { it.name == 'org.example.api' && it.namespace == 'java.package' }.range.toString())
+
+        InstallableUnit group = index.find('org.example.feature.feature.group', null)
+        assertTrue(group.group)
+        assertEquals('Example Feature', group.getProperty(Publisher.PROPERTY_NAME))
+        assertEquals('[1.0.0.v2,1.0.0.v2]', group.requires.find { it.name == 'org.example.core' }.range.toString())
+        assertEquals('[2.1.0,2.2.0)', group.requires.find { it.name == 'org.example.base' }.range.toString())
+
+        def slicer = new Slicer(index)
+        slicer.platform = ['osgi.os': 'linux', 'osgi.ws': 'gtk', 'osgi.arch': 'x86_64']
+        slicer.includeFeatures = true
+        assertEquals(['org.example.api/1.0.0.v1', 'org.example.core/1.0.0.v2',
+                      'org.example.feature.feature.group/1.0.0.v3', 'org.example.feature.feature.jar/1.0.0.v3'],
+                slicer.slice([group])*.toString())
+
+        def artifacts = RepositoryReader.readArtifacts(repository.toURI())
+        assertEquals(4, artifacts.size())
+        assertTrue(new RepositoryVerifier(2).verify(artifacts, repository.toPath()).intact)
+    }
+
+    @Test
+    void testIncrementalPublish() {
+        def repository = folder.newFolder('repository')
+        def plugins = new File(repository, 'plugins')
+        (1..5).each { jar(new File(plugins, "org.example.b${it}_1.0.0.jar"), ['Bundle-SymbolicName': "org.example.b${it}", 'Bundle-Version': '1.0.0']) }
+        def publisher = new Publisher(2)
+        publisher.stateFile = new File(folder.root, 'state.properties').toPath()
+
+        def first = publisher.publish(repository.toPath(), repository.toPath(), 'example', false, true)
+        assertEquals(5, first.read)
+        assertEquals(0, first.unchanged)
+
+        def changed = new File(plugins, 'org.example.b3_1.0.0.jar')
+        jar(changed, ['Bundle-SymbolicName': 'org.example.b3', 'Bundle-Version': '1.0.0', 'Export-Package': 'org.example.b3'])
+        changed.lastModified = changed.lastModified() + 2000
+        jar(new File(plugins, 'org.example.b6_1.0.0.jar'), ['Bundle-SymbolicName': 'org.example.b6', 'Bundle-Version': '1.0.0'])
+
+        def second = publisher.publish(repository.toPath(), repository.toPath(), 'example', false, true)
+        assertEquals(second.toString(), 2, second.read)
+        assertEquals(4, second.unchanged)
+
+        def index = RepositoryReader.readMetadata(repository.toURI())
+        assertEquals(6, index.size())
+        assertNotNull(index.find('org.example.b3', null).provides.find { it.name == 'org.example.b3' && it.namespace == 'java.package' })
+        assertEquals(index.find('org.example.b1', null).instructions, first.units.find('org.example.b1', null).instructions)
+        assertTrue(new RepositoryVerifier(2).verify(RepositoryReader.readArtifacts(repository.toURI()), repository.toPath()).intact)
+
+        new File(repository, 'content.jar').delete()
+        assertEquals("without metadata all jars are read again", 6, publisher.publish(repository.toPath(), repository.toPath(), 'example', false, true).read)
+    }
+
+    @Test
+    void testXzMetadata() {
+        def source = folder.newFolder('source')
+        (1..3).each { jar(new File(source, "plugins/org.example.b${it}_1.0.0.jar"), ['Bundle-SymbolicName': "org.example.b${it}", 'Bundle-Version': '1.0.0']) }
+
+        def repository = folder.newFolder('repository')
+        def publisher = new Publisher(2)
+        publisher.xz = true
+        def units = publisher.publish(source.toPath(), repository.toPath(), 'example', true, true).units
+        assertTrue(new File(repository, 'content.jar').isFile())
+        assertTrue(new File(repository, 'artifacts.xml.xz').isFile())
+        assertTrue(new File(repository, 'p2.index').text.contains('metadata.repository.factory.order=content.xml.xz,content.xml,\\!'))
+        assertEquals(units.units*.toString(), RepositoryReader.readMetadata(repository.toURI()).units*.toString())
+
+        publisher.xzOnly = true
+        publisher.publish(source.toPath(), repository.toPath(), 'example', true, true)
+        assertEquals(['artifacts.xml.xz', 'content.xml.xz', 'p2.index', 'plugins'], repository.list().toList().sort())
+        assertEquals(3, RepositoryReader.readArtifacts(repository.toURI()).size())
+
+        def forked = folder.newFolder('forked')
+        new Publisher(2).publish(source.toPath(), forked.toPath(), 'example', true, true)
+        new RepositoryWriter().writeXz(forked.toPath())
+        assertTrue(new File(forked, 'content.jar').isFile())
+        assertEquals(units.units*.toString(), RepositoryReader.readMetadata(forked.toURI()).units*.toString())
+        assertTrue(new File(forked, 'p2.index').text.contains('artifact.repository.factory.order=artifacts.xml.xz,artifacts.xml,\\!'))
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata.test
+
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.MetadataIndex
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryReader
+import de.monkeyworks.buildmonkey.p2.metadata.Slicer
+import de.monkeyworks.buildmonkey.p2.metadata.Version
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.tukaani.xz.LZMA2Options
+import org.tukaani.xz.XZOutputStream
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import static org.junit.Assert.*
+
+class RepositoryReaderTest {
+
+    static final String CONTENT = '''<?xml version='1.0' encoding='UTF-8'?>
+<?metadataRepository version='1.1.0'?>
+<repository name='test' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>
+  <units size='5'>
+    <unit id='org.example.feature.feature.group' version='1.0.0.v1'>
+      <properties size='1'>
+        <property name='org.eclipse.equinox.p2.type.group' value='true'/>
+      </properties>
+      <provides size='1'>
+        <provided namespace='org.eclipse.equinox.p2.iu' name='org.example.feature.feature.group' version='1.0.0.v1'/>
+      </provides>
+      <requires size='3'>
+        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.core' range='[2.0.0.v2,2.0.0.v2]'/>
+        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.linux' range='[1.0.0,1.0.0]'>
+          <filter>(&amp;(osgi.os=linux)(osgi.arch=x86_64))</filter>
+        </required>
+        <required namespace='org.eclipse.equinox.p2.iu' name='org.example.feature.feature.jar' range='[1.0.0.v1,1.0.0.v1]'>
+          <filter>(org.eclipse.update.install.features=true)</filter>
+        </required>
+      </requires>
+    </unit>
+    <unit id='org.example.core' version='2.0.0.v2'>
+      <provides size='2'>
+        <provided namespace='org.eclipse.equinox.p2.iu' name='org.example.core' version='2.0.0.v2'/>
+        <provided namespace='osgi.bundle' name='org.example.core' version='2.0.0.v2'/>
+      </provides>
+      <requires size='1'>
+        <required namespace='java.package' name='org.example.api' range='[1.0.0,2.0.0)'/>
+      </requires>
+      <artifacts size='1'>
+        <artifact classifier='osgi.bundle' id='org.example.core' version='2.0.0.v2'/>
+      </artifacts>
+    </unit>
+    <unit id='org.example.linux' version='1.0.0'>
+      <filter>(osgi.os=linux)</filter>
+      <provides size='1'>
+        <provided namespace='org.eclipse.equinox.p2.iu' name='org.example.linux' version='1.0.0'/>
+      </provides>
+    </unit>
+    <unit id='org.example.feature.feature.jar' version='1.0.0.v1'>
+      <provides size='1'>
+        <provided namespace='org.eclipse.equinox.p2.iu' name='org.example.feature.feature.jar' version='1.0.0.v1'/>
+      </provides>
+    </unit>
+  </units>
+</repository>
+'''
+
+    static final String API = '''<?xml version='1.0' encoding='UTF-8'?>
+<repository name='api' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>
+  <units size='2'>
+    <unit id='org.example.api' version='1.1.0'>
+      <provides size='1'>
+        <provided namespace='java.package' name='org.example.api' version='1.1.0'/>
+      </provides>
+    </unit>
+    <unit id='org.example.api' version='2.0.0'>
+      <provides size='1'>
+        <provided namespace='java.package' name='org.example.api' version='2.0.0'/>
+      </provides>
+    </unit>
+  </units>
+</repository>
+'''
+
+    static final String ARTIFACTS = '''<?xml version='1.0' encoding='UTF-8'?>
+<repository name='test' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>
+  <mappings size='1'>
+    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>
+  </mappings>
+  <artifacts size='2'>
+    <artifact classifier='osgi.bundle' id='org.example.core' version='2.0.0.v2'>
+      <properties size='2'>
+        <property name='download.size' value='1234'/>
+        <property name='download.checksum.sha-256' value='abcdef'/>
+      </properties>
+    </artifact>
+    <artifact classifier='osgi.bundle' id='org.example.core' version='2.0.0.v2'>
+      <processing size='1'>
+        <step id='org.eclipse.equinox.p2.processing.Pack200Unpacker' required='true'/>
+      </processing>
+      <properties size='2'>
+        <property name='format' value='packed'/>
+        <property name='download.size' value='400'/>
+      </properties>
+    </artifact>
+  </artifacts>
+</repository>
+'''
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    private File createComposite() {
+        File composite = folder.newFolder('composite')
+        File core = new File(composite, 'core')
+        core.mkdirs()
+        new ZipOutputStream(new FileOutputStream(new File(core, 'content.jar'))).withStream { zip ->
+            zip.putNextEntry(new ZipEntry('content.xml'))
+            zip << CONTENT.getBytes('UTF-8')
+        }
+        new File(core, 'artifacts.xml').text = ARTIFACTS
+
+        File api = new File(composite, 'api')
+        api.mkdirs()
+        new XZOutputStream(new FileOutputStream(new File(api, 'content.xml.xz')), new LZMA2Options()).withStream { xz ->
+            xz << API.getBytes('UTF-8')
+        }
+        new File(api, 'p2.index').text = 'version=1\nmetadata.repository.factory.order=content.xml.xz,\\!\n'
+
+        new File(composite, 'compositeContent.xml').text = '''<?xml version='1.0' encoding='UTF-8'?>
+<?compositeMetadataRepository version='1.0.0'?>
+<repository name='composite' type='org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository' version='1.0.0'>
+  <children size='3'>
+    <child location='core'/>
+    <child location='api/'/>
+    <child location='core'/>
+  </children>
+</repository>
+'''
+        return composite
+    }
+
+    @Test
+    void testReadComposite() {
+        MetadataIndex index = RepositoryReader.readMetadata(createComposite().toURI())
+
+        assertEquals("units of all children should be read once", 6, index.size())
+        def group = index.find('org.example.feature.feature.group', '0.0.0')
+        assertTrue(group.group)
+        assertEquals(3, group.requires.size())
+        assertEquals('(osgi.os=linux)', index.find('org.example.linux', '1.0.0').filter)
+        assertEquals(Version.parse('2.0.0'), index.getLatest('org.example.api').version)
+        assertEquals([new ArtifactKey(ArtifactKey.BUNDLE, 'org.example.core', Version.parse('2.0.0.v2'))],
+                index.find('org.example.core', '2.0.0.v2').artifacts)
+    }
+
+    @Test
+    void testSlice() {
+        MetadataIndex index = RepositoryReader.readMetadata(createComposite().toURI())
+        def roots = [index.find('org.example.feature.feature.group', '0.0.0')]
+
+        def slicer = new Slicer(index)
+        assertEquals("without platform filters are ignored", [
+                'org.example.api/1.1.0', 'org.example.core/2.0.0.v2',
+                'org.example.feature.feature.group/1.0.0.v1', 'org.example.feature.feature.jar/1.0.0.v1',
+                'org.example.linux/1.0.0'], slicer.slice(roots)*.toString())
+
+        slicer.platform = ['osgi.os': 'win32', 'osgi.ws': 'win32', 'osgi.arch': 'x86_64']
+        slicer.includeFeatures = false
+        slicer.followStrict = true
+        assertEquals([
+                'org.example.core/2.0.0.v2', 'org.example.feature.feature.group/1.0.0.v1'], slicer.slice(roots)*.toString())
+    }
+
+    @Test
+    void testReadArtifacts() {
+        File composite = createComposite()
+        def index = RepositoryReader.readArtifacts(new File(composite, 'core').toURI())
+        def key = new ArtifactKey(ArtifactKey.BUNDLE, 'org.example.core', Version.parse('2.0.0.v2'))
+
+        assertEquals(1, index.size())
+        assertEquals(2, index.getAll(key).size())
+        assertEquals("canonical descriptor should be preferred", 1234, index.get(key).downloadSize)
+        assertEquals('abcdef', index.get(key).sha256)
+        assertEquals('plugins/org.example.core_2.0.0.v2.jar', key.path)
+    }
+
+    @Test(expected = FileNotFoundException)
+    void testMissingRepository() {
+        RepositoryReader.readMetadata(folder.newFolder('empty').toURI())
+    }
+}
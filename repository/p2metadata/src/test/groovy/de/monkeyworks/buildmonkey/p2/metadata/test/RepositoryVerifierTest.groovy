@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015 the original author or authors.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package de.monkeyworks.buildmonkey.p2.metadata.test
+
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactDescriptor
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactIndex
+import de.monkeyworks.buildmonkey.p2.metadata.ArtifactKey
+import de.monkeyworks.buildmonkey.p2.metadata.RepositoryVerifier
+import de.monkeyworks.buildmonkey.p2.metadata.Version
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.security.MessageDigest
+
+import static org.junit.Assert.*
+
+class RepositoryVerifierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+
+    @Test
+    void testCorruptAndMissingArtifacts() {
+        def repository = folder.newFolder('repository').toPath()
+        def index = new ArtifactIndex()
+        def location = repository.toUri()
+        def artifact = { String classifier, String id, String content, String checksum ->
+            def key = new ArtifactKey(classifier, id, Version.parse('1.0.0'))
+            def file = repository.resolve(key.path).toFile()
+            file.parentFile.mkdirs()
+            file.bytes = content.bytes
+            index.add(new ArtifactDescriptor(key, [(checksum): MessageDigest.getInstance(checksum == ArtifactDescriptor.DOWNLOAD_MD5 ? 'MD5' : 'SHA-256')
+                    .digest(content.bytes).encodeHex().toString()]), location)
+            return key
+        }
+
+        artifact(ArtifactKey.BUNDLE, 'org.example.sha', 'sha-256 checked', ArtifactDescriptor.DOWNLOAD_SHA256)
+        artifact(ArtifactKey.FEATURE, 'org.example.md5', 'md5 checked', ArtifactDescriptor.DOWNLOAD_MD5)
+        def corrupt = artifact(ArtifactKey.BUNDLE, 'org.example.corrupt', 'original', ArtifactDescriptor.DOWNLOAD_SHA256)
+        repository.resolve(corrupt.path).toFile().text = 'changed'
+        def missing = artifact(ArtifactKey.BUNDLE, 'org.example.missing', 'gone', ArtifactDescriptor.DOWNLOAD_MD5)
+        repository.resolve(missing.path).toFile().delete()
+
+        def report = new RepositoryVerifier(2).verify(index, repository)
+
+        assertEquals(report.toString(), 2, report.verified)
+        assertEquals([corrupt] as Set, report.corrupt.keySet())
+        assertTrue(report.corrupt[corrupt].startsWith('SHA-256'))
+        assertEquals([missing] as Set, report.missing)
+        assertFalse(report.intact)
+    }
+}